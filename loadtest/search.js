@@ -0,0 +1,80 @@
+// TODO 서블릿(기본)과 reactive 프로필의 /search 게이트웨이를 같은 부하로 비교하는 k6 스크립트.
+//  1) ./gradlew bootRun                                            (서블릿, 요청당 스레드)
+//  2) ./gradlew bootRun --args='--spring.profiles.active=reactive'  (WebFlux, 이벤트 루프)
+//  각각 k6 run -e BASE_URL=http://localhost:8080 -e VUS=10000 -e PROFILE=servlet|reactive loadtest/search.js 로 실행하고
+//  http_req_duration p99, 처리량, 그리고 /actuator/metrics/jvm.threads.live 의 스레드 수를 비교한다.
+//  요약은 loadtest/results/{PROFILE}.json 에 남는다. 두 프로필의 실측 비교는 아직 하지 않았다.
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8080';
+const VUS = parseInt(__ENV.VUS || '1000');
+const PROFILE = __ENV.PROFILE || 'servlet';
+
+export const options = {
+    scenarios: {
+        slow_searches: {
+            executor: 'ramping-vus',
+            startVUs: 0,
+            stages: [
+                { duration: '30s', target: VUS },
+                { duration: '2m', target: VUS },
+                { duration: '15s', target: 0 },
+            ],
+            gracefulRampDown: '10s',
+        },
+    },
+    summaryTrendStats: ['med', 'p(95)', 'p(99)', 'max'],
+    thresholds: {
+        http_req_failed: ['rate<0.01'],
+    },
+};
+
+const DAYS = ['Monday', 'Tuesday', 'Wednesday', 'Thursday', 'Friday', 'Saturday', 'Sunday'];
+
+export default function () {
+    const body = JSON.stringify({
+        index: 'kibana_sample_data_ecommerce',
+        must: { category: 'clothing' },
+        filter: { day_of_week: DAYS[Math.floor(Math.random() * DAYS.length)] },
+        fields: ['order_id', 'customer_full_name', 'taxful_total_price'],
+        limit: 500,
+    });
+    const response = http.post(`${BASE_URL}/search`, body, {
+        headers: { 'Content-Type': 'application/json', Accept: 'application/x-ndjson' },
+        timeout: '60s',
+    });
+    check(response, {
+        'status is 200': (r) => r.status === 200,
+    });
+}
+
+// TODO 부하가 끝난 직후 게이트웨이의 라이브 스레드 수를 같이 기록한다.
+export function teardown() {
+    const response = http.get(`${BASE_URL}/actuator/metrics/jvm.threads.live`);
+    if (response.status === 200) {
+        console.log(`jvm.threads.live: ${response.json().measurements[0].value}`);
+    }
+}
+
+export function handleSummary(data) {
+    const duration = data.metrics.http_req_duration.values;
+    const result = {
+        profile: PROFILE,
+        vus: VUS,
+        requests: data.metrics.http_reqs.values.count,
+        throughput: data.metrics.http_reqs.values.rate,
+        failed: data.metrics.http_req_failed.values.rate,
+        p50: duration['med'],
+        p95: duration['p(95)'],
+        p99: duration['p(99)'],
+        max: duration['max'],
+    };
+    return {
+        stdout: `profile: ${PROFILE}, vus: ${VUS}\n`
+            + `requests: ${result.requests}\n`
+            + `throughput: ${result.throughput.toFixed(1)} req/s\n`
+            + `p50: ${result.p50.toFixed(1)} ms, p95: ${result.p95.toFixed(1)} ms, p99: ${result.p99.toFixed(1)} ms, max: ${result.max.toFixed(1)} ms\n`,
+        [`loadtest/results/${PROFILE}.json`]: JSON.stringify(result, null, 2),
+    };
+}
@@ -0,0 +1,91 @@
+package com.gravylab.elasticstack.benchmark;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MappingBuildingBenchmark {
+
+    public static final String PROPERTIES = "properties";
+    public static final String TYPE = "type";
+    public static final String TEXT = "text";
+    public static final String SHORT = "short";
+    public static final String KEYWORD = "keyword";
+    public static final String DYNAMIC_TEMPLATES = "dynamic_templates";
+    public static final String MATCH = "match";
+    public static final String UNMATCH = "unmatch";
+    public static final String MAPPING = "mapping";
+    public static final String LONG = "long";
+
+    @Benchmark
+    public BytesReference build_properties_mapping() throws IOException {
+        XContentBuilder mappingBuilder = XContentFactory.jsonBuilder();
+        mappingBuilder.startObject();
+        {
+            mappingBuilder.startObject(PROPERTIES);
+            {
+                mappingBuilder.startObject("name");
+                {
+                    mappingBuilder.field(TYPE, TEXT);
+                }
+                mappingBuilder.endObject();
+
+                mappingBuilder.startObject("age");
+                {
+                    mappingBuilder.field(TYPE, SHORT);
+                }
+                mappingBuilder.endObject();
+
+                mappingBuilder.startObject("gender");
+                {
+                    mappingBuilder.field(TYPE, KEYWORD);
+                }
+                mappingBuilder.endObject();
+            }
+            mappingBuilder.endObject();
+        }
+        mappingBuilder.endObject();
+        return BytesReference.bytes(mappingBuilder);
+    }
+
+    @Benchmark
+    public BytesReference build_dynamic_template_mapping() throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        builder.startObject();
+        {
+            builder.startArray(DYNAMIC_TEMPLATES);
+            {
+                builder.startObject();
+                {
+                    builder.startObject("my_long_fields");
+                    {
+                        builder.field(MATCH, "long_*");
+                        builder.field(UNMATCH, "*_text");
+                        builder.startObject(MAPPING);
+                        {
+                            builder.field(TYPE, LONG);
+                        }
+                        builder.endObject();
+                    }
+                    builder.endObject();
+                }
+                builder.endObject();
+            }
+            builder.endArray();
+        }
+        builder.endObject();
+        return BytesReference.bytes(builder);
+    }
+}
@@ -0,0 +1,115 @@
+package com.gravylab.elasticstack.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gravylab.elasticstack.search.QueryTemplate;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QueryBuildingBenchmark {
+
+    public static final String DAY_OF_WEEK = "day_of_week";
+    public static final String CUSTOMER_FULL_NAME = "customer_full_name";
+    public static final String CUSTOMER_FIRST_NAME = "customer_first_name";
+    public static final String CUSTOMER_LAST_NAME = "customer_last_name";
+    public static final Map<String, Object> FILTER_AND_MUST_PARAMS = Map.of("day", "Sunday", "min_price", 30, "max_price", 60, "name", "mary");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final QueryTemplate filterAndMustTemplate = QueryTemplate.compile("filter_and_must", filterAndMustQuery(
+            QueryTemplate.param("day"), QueryTemplate.param("min_price"), QueryTemplate.param("max_price"), QueryTemplate.param("name")));
+
+    @Benchmark
+    public SearchSourceBuilder build_multi_bool_query() {
+        return multiBoolQuery();
+    }
+
+    @Benchmark
+    public SearchSourceBuilder build_complex_bool_query() {
+        return complexBoolQuery();
+    }
+
+    @Benchmark
+    public BytesReference build_and_serialize_multi_bool_query() throws IOException {
+        return serialize(multiBoolQuery());
+    }
+
+    @Benchmark
+    public BytesReference build_and_serialize_filter_and_must_query() throws IOException {
+        return serialize(filterAndMustQuery("Sunday", 30, 60, "mary"));
+    }
+
+    @Benchmark
+    public byte[] render_compiled_filter_and_must_query() {
+        return filterAndMustTemplate.render(FILTER_AND_MUST_PARAMS, objectMapper);
+    }
+
+    private SearchSourceBuilder multiBoolQuery() {
+        return new SearchSourceBuilder()
+                .query(
+                        boolQuery()
+                                .must(
+                                        termQuery(DAY_OF_WEEK, "Sunday")
+                                )
+                                .must(
+                                        matchQuery(CUSTOMER_FULL_NAME, "mary")
+                                )
+                );
+    }
+
+    private SearchSourceBuilder complexBoolQuery() {
+        return new SearchSourceBuilder()
+                .query(
+                        boolQuery()
+                                .must(
+                                        matchQuery(CUSTOMER_FIRST_NAME, "mary")
+                                )
+                                .mustNot(
+                                        termQuery(CUSTOMER_LAST_NAME, "bailey")
+                                )
+                );
+    }
+
+    private SearchSourceBuilder filterAndMustQuery(Object dayOfWeek, Object minPrice, Object maxPrice, Object name) {
+        return new SearchSourceBuilder()
+                .query(
+                        boolQuery()
+                                .filter(
+                                        termQuery(DAY_OF_WEEK, dayOfWeek)
+                                )
+                                .filter(
+                                        rangeQuery("products.base_price")
+                                                .gte(minPrice)
+                                                .lte(maxPrice)
+                                )
+                                .must(
+                                        matchQuery(CUSTOMER_FULL_NAME, name)
+                                )
+                );
+    }
+
+    private BytesReference serialize(SearchSourceBuilder searchSourceBuilder) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        searchSourceBuilder.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return BytesReference.bytes(builder);
+    }
+}
@@ -0,0 +1,73 @@
+package com.gravylab.elasticstack.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gravylab.elasticstack.ecommerce.EcommerceOrder;
+import com.gravylab.elasticstack.search.SearchHitMapper;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//TODO 실제 kibana_sample_data_ecommerce 검색 응답을 녹화한 픽스처를 사용하기 때문에 클러스터 없이 실행할 수 있다.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SearchResponseParsingBenchmark {
+
+    private static final String FIXTURE = "/fixtures/ecommerce_search_response.json";
+
+    private byte[] responseBytes;
+    private SearchResponse searchResponse;
+    private SearchHitMapper searchHitMapper;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream inputStream = SearchResponseParsingBenchmark.class.getResourceAsStream(FIXTURE)) {
+            responseBytes = inputStream.readAllBytes();
+        }
+        searchResponse = parse();
+        searchHitMapper = new SearchHitMapper(new ObjectMapper());
+    }
+
+    @Benchmark
+    public SearchResponse parse_search_response() throws IOException {
+        return parse();
+    }
+
+    //TODO SearchHit.getSourceAsMap() 은 처음 변환한 맵을 hit 에 저장해 두기 때문에 두 번째 호출부터는 필드를 읽기만 한다.
+    // 매번 _source 바이트에서 새로 변환해야 타입 매퍼와 같은 일을 비교할 수 있다.
+    @Benchmark
+    public void hits_as_source_map(Blackhole blackhole) {
+        for (SearchHit hit : searchResponse.getHits().getHits()) {
+            blackhole.consume(XContentHelper.convertToMap(hit.getSourceRef(), false, XContentType.JSON).v2());
+        }
+    }
+
+    @Benchmark
+    public List<EcommerceOrder> hits_as_typed_object() {
+        return searchHitMapper.map(searchResponse, EcommerceOrder.class);
+    }
+
+    private SearchResponse parse() throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent()
+                .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, responseBytes)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+}
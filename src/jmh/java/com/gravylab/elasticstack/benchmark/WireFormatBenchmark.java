@@ -0,0 +1,147 @@
+package com.gravylab.elasticstack.benchmark;
+
+import com.gravylab.elasticstack.client.WireFormat;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//TODO 전송 형식(JSON/SMILE/CBOR)과 gzip 여부에 따른 bulk 요청 인코딩, 검색 응답 디코딩 비용을 비교한다.
+// 처리량(ops/ms)이 CPU 비용이고, WireBytes 의 카운터를 처리량으로 나누면 요청 한 번당 네트워크로 나가는 바이트 수가 된다.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WireFormatBenchmark {
+
+    private static final String FIXTURE = "/fixtures/ecommerce_search_response.json";
+    private static final String INDEX = "kibana_sample_data_ecommerce";
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public WireFormat wireFormat;
+
+    @Param({"false", "true"})
+    public boolean compressionEnabled;
+
+    private List<Map<String, Object>> sources;
+    private byte[] responseBytes;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class WireBytes {
+        public long requestBytes;
+        public long responseBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requestBytes = 0;
+            responseBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] jsonBytes;
+        try (InputStream inputStream = WireFormatBenchmark.class.getResourceAsStream(FIXTURE)) {
+            jsonBytes = inputStream.readAllBytes();
+        }
+        sources = new ArrayList<>();
+        for (SearchHit hit : parse(jsonBytes, XContentType.JSON).getHits().getHits()) {
+            sources.add(hit.getSourceAsMap());
+        }
+        responseBytes = compress(convert(jsonBytes, wireFormat.xContentType()));
+    }
+
+    @Benchmark
+    public byte[] encode_bulk_request(WireBytes wireBytes) throws IOException {
+        XContentType contentType = wireFormat.bulkContentType();
+        byte separator = contentType.xContent().streamSeparator();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (Map<String, Object> source : sources) {
+            try (XContentBuilder action = XContentFactory.contentBuilder(contentType)) {
+                action.startObject()
+                        .startObject("index")
+                        .field("_index", INDEX)
+                        .endObject()
+                        .endObject();
+                BytesReference.bytes(action).writeTo(outputStream);
+            }
+            outputStream.write(separator);
+            try (XContentBuilder document = XContentFactory.contentBuilder(contentType)) {
+                BytesReference.bytes(document.map(source)).writeTo(outputStream);
+            }
+            outputStream.write(separator);
+        }
+        byte[] body = compress(outputStream.toByteArray());
+        wireBytes.requestBytes += body.length;
+        return body;
+    }
+
+    @Benchmark
+    public SearchResponse decode_search_response(WireBytes wireBytes) throws IOException {
+        wireBytes.responseBytes += responseBytes.length;
+        return parse(decompress(responseBytes), wireFormat.xContentType());
+    }
+
+    private byte[] compress(byte[] bytes) throws IOException {
+        if (!compressionEnabled) {
+            return bytes;
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(bytes);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private byte[] decompress(byte[] bytes) throws IOException {
+        if (!compressionEnabled) {
+            return bytes;
+        }
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return inputStream.readAllBytes();
+        }
+    }
+
+    private static byte[] convert(byte[] jsonBytes, XContentType contentType) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent()
+                .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, jsonBytes);
+             XContentBuilder builder = XContentFactory.contentBuilder(contentType)) {
+            parser.nextToken();
+            builder.copyCurrentStructure(parser);
+            return BytesReference.toBytes(BytesReference.bytes(builder));
+        }
+    }
+
+    private static SearchResponse parse(byte[] bytes, XContentType contentType) throws IOException {
+        try (XContentParser parser = contentType.xContent()
+                .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, bytes)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+}
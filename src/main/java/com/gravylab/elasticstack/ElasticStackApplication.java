@@ -2,8 +2,11 @@ package com.gravylab.elasticstack;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.elasticsearch.ElasticsearchRestClientAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
-@SpringBootApplication
+@SpringBootApplication(exclude = ElasticsearchRestClientAutoConfiguration.class)
+@ConfigurationPropertiesScan
 public class ElasticStackApplication {
 
     public static void main(String[] args) {
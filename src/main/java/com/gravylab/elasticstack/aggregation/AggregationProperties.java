@@ -0,0 +1,13 @@
+package com.gravylab.elasticstack.aggregation;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.aggregation")
+public class AggregationProperties {
+
+    private int compositePageSize = 500;
+}
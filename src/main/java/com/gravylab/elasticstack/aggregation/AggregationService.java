@@ -0,0 +1,98 @@
+package com.gravylab.elasticstack.aggregation;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import lombok.RequiredArgsConstructor;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Stats;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+//TODO 집계만 필요한 요청이므로 size 0 으로 히트를 가져오지 않고, 전체 히트 수도 세지 않는다.
+@Service
+@RequiredArgsConstructor
+public class AggregationService {
+
+    public static final String TERMS = "terms";
+    public static final String DATE_HISTOGRAM = "date_histogram";
+    public static final String STATS = "stats";
+    public static final String COMPOSITE = "composite";
+
+    private final RestHighLevelClient client;
+    private final AggregationProperties properties;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+
+    public List<? extends Terms.Bucket> terms(String index, QueryBuilder query, String field, int size) throws IOException {
+        Terms terms = aggregate(index, query, AggregationBuilders.terms(TERMS)
+                .field(field)
+                .size(size));
+        return terms.getBuckets();
+    }
+
+    public List<? extends Histogram.Bucket> dateHistogram(String index, QueryBuilder query, String field, DateHistogramInterval interval) throws IOException {
+        Histogram histogram = aggregate(index, query, AggregationBuilders.dateHistogram(DATE_HISTOGRAM)
+                .field(field)
+                .calendarInterval(interval));
+        return histogram.getBuckets();
+    }
+
+    public Stats stats(String index, QueryBuilder query, String field) throws IOException {
+        return aggregate(index, query, AggregationBuilders.stats(STATS)
+                .field(field));
+    }
+
+    //TODO 카디널리티가 높은 버킷을 한 번에 받지 않고 composite 집계의 after_key 로 페이지를 넘기며 스트리밍한다.
+    // 스트림을 소비하는 만큼만 다음 페이지를 요청한다.
+    public Stream<CompositeAggregation.Bucket> streamComposite(String index, QueryBuilder query, List<CompositeValuesSourceBuilder<?>> sources, AggregationBuilder... subAggregations) {
+        CompositeAggregationBuilder composite = AggregationBuilders.composite(COMPOSITE, sources)
+                .size(properties.getCompositePageSize());
+        for (AggregationBuilder subAggregation : subAggregations) {
+            composite.subAggregation(subAggregation);
+        }
+        SearchSourceBuilder source = aggregationSource(query, composite);
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(
+                        new CompositeBucketIterator(client, requestOptions, clusterCallGuard, index, source, composite),
+                        Spliterator.ORDERED | Spliterator.NONNULL
+                ),
+                false
+        );
+    }
+
+    private <A extends Aggregation> A aggregate(String index, QueryBuilder query, AggregationBuilder aggregation) throws IOException {
+        SearchRequest searchRequest = new SearchRequest(index).source(aggregationSource(query, aggregation));
+        SearchResponse searchResponse = clusterCallGuard.call(() -> client.search(searchRequest, requestOptions));
+        return searchResponse.getAggregations().get(aggregation.getName());
+    }
+
+    private static SearchSourceBuilder aggregationSource(QueryBuilder query, AggregationBuilder aggregation) {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .size(0)
+                .trackTotalHits(false)
+                .aggregation(aggregation);
+        if (query != null) {
+            source.query(query);
+        }
+        return source;
+    }
+}
@@ -0,0 +1,80 @@
+package com.gravylab.elasticstack.aggregation;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+//TODO 컴포지트 집계의 after_key 로 다음 페이지를 요청한다. 메모리에는 한 페이지의 버킷만 유지된다.
+// 버킷이 페이지 크기보다 적게 오거나 after_key 가 없으면 마지막 페이지로 본다.
+class CompositeBucketIterator implements Iterator<CompositeAggregation.Bucket> {
+
+    private final RestHighLevelClient client;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+    private final String index;
+    private final SearchSourceBuilder source;
+    private final CompositeAggregationBuilder composite;
+    private List<? extends CompositeAggregation.Bucket> page = Collections.emptyList();
+    private Map<String, Object> afterKey;
+    private int cursor;
+    private boolean lastPage;
+
+    CompositeBucketIterator(RestHighLevelClient client, RequestOptions requestOptions, ClusterCallGuard clusterCallGuard, String index, SearchSourceBuilder source,
+                            CompositeAggregationBuilder composite) {
+        this.client = client;
+        this.requestOptions = requestOptions;
+        this.clusterCallGuard = clusterCallGuard;
+        this.index = index;
+        this.source = source;
+        this.composite = composite;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (cursor < page.size()) {
+            return true;
+        }
+        if (lastPage) {
+            return false;
+        }
+        CompositeAggregation compositeAggregation = fetchNextPage();
+        page = compositeAggregation.getBuckets();
+        cursor = 0;
+        afterKey = compositeAggregation.afterKey();
+        lastPage = afterKey == null || page.size() < composite.size();
+        return cursor < page.size();
+    }
+
+    @Override
+    public CompositeAggregation.Bucket next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.get(cursor++);
+    }
+
+    private CompositeAggregation fetchNextPage() {
+        if (afterKey != null) {
+            composite.aggregateAfter(afterKey);
+        }
+        try {
+            SearchResponse searchResponse = clusterCallGuard.call(() -> client.search(new SearchRequest(index).source(source), requestOptions));
+            return searchResponse.getAggregations().get(composite.getName());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.gravylab.elasticstack.analyze;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+public class AnalyzeBatchRequest {
+
+    private String index;
+
+    private String analyzer;
+
+    private List<String> texts = new ArrayList<>();
+}
@@ -0,0 +1,13 @@
+package com.gravylab.elasticstack.analyze;
+
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+
+@EqualsAndHashCode
+@RequiredArgsConstructor
+class AnalyzeCacheKey {
+
+    private final String index;
+    private final String analyzer;
+    private final String text;
+}
@@ -0,0 +1,30 @@
+package com.gravylab.elasticstack.analyze;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class AnalyzeController {
+
+    private final AnalyzeService analyzeService;
+
+    public AnalyzeController(AnalyzeService analyzeService) {
+        this.analyzeService = analyzeService;
+    }
+
+    @PostMapping("/analyze")
+    public Map<String, List<String>> analyze(@RequestBody AnalyzeBatchRequest analyzeBatchRequest) throws IOException {
+        return analyzeService.analyze(
+                analyzeBatchRequest.getIndex(),
+                analyzeBatchRequest.getAnalyzer(),
+                analyzeBatchRequest.getTexts()
+        );
+    }
+}
@@ -0,0 +1,15 @@
+package com.gravylab.elasticstack.analyze;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.analyze")
+public class AnalyzeProperties {
+
+    private long cacheSize = 100_000;
+
+    private int maxBatchSize = 500;
+}
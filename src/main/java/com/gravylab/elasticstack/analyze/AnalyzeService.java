@@ -0,0 +1,134 @@
+package com.gravylab.elasticstack.analyze;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.AnalyzeRequest;
+import org.elasticsearch.client.indices.AnalyzeResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class AnalyzeService {
+
+    //TODO 여러 텍스트를 한 번에 분석하면 엘라스틱서치는 텍스트 사이에 분석기의 offset_gap 만큼 오프셋을 띄운다.
+    // 토큰의 start_offset 으로 어느 텍스트에서 나온 토큰인지 구분한다.
+    // 커스텀 분석기는 index.analysis.analyzer.{이름}.offset_gap 으로 바꿀 수 있고, 내장 분석기와 선언하지 않은 분석기는 1 이다.
+    private static final int DEFAULT_OFFSET_GAP = 1;
+
+    private final RestHighLevelClient client;
+    private final AnalyzeProperties properties;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+    private final Cache<AnalyzeCacheKey, List<String>> cache;
+    private final Map<String, Integer> offsetGaps = new ConcurrentHashMap<>();
+
+    public AnalyzeService(RestHighLevelClient client, AnalyzeProperties properties, RequestOptions requestOptions, ClusterCallGuard clusterCallGuard) {
+        this.client = client;
+        this.properties = properties;
+        this.requestOptions = requestOptions;
+        this.clusterCallGuard = clusterCallGuard;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getCacheSize())
+                .recordStats()
+                .build();
+    }
+
+    public List<String> analyze(String index, String analyzer, String text) throws IOException {
+        return analyze(index, analyzer, List.of(text)).get(text);
+    }
+
+    public Map<String, List<String>> analyze(String index, String analyzer, Collection<String> texts) throws IOException {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String text : new LinkedHashSet<>(texts)) {
+            List<String> tokens = cache.getIfPresent(new AnalyzeCacheKey(index, analyzer, text));
+            result.put(text, tokens);
+            if (tokens == null) {
+                misses.add(text);
+            }
+        }
+
+        for (int from = 0; from < misses.size(); from += properties.getMaxBatchSize()) {
+            List<String> batch = misses.subList(from, Math.min(from + properties.getMaxBatchSize(), misses.size()));
+            List<List<String>> analyzed = analyzeBatch(index, analyzer, batch);
+            for (int i = 0; i < batch.size(); i++) {
+                cache.put(new AnalyzeCacheKey(index, analyzer, batch.get(i)), analyzed.get(i));
+                result.put(batch.get(i), analyzed.get(i));
+            }
+        }
+        return result;
+    }
+
+    public void invalidate() {
+        cache.invalidateAll();
+        offsetGaps.clear();
+    }
+
+    private List<List<String>> analyzeBatch(String index, String analyzer, List<String> texts) throws IOException {
+        String[] array = texts.toArray(String[]::new);
+        AnalyzeRequest analyzeRequest = index == null
+                ? AnalyzeRequest.withGlobalAnalyzer(analyzer, array)
+                : AnalyzeRequest.withIndexAnalyzer(index, analyzer, array);
+        AnalyzeResponse analyzeResponse = clusterCallGuard.call(() -> client.indices().analyze(analyzeRequest, requestOptions));
+        int offsetGap = offsetGap(index, analyzer);
+
+        long[] startOffsets = new long[texts.size()];
+        List<List<String>> tokens = new ArrayList<>(texts.size());
+        long offset = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            startOffsets[i] = offset;
+            offset += texts.get(i).length() + offsetGap;
+            tokens.add(new ArrayList<>());
+        }
+
+        int textIndex = 0;
+        for (AnalyzeResponse.AnalyzeToken token : analyzeResponse.getTokens()) {
+            while (textIndex < texts.size() - 1 && token.getStartOffset() >= startOffsets[textIndex + 1]) {
+                textIndex++;
+            }
+            tokens.get(textIndex).add(token.getTerm());
+        }
+        return tokens;
+    }
+
+    //TODO 인덱스 설정은 분석기마다 한 번만 읽어 둔다. invalidate 하면 다시 읽는다.
+    private int offsetGap(String index, String analyzer) throws IOException {
+        if (index == null) {
+            return DEFAULT_OFFSET_GAP;
+        }
+        String key = index + "/" + analyzer;
+        Integer cached = offsetGaps.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String name = "index.analysis.analyzer." + analyzer + ".offset_gap";
+        GetSettingsResponse getSettingsResponse = clusterCallGuard.call(() -> client.indices()
+                .getSettings(new GetSettingsRequest().indices(index).names(name), requestOptions));
+        int offsetGap = DEFAULT_OFFSET_GAP;
+        Iterator<Settings> indexSettings = getSettingsResponse.getIndexToSettings().valuesIt();
+        while (indexSettings.hasNext()) {
+            Integer declared = indexSettings.next().getAsInt(name, null);
+            if (declared != null) {
+                offsetGap = declared;
+                break;
+            }
+        }
+        offsetGaps.put(key, offsetGap);
+        return offsetGap;
+    }
+}
@@ -0,0 +1,33 @@
+package com.gravylab.elasticstack.analyze;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+
+//TODO AnalyzeService 는 캐시와 배치 처리 때문에 블로킹 호출이라 이벤트 루프가 아닌 boundedElastic 스케줄러에서 실행한다.
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAnalyzeController {
+
+    private final AnalyzeService analyzeService;
+
+    public ReactiveAnalyzeController(AnalyzeService analyzeService) {
+        this.analyzeService = analyzeService;
+    }
+
+    @PostMapping("/analyze")
+    public Mono<Map<String, List<String>>> analyze(@RequestBody AnalyzeBatchRequest analyzeBatchRequest) {
+        return Mono.fromCallable(() -> analyzeService.analyze(
+                        analyzeBatchRequest.getIndex(),
+                        analyzeBatchRequest.getAnalyzer(),
+                        analyzeBatchRequest.getTexts()
+                ))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+}
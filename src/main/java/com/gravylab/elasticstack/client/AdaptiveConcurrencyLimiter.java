@@ -0,0 +1,64 @@
+package com.gravylab.elasticstack.client;
+
+//TODO 클러스터로 동시에 보낼 수 있는 요청 수를 AIMD 로 조절한다.
+// 응답이 latencyThreshold 안에 오고 한도를 절반 이상 쓰고 있으면 성공 한 번에 1/한도 만큼 늘려서
+// 한도만큼 성공해야 1 이 늘어나게 하고(additive increase),
+// 429/503 이나 연결 실패, 느린 응답을 받으면 backoffRatio 를 곱해 한 번에 줄인다(multiplicative decrease).
+// 한도를 넘는 요청은 기다리지 않고 바로 거절해서 스레드가 큐에 쌓이다 타임아웃 나는 대신 빨리 실패하게 한다.
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long latencyThresholdNanos) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.limit = initialLimit;
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    public synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos > latencyThresholdNanos) {
+            decrease();
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        inFlight--;
+    }
+
+    public synchronized void onDropped() {
+        decrease();
+        inFlight--;
+    }
+
+    //TODO 4xx 처럼 클러스터 부하와 무관한 실패는 한도를 건드리지 않고 자리만 돌려준다.
+    public synchronized void onIgnored() {
+        inFlight--;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+}
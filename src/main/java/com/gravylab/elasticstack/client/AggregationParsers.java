@@ -0,0 +1,76 @@
+package com.gravylab.elasticstack.client;
+
+import org.elasticsearch.common.CheckedBiFunction;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.ParsedComposite;
+import org.elasticsearch.search.aggregations.bucket.filter.FilterAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.ParsedFilter;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.HistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.ParsedDateHistogram;
+import org.elasticsearch.search.aggregations.bucket.histogram.ParsedHistogram;
+import org.elasticsearch.search.aggregations.bucket.range.ParsedRange;
+import org.elasticsearch.search.aggregations.bucket.range.RangeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.terms.DoubleTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.LongTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.ParsedDoubleTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.ParsedLongTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.metrics.AvgAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.CardinalityAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.MaxAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.MinAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.ParsedAvg;
+import org.elasticsearch.search.aggregations.metrics.ParsedCardinality;
+import org.elasticsearch.search.aggregations.metrics.ParsedMax;
+import org.elasticsearch.search.aggregations.metrics.ParsedMin;
+import org.elasticsearch.search.aggregations.metrics.ParsedStats;
+import org.elasticsearch.search.aggregations.metrics.ParsedSum;
+import org.elasticsearch.search.aggregations.metrics.ParsedTopHits;
+import org.elasticsearch.search.aggregations.metrics.ParsedValueCount;
+import org.elasticsearch.search.aggregations.metrics.StatsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.SumAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.TopHitsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.ValueCountAggregationBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+//TODO 저수준 클라이언트로 받은 typed_keys 검색 응답의 집계 결과를 공개된 Parsed* 파서로 읽는다.
+// 고수준 클라이언트의 파서 목록은 패키지 전용이라 쓸 수 없으므로, 여기 없는 집계 종류는 응답을 파싱할 때 실패한다.
+// 새 집계를 쓰기 시작하면 여기에 추가한다.
+public final class AggregationParsers {
+
+    private AggregationParsers() {
+    }
+
+    public static NamedXContentRegistry createRegistry() {
+        return new NamedXContentRegistry(List.of(
+                entry(StringTerms.NAME, ParsedStringTerms::fromXContent),
+                entry(LongTerms.NAME, ParsedLongTerms::fromXContent),
+                entry(DoubleTerms.NAME, ParsedDoubleTerms::fromXContent),
+                entry(DateHistogramAggregationBuilder.NAME, ParsedDateHistogram::fromXContent),
+                entry(HistogramAggregationBuilder.NAME, ParsedHistogram::fromXContent),
+                entry(CompositeAggregationBuilder.NAME, ParsedComposite::fromXContent),
+                entry(FilterAggregationBuilder.NAME, ParsedFilter::fromXContent),
+                entry(RangeAggregationBuilder.NAME, ParsedRange::fromXContent),
+                entry(StatsAggregationBuilder.NAME, ParsedStats::fromXContent),
+                entry(AvgAggregationBuilder.NAME, ParsedAvg::fromXContent),
+                entry(SumAggregationBuilder.NAME, ParsedSum::fromXContent),
+                entry(MinAggregationBuilder.NAME, ParsedMin::fromXContent),
+                entry(MaxAggregationBuilder.NAME, ParsedMax::fromXContent),
+                entry(ValueCountAggregationBuilder.NAME, ParsedValueCount::fromXContent),
+                entry(CardinalityAggregationBuilder.NAME, ParsedCardinality::fromXContent),
+                entry(TopHitsAggregationBuilder.NAME, ParsedTopHits::fromXContent)
+        ));
+    }
+
+    private static NamedXContentRegistry.Entry entry(String type, CheckedBiFunction<XContentParser, String, ? extends Aggregation, IOException> parser) {
+        return new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(type), (p, name) -> parser.apply(p, (String) name));
+    }
+}
@@ -0,0 +1,71 @@
+package com.gravylab.elasticstack.client;
+
+import java.util.function.LongSupplier;
+
+//TODO 과부하 신호(429/503, 연결 실패)가 failureThreshold 번 연속되면 openDuration 동안 회로를 열어 모든 호출을 바로 거절한다.
+// 시간이 지나면 요청 하나만 시험 삼아 보내고(half-open), 성공하면 닫고 실패하면 다시 연다.
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probing;
+
+    public CircuitBreaker(int failureThreshold, long openDurationNanos) {
+        this(failureThreshold, openDurationNanos, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openDurationNanos, LongSupplier nanoClock) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDurationNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= openDurationNanos) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAtNanos = nanoClock.getAsLong();
+        }
+        probing = false;
+    }
+
+    //TODO 부하와 무관하게 끝난 시험 요청은 판정 없이 다음 요청이 다시 시험하게 한다.
+    public synchronized void onIgnored() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
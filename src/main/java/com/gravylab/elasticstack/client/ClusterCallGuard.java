@@ -0,0 +1,208 @@
+package com.gravylab.elasticstack.client;
+
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.CheckedSupplier;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+//TODO 클러스터로 나가는 호출 앞에 서킷 브레이커와 적응형 동시성 제한을 둔다.
+// 거절된 호출은 클러스터가 429 로 거절할 때와 같은 EsRejectedExecutionException 으로 바로 실패시킨다.
+// 기동할 때 한 번씩 순서대로 보내는 템플릿 등록과 인덱스 마이그레이션, 스크롤/PIT 를 닫는 요청,
+// 검색 캐시 무효화를 위한 별칭 조회처럼 부하를 줄이거나 거절되면 안 되는 관리 요청은 거치지 않는다.
+public class ClusterCallGuard {
+
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+
+    public ClusterCallGuard(CircuitBreaker circuitBreaker, AdaptiveConcurrencyLimiter concurrencyLimiter, ElasticsearchMetrics elasticsearchMetrics) {
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        elasticsearchMetrics.registerCallGuard(this);
+    }
+
+    public static ClusterCallGuard create(ElasticsearchClientProperties.Guard guard, ElasticsearchMetrics elasticsearchMetrics) {
+        return new ClusterCallGuard(
+                new CircuitBreaker(guard.getFailureThreshold(), guard.getOpenDuration().toNanos()),
+                new AdaptiveConcurrencyLimiter(guard.getInitialLimit(), guard.getMinLimit(), guard.getMaxLimit(), guard.getBackoffRatio(), guard.getLatencyThreshold().toNanos()),
+                elasticsearchMetrics
+        );
+    }
+
+    public <T> Runnable execute(Function<ActionListener<T>, Cancellable> call, ActionListener<T> listener) {
+        return execute(call, response -> false, listener);
+    }
+
+    //TODO overloaded 는 성공 응답 안에 담긴 과부하 신호(예: 벌크 아이템의 429)를 판별한다.
+    // 반환값은 보낸 HTTP 요청을 취소하는 동작이고, 거절된 호출이면 아무 일도 하지 않는다.
+    // 클라이언트는 onResponse 에서 던진 예외를 다시 onFailure 로 넘기므로 먼저 온 결과 하나만 자리를 돌려주고 전달한다.
+    public <T> Runnable execute(Function<ActionListener<T>, Cancellable> call, Predicate<T> overloaded, ActionListener<T> listener) {
+        EsRejectedExecutionException rejected = acquire();
+        if (rejected != null) {
+            listener.onFailure(rejected);
+            return () -> {
+            };
+        }
+        long startNanos = System.nanoTime();
+        AtomicBoolean completed = new AtomicBoolean();
+        ActionListener<T> guarded = new ActionListener<>() {
+            @Override
+            public void onResponse(T response) {
+                if (!completed.compareAndSet(false, true)) {
+                    return;
+                }
+                boolean overload;
+                try {
+                    overload = overloaded.test(response);
+                } catch (RuntimeException e) {
+                    release(false, e, System.nanoTime() - startNanos);
+                    listener.onFailure(e);
+                    return;
+                }
+                release(overload, null, System.nanoTime() - startNanos);
+                listener.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Exception failure) {
+                if (!completed.compareAndSet(false, true)) {
+                    return;
+                }
+                release(false, failure, System.nanoTime() - startNanos);
+                listener.onFailure(failure);
+            }
+        };
+        Cancellable cancellable;
+        try {
+            cancellable = call.apply(guarded);
+        } catch (RuntimeException e) {
+            guarded.onFailure(e);
+            return () -> {
+            };
+        }
+        if (cancellable == null) {
+            return () -> {
+            };
+        }
+        return cancellable::cancel;
+    }
+
+    //TODO 저수준 클라이언트의 비동기 호출을 같은 방식으로 보호한다.
+    public Runnable perform(RestClient restClient, Request request, ActionListener<Response> listener) {
+        return execute(
+                responseListener -> restClient.performRequestAsync(request, new ResponseListener() {
+                    @Override
+                    public void onSuccess(Response response) {
+                        responseListener.onResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(Exception exception) {
+                        responseListener.onFailure(exception);
+                    }
+                }),
+                listener
+        );
+    }
+
+    public <T> T call(CheckedSupplier<T, IOException> call) throws IOException {
+        EsRejectedExecutionException rejected = acquire();
+        if (rejected != null) {
+            throw rejected;
+        }
+        long startNanos = System.nanoTime();
+        T response;
+        try {
+            response = call.get();
+        } catch (IOException | RuntimeException e) {
+            release(false, e, System.nanoTime() - startNanos);
+            throw e;
+        }
+        release(false, null, System.nanoTime() - startNanos);
+        return response;
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitBreaker.getState();
+    }
+
+    public int getConcurrencyLimit() {
+        return concurrencyLimiter.getLimit();
+    }
+
+    public int getInFlight() {
+        return concurrencyLimiter.getInFlight();
+    }
+
+    private EsRejectedExecutionException acquire() {
+        if (!circuitBreaker.tryAcquire()) {
+            elasticsearchMetrics.recordRejectedCall("circuit_open");
+            return new EsRejectedExecutionException("rejected by open circuit breaker", false);
+        }
+        if (!concurrencyLimiter.tryAcquire()) {
+            circuitBreaker.onIgnored();
+            elasticsearchMetrics.recordRejectedCall("concurrency_limit");
+            return new EsRejectedExecutionException("rejected by concurrency limit [" + concurrencyLimiter.getLimit() + "]", false);
+        }
+        return null;
+    }
+
+    private void release(boolean overloaded, Exception failure, long latencyNanos) {
+        if (failure != null) {
+            IOException transportFailure = transportFailure(failure);
+            if (transportFailure != null) {
+                elasticsearchMetrics.recordTransportFailure(transportFailure, latencyNanos);
+            }
+        }
+        if (overloaded || (failure != null && isOverload(failure))) {
+            concurrencyLimiter.onDropped();
+            circuitBreaker.onFailure();
+        } else if (failure != null) {
+            concurrencyLimiter.onIgnored();
+            circuitBreaker.onIgnored();
+        } else {
+            concurrencyLimiter.onSuccess(latencyNanos);
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    //TODO 429/503 과 연결/타임아웃 같은 IO 실패만 과부하로 본다. 404, 400 같은 요청 자체의 문제는 제외한다.
+    // 가드나 스레드풀이 요청을 받지 않은 EsRejectedExecutionException 도 429 와 같이 과부하로 본다.
+    public static boolean isOverload(Exception failure) {
+        if (failure instanceof EsRejectedExecutionException) {
+            return true;
+        }
+        int status;
+        if (failure instanceof ResponseException) {
+            status = ((ResponseException) failure).getResponse().getStatusLine().getStatusCode();
+        } else if (failure instanceof ElasticsearchException) {
+            status = ((ElasticsearchException) failure).status().getStatus();
+        } else {
+            return transportFailure(failure) != null;
+        }
+        return status == RestStatus.TOO_MANY_REQUESTS.getStatus() || status == RestStatus.SERVICE_UNAVAILABLE.getStatus();
+    }
+
+    //TODO 응답 없이 실패한 호출이면 원인이 된 IO 예외를, 응답을 받은 호출이면 null 을 돌려준다.
+    private static IOException transportFailure(Exception failure) {
+        if (failure instanceof ResponseException || failure instanceof ElasticsearchException) {
+            return null;
+        }
+        return (IOException) ExceptionsHelper.unwrap(failure, IOException.class);
+    }
+}
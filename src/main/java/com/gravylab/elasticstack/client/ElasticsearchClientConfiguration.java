@@ -0,0 +1,59 @@
+package com.gravylab.elasticstack.client;
+
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import com.gravylab.elasticstack.metrics.MeteredHttpInterceptor;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+public class ElasticsearchClientConfiguration {
+
+    @Bean
+    public MeteredHttpInterceptor meteredHttpInterceptor(ElasticsearchMetrics elasticsearchMetrics) {
+        return new MeteredHttpInterceptor(elasticsearchMetrics);
+    }
+
+    @Bean
+    public ElasticsearchClientFactory elasticsearchClientFactory(ElasticsearchClientProperties properties, MeteredHttpInterceptor meteredHttpInterceptor) {
+        return new ElasticsearchClientFactory(properties)
+                .addHttpClientConfigCallback(
+                        httpClientBuilder ->
+                                httpClientBuilder
+                                        .addInterceptorLast((HttpRequestInterceptor) meteredHttpInterceptor)
+                                        .addInterceptorLast((HttpResponseInterceptor) meteredHttpInterceptor)
+                );
+    }
+
+    @Bean
+    public RequestOptions elasticsearchRequestOptions(ElasticsearchClientFactory elasticsearchClientFactory) {
+        return elasticsearchClientFactory.createRequestOptions();
+    }
+
+    @Bean
+    public NamedXContentRegistry elasticsearchNamedXContentRegistry(ElasticsearchClientFactory elasticsearchClientFactory) {
+        return elasticsearchClientFactory.createNamedXContentRegistry();
+    }
+
+    @Bean
+    public ClusterCallGuard clusterCallGuard(ElasticsearchClientProperties properties, ElasticsearchMetrics elasticsearchMetrics) {
+        return ClusterCallGuard.create(properties.getGuard(), elasticsearchMetrics);
+    }
+
+    @Bean(destroyMethod = "close")
+    public RestHighLevelClient restHighLevelClient(ElasticsearchClientFactory elasticsearchClientFactory) {
+        return elasticsearchClientFactory.createClient();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.client.sniff", name = "enabled", havingValue = "true")
+    public Sniffer elasticsearchSniffer(ElasticsearchClientFactory elasticsearchClientFactory, RestHighLevelClient restHighLevelClient) {
+        return elasticsearchClientFactory.createSniffer(restHighLevelClient.getLowLevelClient());
+    }
+}
@@ -0,0 +1,136 @@
+package com.gravylab.elasticstack.client;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ElasticsearchClientFactory {
+
+    private final ElasticsearchClientProperties properties;
+    private final List<RestClientBuilder.HttpClientConfigCallback> httpClientConfigCallbacks = new ArrayList<>();
+    private final SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
+    private final LatencyAwareNodeSelector nodeSelector;
+
+    public ElasticsearchClientFactory(ElasticsearchClientProperties properties) {
+        this.properties = properties;
+        ElasticsearchClientProperties.NodeSelection nodeSelection = properties.getNodeSelection();
+        this.nodeSelector = nodeSelection.isLatencyAware()
+                ? new LatencyAwareNodeSelector(nodeSelection.getSmoothing(), nodeSelection.getSlowNodeFactor(), nodeSelection.getRetryInterval())
+                : null;
+    }
+
+    public ElasticsearchClientFactory addHttpClientConfigCallback(RestClientBuilder.HttpClientConfigCallback httpClientConfigCallback) {
+        httpClientConfigCallbacks.add(httpClientConfigCallback);
+        return this;
+    }
+
+    public RestHighLevelClient createClient() {
+        return new RestHighLevelClient(createRestClientBuilder());
+    }
+
+    //TODO 저수준 클라이언트로 typed_keys 검색 응답을 받았을 때 집계 결과를 읽을 레지스트리.
+    public NamedXContentRegistry createNamedXContentRegistry() {
+        return AggregationParsers.createRegistry();
+    }
+
+    public RestClientBuilder createRestClientBuilder() {
+        HttpHost[] hosts = properties.getHosts()
+                .stream()
+                .map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+
+        RestClientBuilder builder = RestClient.builder(hosts)
+                .setRequestConfigCallback(
+                        requestConfigBuilder ->
+                                requestConfigBuilder
+                                        .setConnectTimeout((int) properties.getConnectTimeout().toMillis())
+                                        .setSocketTimeout((int) properties.getSocketTimeout().toMillis())
+                )
+                .setCompressionEnabled(properties.isCompressionEnabled())
+                .setHttpClientConfigCallback(this::customizeHttpClient);
+        if (nodeSelector != null) {
+            builder.setNodeSelector(nodeSelector);
+        }
+        if (properties.getSniff().isEnabled()) {
+            builder.setFailureListener(sniffOnFailureListener);
+        }
+        return builder;
+    }
+
+    //TODO 스니퍼는 저수준 클라이언트의 노드 목록을 통째로 교체한다. 시드 노드와 같은 scheme 으로 발견한 노드에 접속한다.
+    public Sniffer createSniffer(RestClient restClient) {
+        ElasticsearchClientProperties.Sniff sniff = properties.getSniff();
+        ElasticsearchNodesSniffer.Scheme scheme = restClient.getNodes()
+                .stream()
+                .anyMatch(node -> "https".equals(node.getHost().getSchemeName()))
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS
+                : ElasticsearchNodesSniffer.Scheme.HTTP;
+        Sniffer sniffer = Sniffer.builder(restClient)
+                .setSniffIntervalMillis((int) sniff.getInterval().toMillis())
+                .setSniffAfterFailureDelayMillis((int) sniff.getDelayAfterFailure().toMillis())
+                .setNodesSniffer(new ElasticsearchNodesSniffer(restClient, properties.getConnectTimeout().toMillis(), scheme))
+                .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        return sniffer;
+    }
+
+    public LatencyAwareNodeSelector getNodeSelector() {
+        return nodeSelector;
+    }
+
+    //TODO 응답 형식만 Accept 헤더로 고른다. 고수준 클라이언트는 응답의 Content-Type 을 보고 파서를 선택한다.
+    public RequestOptions createRequestOptions() {
+        if (properties.getWireFormat() == WireFormat.JSON) {
+            return RequestOptions.DEFAULT;
+        }
+        return RequestOptions.DEFAULT
+                .toBuilder()
+                .addHeader(HttpHeaders.ACCEPT, properties.getWireFormat().mediaType())
+                .build();
+    }
+
+    private HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder httpClientBuilder) {
+        HttpAsyncClientBuilder builder = httpClientBuilder
+                .setMaxConnTotal(properties.getMaxConnTotal())
+                .setMaxConnPerRoute(properties.getMaxConnPerRoute())
+                .setDefaultIOReactorConfig(
+                        IOReactorConfig.custom()
+                                .setIoThreadCount(properties.getIoThreadCount())
+                                .build()
+                )
+                .setKeepAliveStrategy(this::getKeepAliveDuration);
+        if (nodeSelector != null) {
+            builder = builder
+                    .addInterceptorLast((HttpRequestInterceptor) nodeSelector)
+                    .addInterceptorLast((HttpResponseInterceptor) nodeSelector);
+        }
+
+        for (RestClientBuilder.HttpClientConfigCallback httpClientConfigCallback : httpClientConfigCallbacks) {
+            builder = httpClientConfigCallback.customizeHttpClient(builder);
+        }
+        return builder;
+    }
+
+    private long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        long maxKeepAlive = properties.getKeepAlive().toMillis();
+        long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        return serverKeepAlive > 0 ? Math.min(serverKeepAlive, maxKeepAlive) : maxKeepAlive;
+    }
+}
@@ -0,0 +1,87 @@
+package com.gravylab.elasticstack.client;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.client")
+public class ElasticsearchClientProperties {
+
+    private List<String> hosts = new ArrayList<>(List.of("localhost:9200"));
+
+    private int maxConnTotal = 100;
+
+    private int maxConnPerRoute = 50;
+
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+
+    private Duration connectTimeout = Duration.ofSeconds(1);
+
+    private Duration socketTimeout = Duration.ofSeconds(30);
+
+    //TODO 엘라스틱서치는 Keep-Alive 헤더를 내려주지 않기 때문에 유휴 커넥션을 얼마나 유지할지 직접 정해야 한다.
+    // 무한대로 두면 방화벽/LB 가 먼저 끊어버린 커넥션을 재사용하다 실패하게 된다.
+    private Duration keepAlive = Duration.ofMinutes(5);
+
+    //TODO 요청 본문을 gzip 으로 압축하고 Accept-Encoding: gzip 으로 압축된 응답을 받는다. 랙 간 대역폭이 병목일 때 켠다.
+    private boolean compressionEnabled = false;
+
+    private WireFormat wireFormat = WireFormat.JSON;
+
+    private final Sniff sniff = new Sniff();
+
+    private final NodeSelection nodeSelection = new NodeSelection();
+
+    private final Guard guard = new Guard();
+
+    //TODO hosts 는 처음 접속할 시드 노드이고, 스니퍼가 _nodes/http 로 클러스터의 나머지 노드를 찾아 주기적으로 갱신한다.
+    // 요청이 실패하면 delayAfterFailure 뒤에 곧바로 다시 스니핑한다.
+    @Getter
+    @Setter
+    public static class Sniff {
+
+        private boolean enabled = false;
+
+        private Duration interval = Duration.ofMinutes(5);
+
+        private Duration delayAfterFailure = Duration.ofMinutes(1);
+    }
+
+    @Getter
+    @Setter
+    public static class NodeSelection {
+
+        private boolean latencyAware = true;
+
+        private double smoothing = 0.2;
+
+        private double slowNodeFactor = 3.0;
+
+        private Duration retryInterval = Duration.ofSeconds(10);
+    }
+
+    @Getter
+    @Setter
+    public static class Guard {
+
+        private int initialLimit = 20;
+
+        private int minLimit = 1;
+
+        private int maxLimit = 200;
+
+        private double backoffRatio = 0.9;
+
+        private Duration latencyThreshold = Duration.ofSeconds(2);
+
+        private int failureThreshold = 5;
+
+        private Duration openDuration = Duration.ofSeconds(5);
+    }
+}
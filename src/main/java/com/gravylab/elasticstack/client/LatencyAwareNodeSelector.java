@@ -0,0 +1,133 @@
+package com.gravylab.elasticstack.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+//TODO RestClient 는 살아있는 노드를 라운드로빈으로 돌기 때문에 느린 노드 하나가 전체 꼬리 지연을 끌어올린다.
+// 노드별 검색(_search, _msearch) 응답 시간을 지수 이동 평균(EWMA)으로 기록해 두고, 가장 빠른 노드보다 slowNodeFactor 배 이상 느린 노드와
+// 마스터 전용 노드는 후보에서 뺀다. 벌크나 _tasks, _reindex 처럼 원래 오래 걸리는 요청은 노드의 느림과 상관없으므로 기록하지 않는다.
+// 제외된 노드는 retryInterval 이 지나면 평균을 지우고 다시 후보에 넣는다. 다음 검색 응답 시간이 새 평균이 되고, 여전히 느리면 다시 제외된다.
+public class LatencyAwareNodeSelector implements NodeSelector, HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String START_NANOS = LatencyAwareNodeSelector.class.getName() + ".startNanos";
+
+    private final double smoothing;
+    private final double slowNodeFactor;
+    private final long retryIntervalNanos;
+    private final LongSupplier nanoTime;
+    private final Map<HttpHost, Double> latencies = new ConcurrentHashMap<>();
+    private final Map<HttpHost, Long> excludedSince = new ConcurrentHashMap<>();
+
+    public LatencyAwareNodeSelector(double smoothing, double slowNodeFactor, Duration retryInterval) {
+        this(smoothing, slowNodeFactor, retryInterval, System::nanoTime);
+    }
+
+    LatencyAwareNodeSelector(double smoothing, double slowNodeFactor, Duration retryInterval, LongSupplier nanoTime) {
+        this.smoothing = smoothing;
+        this.slowNodeFactor = slowNodeFactor;
+        this.retryIntervalNanos = retryInterval.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        boolean hasDataNode = false;
+        double fastest = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            if (isDedicatedMaster(node)) {
+                continue;
+            }
+            hasDataNode = true;
+            Double latency = latencies.get(node.getHost());
+            if (latency != null) {
+                fastest = Math.min(fastest, latency);
+            }
+        }
+        //TODO 후보를 모두 지우면 RestClient 가 요청을 보내지 못하므로 마스터 전용 노드만 남은 경우는 그대로 둔다.
+        if (!hasDataNode) {
+            return;
+        }
+        for (Iterator<Node> iterator = nodes.iterator(); iterator.hasNext(); ) {
+            Node node = iterator.next();
+            if (isDedicatedMaster(node) || isSlow(node.getHost(), fastest)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (isSearch(request)) {
+            context.setAttribute(START_NANOS, nanoTime.getAsLong());
+        }
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Long startNanos = (Long) context.getAttribute(START_NANOS);
+        Object targetHost = context.getAttribute(HttpCoreContext.HTTP_TARGET_HOST);
+        if (startNanos == null || !(targetHost instanceof HttpHost)) {
+            return;
+        }
+        record((HttpHost) targetHost, nanoTime.getAsLong() - startNanos);
+    }
+
+    public void record(HttpHost host, long latencyNanos) {
+        latencies.merge(host, (double) latencyNanos, (average, sample) -> average + smoothing * (sample - average));
+    }
+
+    public Double getLatency(HttpHost host) {
+        return latencies.get(host);
+    }
+
+    private boolean isSlow(HttpHost host, double fastest) {
+        Double latency = latencies.get(host);
+        if (latency == null || latency <= fastest * slowNodeFactor) {
+            excludedSince.remove(host);
+            return false;
+        }
+        long now = nanoTime.getAsLong();
+        long since = excludedSince.computeIfAbsent(host, key -> now);
+        if (now - since < retryIntervalNanos) {
+            return true;
+        }
+        excludedSince.remove(host);
+        latencies.remove(host);
+        return false;
+    }
+
+    private static boolean isSearch(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+        for (String segment : path.split("/")) {
+            if ("_search".equals(segment) || "_msearch".equals(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isDedicatedMaster(Node node) {
+        Node.Roles roles = node.getRoles();
+        return roles != null && roles.isMasterEligible() && !roles.isData() && !roles.isIngest();
+    }
+
+    @Override
+    public String toString() {
+        return "LATENCY_AWARE";
+    }
+}
@@ -0,0 +1,32 @@
+package com.gravylab.elasticstack.client;
+
+import org.elasticsearch.common.xcontent.XContentType;
+
+//TODO 요청/응답 본문 형식. SMILE/CBOR 은 바이너리 JSON 이라 숫자와 반복되는 필드 이름이 많은 문서에서 크기와 파싱 비용이 줄어든다.
+// _bulk 는 JSON 과 SMILE 만 받기 때문에 CBOR 을 고르면 벌크 본문은 JSON 으로 보내고 응답만 CBOR 로 받는다.
+public enum WireFormat {
+
+    JSON(XContentType.JSON, XContentType.JSON),
+    SMILE(XContentType.SMILE, XContentType.SMILE),
+    CBOR(XContentType.CBOR, XContentType.JSON);
+
+    private final XContentType xContentType;
+    private final XContentType bulkContentType;
+
+    WireFormat(XContentType xContentType, XContentType bulkContentType) {
+        this.xContentType = xContentType;
+        this.bulkContentType = bulkContentType;
+    }
+
+    public XContentType xContentType() {
+        return xContentType;
+    }
+
+    public XContentType bulkContentType() {
+        return bulkContentType;
+    }
+
+    public String mediaType() {
+        return xContentType.mediaTypeWithoutParameters();
+    }
+}
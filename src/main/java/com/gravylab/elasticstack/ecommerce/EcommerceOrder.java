@@ -0,0 +1,40 @@
+package com.gravylab.elasticstack.ecommerce;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.List;
+
+@Getter
+@Setter
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class EcommerceOrder {
+
+    public static final String INDEX = "kibana_sample_data_ecommerce";
+
+    private long orderId;
+
+    private String orderDate;
+
+    private String dayOfWeek;
+
+    private List<String> category;
+
+    private String currency;
+
+    private String customerFullName;
+
+    private String customerFirstName;
+
+    private String customerLastName;
+
+    private double taxfulTotalPrice;
+
+    private List<EcommerceProduct> products;
+}
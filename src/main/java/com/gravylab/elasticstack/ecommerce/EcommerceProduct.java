@@ -0,0 +1,26 @@
+package com.gravylab.elasticstack.ecommerce;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+@Getter
+@Setter
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public class EcommerceProduct {
+
+    private long productId;
+
+    private String productName;
+
+    private String category;
+
+    private double basePrice;
+
+    private int quantity;
+}
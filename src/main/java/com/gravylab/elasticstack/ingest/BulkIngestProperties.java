@@ -0,0 +1,56 @@
+package com.gravylab.elasticstack.ingest;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.ingest")
+public class BulkIngestProperties {
+
+    private int bulkActions = 5000;
+
+    private DataSize bulkSize = DataSize.ofMegabytes(5);
+
+    private Duration flushInterval = Duration.ofSeconds(1);
+
+    private int concurrentRequests = 4;
+
+    private Duration initialBackoff = Duration.ofMillis(100);
+
+    private int maxRetries = 5;
+
+    private Duration awaitCloseTimeout = Duration.ofSeconds(30);
+
+    private final OffHeap offHeap = new OffHeap();
+
+    private final Spool spool = new Spool();
+
+    @Getter
+    @Setter
+    public static class OffHeap {
+
+        private DataSize chunkSize = DataSize.ofKilobytes(256);
+
+        private int maxPooledChunks = 128;
+    }
+
+    @Getter
+    @Setter
+    public static class Spool {
+
+        private boolean enabled = false;
+
+        private String directory = "spool";
+
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        private DataSize maxDiskUsage = DataSize.ofGigabytes(1);
+
+        private Duration replayInterval = Duration.ofSeconds(1);
+    }
+}
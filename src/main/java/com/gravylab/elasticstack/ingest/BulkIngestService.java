@@ -0,0 +1,160 @@
+package com.gravylab.elasticstack.ingest;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.client.ElasticsearchClientProperties;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Slf4j
+@Service
+public class BulkIngestService implements DisposableBean {
+
+    private final BulkProcessor bulkProcessor;
+    private final BulkIngestProperties properties;
+    private final List<IndexWriteListener> indexWriteListeners;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+    private final XContentType bulkContentType;
+    private final AtomicLong succeededCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public BulkIngestService(RestHighLevelClient client, BulkIngestProperties properties, ObjectProvider<IndexWriteListener> indexWriteListeners, ElasticsearchMetrics elasticsearchMetrics,
+                             ElasticsearchClientProperties clientProperties, RequestOptions requestOptions, ClusterCallGuard clusterCallGuard) {
+        this.properties = properties;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        this.bulkContentType = clientProperties.getWireFormat().bulkContentType();
+        this.indexWriteListeners = indexWriteListeners.orderedStream()
+                .collect(Collectors.toList());
+        //TODO BulkProcessor 는 건수(bulkActions), 크기(bulkSize), 주기(flushInterval) 중 하나라도 만족하면 벌크 요청을 보낸다.
+        // concurrentRequests 만큼의 벌크 요청을 동시에 처리하며, 재시도는 429(EsRejectedExecutionException) 로 거절된 아이템만 대상으로 한다.
+        this.bulkProcessor = BulkProcessor.builder(
+                        (bulkRequest, bulkListener) -> clusterCallGuard.execute(
+                                listener -> client.bulkAsync(bulkRequest, requestOptions, listener),
+                                BulkIngestService::hasRejectedItems,
+                                bulkListener
+                        ),
+                        new IngestListener()
+                )
+                .setBulkActions(properties.getBulkActions())
+                .setBulkSize(new ByteSizeValue(properties.getBulkSize().toBytes()))
+                .setFlushInterval(TimeValue.timeValueMillis(properties.getFlushInterval().toMillis()))
+                .setConcurrentRequests(properties.getConcurrentRequests())
+                .setBackoffPolicy(
+                        BackoffPolicy.exponentialBackoff(
+                                TimeValue.timeValueMillis(properties.getInitialBackoff().toMillis()),
+                                properties.getMaxRetries()
+                        )
+                )
+                .build();
+    }
+
+    public void index(String index, String id, Map<String, ?> source) {
+        add(new IndexRequest(index)
+                .id(id)
+                .source(source, bulkContentType));
+    }
+
+    public void indexAll(String index, Stream<? extends Map<String, ?>> documents) {
+        documents.forEach(document -> add(new IndexRequest(index).source(document, bulkContentType)));
+    }
+
+    public void add(DocWriteRequest<?> request) {
+        bulkProcessor.add(request);
+    }
+
+    public void flush() {
+        bulkProcessor.flush();
+    }
+
+    public long getSucceededCount() {
+        return succeededCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        boolean terminated = bulkProcessor.awaitClose(properties.getAwaitCloseTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        if (!terminated) {
+            log.warn("bulk processor did not finish in-flight requests within {}", properties.getAwaitCloseTimeout());
+        }
+    }
+
+    //TODO 벌크 요청 자체는 200 이어도 쓰기 스레드풀이 가득 차면 아이템 단위로 429 가 돌아온다.
+    static boolean hasRejectedItems(BulkResponse bulkResponse) {
+        return bulkResponse.hasFailures() && Arrays.stream(bulkResponse.getItems())
+                .anyMatch(BulkIngestService::isRejected);
+    }
+
+    static boolean isRejected(BulkItemResponse item) {
+        return item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    private void notifyIndicesWritten(BulkRequest request) {
+        if (indexWriteListeners.isEmpty()) {
+            return;
+        }
+        Set<String> indices = request.requests()
+                .stream()
+                .map(DocWriteRequest::index)
+                .collect(Collectors.toSet());
+        indexWriteListeners.forEach(indexWriteListener -> indexWriteListener.onIndicesWritten(indices));
+    }
+
+    private class IngestListener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            log.debug("executing bulk [{}] with {} actions ({} bytes)", executionId, request.numberOfActions(), request.estimatedSizeInBytes());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            long failed = Arrays.stream(response.getItems())
+                    .filter(BulkItemResponse::isFailed)
+                    .count();
+            notifyIndicesWritten(request);
+            elasticsearchMetrics.recordBulk(response);
+            succeededCount.addAndGet(response.getItems().length - failed);
+            failedCount.addAndGet(failed);
+            if (failed > 0) {
+                log.warn("bulk [{}] completed with {} failed items: {}", executionId, failed, response.buildFailureMessage());
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            //TODO 요청 자체가 실패했더라도 일부는 반영되었을 수 있으므로 캐시 등은 무효화한다.
+            notifyIndicesWritten(request);
+            elasticsearchMetrics.recordBulkFailure(request.numberOfActions());
+            failedCount.addAndGet(request.numberOfActions());
+            log.error("bulk [{}] with {} actions failed", executionId, request.numberOfActions(), failure);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.gravylab.elasticstack.ingest;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+//TODO 다이렉트 버퍼 청크를 그대로 HTTP 요청 본문으로 보낸다.
+// 비동기 HTTP 클라이언트는 HttpAsyncContentProducer 를 구현한 엔티티를 직접 사용하므로 청크가 힙으로 복사되지 않고 소켓으로 쓰인다.
+// 다른 노드로 재시도할 수 있도록 반복 가능(repeatable)하며, 압축이 켜져 있으면 writeTo 를 통해 gzip 스트림으로 쓰인다.
+class DirectBufferEntity extends AbstractHttpEntity implements HttpAsyncContentProducer {
+
+    private static final int TRANSFER_SIZE = 8 * 1024;
+
+    private final ByteBuffer[] chunks;
+    private final long contentLength;
+    private ByteBuffer[] producing;
+    private int cursor;
+
+    DirectBufferEntity(ByteBuffer[] chunks, long contentLength, String contentType) {
+        this.chunks = chunks;
+        this.contentLength = contentLength;
+        setContentType(contentType);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new ChunksInputStream(views());
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        byte[] transfer = new byte[TRANSFER_SIZE];
+        for (ByteBuffer chunk : views()) {
+            while (chunk.hasRemaining()) {
+                int length = Math.min(transfer.length, chunk.remaining());
+                chunk.get(transfer, 0, length);
+                outputStream.write(transfer, 0, length);
+            }
+        }
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+        if (producing == null) {
+            producing = views();
+            cursor = 0;
+        }
+        while (cursor < producing.length) {
+            ByteBuffer chunk = producing[cursor];
+            encoder.write(chunk);
+            if (chunk.hasRemaining()) {
+                return;
+            }
+            cursor++;
+        }
+        encoder.complete();
+    }
+
+    @Override
+    public void close() {
+        producing = null;
+        cursor = 0;
+    }
+
+    private ByteBuffer[] views() {
+        ByteBuffer[] views = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            views[i] = chunks[i].asReadOnlyBuffer();
+        }
+        return views;
+    }
+
+    private static class ChunksInputStream extends InputStream {
+
+        private final ByteBuffer[] chunks;
+        private int cursor;
+
+        private ChunksInputStream(ByteBuffer[] chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer chunk = current();
+            return chunk == null ? -1 : chunk.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            ByteBuffer chunk = current();
+            if (chunk == null) {
+                return -1;
+            }
+            int read = Math.min(length, chunk.remaining());
+            chunk.get(bytes, offset, read);
+            return read;
+        }
+
+        private ByteBuffer current() {
+            while (cursor < chunks.length && !chunks[cursor].hasRemaining()) {
+                cursor++;
+            }
+            return cursor < chunks.length ? chunks[cursor] : null;
+        }
+    }
+}
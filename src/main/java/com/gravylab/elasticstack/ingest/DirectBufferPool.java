@@ -0,0 +1,47 @@
+package com.gravylab.elasticstack.ingest;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//TODO 다이렉트 버퍼는 할당/해제 비용이 크고 해제 시점을 GC 가 정하기 때문에 고정 크기 청크로 만들어 재사용한다.
+// 풀에는 최대 maxPooledChunks 개까지만 보관하고, 그보다 많이 돌아온 청크는 버려서 GC 가 정리하게 한다.
+public class DirectBufferPool {
+
+    private final int chunkSize;
+    private final int maxPooledChunks;
+    private final Queue<ByteBuffer> pooled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    public DirectBufferPool(int chunkSize, int maxPooledChunks) {
+        this.chunkSize = chunkSize;
+        this.maxPooledChunks = maxPooledChunks;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = pooled.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(chunkSize);
+        }
+        pooledCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (pooledCount.incrementAndGet() <= maxPooledChunks) {
+            pooled.offer(buffer);
+        } else {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getPooledChunks() {
+        return pooledCount.get();
+    }
+}
@@ -0,0 +1,114 @@
+package com.gravylab.elasticstack.ingest;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.regex.Regex;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+//TODO 쓰기 직후 읽어야 하는 흐름(read-your-writes)을 위한 쓰기 도우미.
+// WAIT_UNTIL 은 다음 주기적 refresh 까지 기다렸다가 응답하므로 세그먼트를 억지로 만들지 않는다.
+// NONE 으로 쓴 인덱스는 dirty 로 기록해 두고, 읽기 전에 awaitSearchable 로 그 인덱스만 _refresh 한다.
+@Component
+public class DocumentWriter implements IndexWriteListener {
+
+    private final RestHighLevelClient client;
+    private final ObjectProvider<IndexWriteListener> indexWriteListeners;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+    //TODO 인덱스별로 마지막 쓰기의 세대를 기록한다. refresh 가 끝난 뒤 그 사이 새 쓰기가 없었던 인덱스만 지운다.
+    // refresh 응답 전에 지우면 그 사이 들어온 다른 호출자가 쓰기가 보이기 전에 바로 반환해 버린다.
+    private final Map<String, Long> dirtyIndices = new ConcurrentHashMap<>();
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    public DocumentWriter(RestHighLevelClient client, ObjectProvider<IndexWriteListener> indexWriteListeners, ElasticsearchMetrics elasticsearchMetrics,
+                          RequestOptions requestOptions, ClusterCallGuard clusterCallGuard) {
+        this.client = client;
+        this.indexWriteListeners = indexWriteListeners;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        this.requestOptions = requestOptions;
+        this.clusterCallGuard = clusterCallGuard;
+    }
+
+    public IndexResponse index(IndexRequest indexRequest, RefreshPolicy refreshPolicy) throws IOException {
+        indexRequest.setRefreshPolicy(refreshPolicy);
+        IndexResponse indexResponse = clusterCallGuard.call(() -> client.index(indexRequest, requestOptions));
+        written(Set.of(indexRequest.index()), refreshPolicy);
+        return indexResponse;
+    }
+
+    public BulkResponse bulk(BulkRequest bulkRequest, RefreshPolicy refreshPolicy) throws IOException {
+        bulkRequest.setRefreshPolicy(refreshPolicy);
+        BulkResponse bulkResponse = clusterCallGuard.call(() -> client.bulk(bulkRequest, requestOptions));
+        elasticsearchMetrics.recordBulk(bulkResponse);
+        written(bulkRequest.requests()
+                .stream()
+                .map(DocWriteRequest::index)
+                .collect(Collectors.toSet()), refreshPolicy);
+        return bulkResponse;
+    }
+
+    //TODO 요청한 인덱스 중 아직 refresh 되지 않은 쓰기가 있는 인덱스만 골라 한 번의 _refresh 로 처리한다.
+    // 대기 중인 쓰기가 없으면 네트워크 호출 없이 바로 반환한다.
+    public void awaitSearchable(String... indices) throws IOException {
+        Map<String, Long> targets = dirtyIndices.entrySet()
+                .stream()
+                .filter(dirtyIndex -> Arrays.stream(indices).anyMatch(index -> Regex.simpleMatch(index, dirtyIndex.getKey())))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (targets.isEmpty()) {
+            return;
+        }
+        RefreshRequest refreshRequest = new RefreshRequest(targets.keySet().toArray(String[]::new))
+                .indicesOptions(IndicesOptions.lenientExpandOpen());
+        client.indices().refresh(refreshRequest, requestOptions);
+        targets.forEach(dirtyIndices::remove);
+        otherListeners().forEach(indexWriteListener -> indexWriteListener.onIndicesRefreshed(targets.keySet()));
+    }
+
+    public boolean hasPendingWrites(String index) {
+        return dirtyIndices.keySet().stream().anyMatch(dirtyIndex -> Regex.simpleMatch(index, dirtyIndex));
+    }
+
+    //TODO BulkIngestService 처럼 refresh 정책 없이 쓰는 경로도 dirty 로 기록한다.
+    @Override
+    public void onIndicesWritten(Set<String> indices) {
+        markDirty(indices);
+    }
+
+    private void markDirty(Set<String> indices) {
+        long generation = writeGeneration.incrementAndGet();
+        indices.forEach(index -> dirtyIndices.put(index, generation));
+    }
+
+    private void written(Set<String> indices, RefreshPolicy refreshPolicy) {
+        if (refreshPolicy == RefreshPolicy.NONE) {
+            markDirty(indices);
+        }
+        otherListeners().forEach(indexWriteListener -> indexWriteListener.onIndicesWritten(indices));
+    }
+
+    private Stream<IndexWriteListener> otherListeners() {
+        return indexWriteListeners.orderedStream()
+                .filter(indexWriteListener -> indexWriteListener != this);
+    }
+}
@@ -0,0 +1,12 @@
+package com.gravylab.elasticstack.ingest;
+
+import java.util.Set;
+
+public interface IndexWriteListener {
+
+    void onIndicesWritten(Set<String> indices);
+
+    //TODO 쓰기가 검색에 보이게 된 시점(명시적인 _refresh 가 끝난 뒤)에 불린다.
+    default void onIndicesRefreshed(Set<String> indices) {
+    }
+}
@@ -0,0 +1,182 @@
+package com.gravylab.elasticstack.ingest;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+//TODO 클러스터가 내려가 있거나 요청을 거절하는 동안 벌크 본문을 로컬 디스크(MappedSegmentLog)에 그대로 쌓아 두고,
+// 클러스터가 다시 받아 주면 쌓인 순서대로 bulkSize 만큼씩 묶어 _bulk 로 재전송한다.
+// 재전송은 요청 단위로만 재시도한다. 아이템 단위 실패는 BulkIngestService 처럼 기록만 하고 넘어간다.
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "elasticsearch.ingest.spool", name = "enabled", havingValue = "true")
+public class IngestSpool implements DisposableBean {
+
+    private final RestClient restClient;
+    private final ClusterCallGuard clusterCallGuard;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+    private final List<IndexWriteListener> indexWriteListeners;
+    private final BulkIngestProperties properties;
+    private final MappedSegmentLog segmentLog;
+    private final DirectBufferPool pool;
+    private final ScheduledExecutorService scheduler;
+
+    public IngestSpool(RestHighLevelClient client, ClusterCallGuard clusterCallGuard, ElasticsearchMetrics elasticsearchMetrics,
+                       ObjectProvider<IndexWriteListener> indexWriteListeners, BulkIngestProperties properties) throws IOException {
+        this.restClient = client.getLowLevelClient();
+        this.clusterCallGuard = clusterCallGuard;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        this.indexWriteListeners = indexWriteListeners.orderedStream()
+                .collect(Collectors.toList());
+        this.properties = properties;
+        BulkIngestProperties.Spool spool = properties.getSpool();
+        this.segmentLog = new MappedSegmentLog(Path.of(spool.getDirectory()), (int) spool.getSegmentSize().toBytes(), spool.getMaxDiskUsage().toBytes());
+        this.pool = new DirectBufferPool((int) properties.getOffHeap().getChunkSize().toBytes(), 4);
+        elasticsearchMetrics.registerSpool(this);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ingest-spool-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long replayIntervalMillis = spool.getReplayInterval().toMillis();
+        this.scheduler.scheduleWithFixedDelay(this::replayQuietly, replayIntervalMillis, replayIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void index(String index, String id, Map<String, ?> source) throws IOException {
+        OffHeapBulkBuffer buffer = new OffHeapBulkBuffer(pool);
+        try {
+            buffer.index(index, id, source);
+            append(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    //TODO 디스크 사용량이 maxDiskUsage 에 닿으면 EsRejectedExecutionException 으로 거절한다.
+    public void append(OffHeapBulkBuffer buffer) throws IOException {
+        try {
+            segmentLog.append(buffer.chunks());
+        } catch (RuntimeException e) {
+            elasticsearchMetrics.recordSpool("rejected", buffer.size());
+            throw e;
+        }
+        elasticsearchMetrics.recordSpool("appended", buffer.size());
+    }
+
+    public boolean isEmpty() {
+        return segmentLog.isEmpty();
+    }
+
+    public long backlogBytes() {
+        return segmentLog.backlogBytes();
+    }
+
+    public long diskUsageBytes() {
+        return segmentLog.diskUsageBytes();
+    }
+
+    //TODO 클러스터가 받아 주는 동안 밀린 레코드를 끝까지 보낸다. 실패하면 체크포인트를 옮기지 않고 다음 주기에 같은 곳부터 다시 보낸다.
+    // 아이템 단위로 429 를 받으면 그 아이템만 스풀 끝에 다시 쌓은 뒤 체크포인트를 옮기고, 클러스터가 밀려 있으므로 이번 주기는 멈춘다.
+    // 성공한 아이템까지 다시 보내면 _id 없는 문서가 중복되기 때문에 배치 전체를 되돌리지 않는다.
+    public synchronized int replay() throws IOException {
+        int replayed = 0;
+        while (true) {
+            MappedSegmentLog.Batch batch = segmentLog.poll(properties.getBulkSize().toBytes());
+            if (batch.isEmpty()) {
+                segmentLog.force();
+                return replayed;
+            }
+            Request request = new Request("POST", "/_bulk");
+            request.setEntity(new DirectBufferEntity(batch.getRecords(), batch.getBytes(), OffHeapBulkBuffer.NDJSON));
+            Response response = clusterCallGuard.call(() -> restClient.performRequest(request));
+            BulkResponse bulkResponse = parse(response);
+            boolean throttled = BulkIngestService.hasRejectedItems(bulkResponse);
+            if (throttled) {
+                requeue(batch, bulkResponse);
+            }
+            segmentLog.commit(batch);
+
+            elasticsearchMetrics.recordBulk(bulkResponse);
+            elasticsearchMetrics.recordSpool("replayed", batch.getBytes());
+            if (bulkResponse.hasFailures()) {
+                log.warn("replayed spool batch completed with failures: {}", bulkResponse.buildFailureMessage());
+            }
+            Set<String> indices = Arrays.stream(bulkResponse.getItems())
+                    .map(BulkItemResponse::getIndex)
+                    .collect(Collectors.toSet());
+            indexWriteListeners.forEach(indexWriteListener -> indexWriteListener.onIndicesWritten(indices));
+            replayed += bulkResponse.getItems().length;
+            if (throttled) {
+                return replayed;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdown();
+        scheduler.awaitTermination(properties.getAwaitCloseTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        segmentLog.close();
+    }
+
+    private void requeue(MappedSegmentLog.Batch batch, BulkResponse bulkResponse) throws IOException {
+        OffHeapBulkBuffer rejected = new OffHeapBulkBuffer(pool);
+        try {
+            rejected.copyItems(batch.getRecords(), bulkResponse.getItems(), BulkIngestService::isRejected);
+            segmentLog.append(rejected.chunks());
+            elasticsearchMetrics.recordSpool("requeued", rejected.size());
+        } catch (EsRejectedExecutionException e) {
+            //TODO 스풀이 가득 찼으면 배치 전체를 다시 보내 중복을 만드는 대신 거절된 아이템을 버린다.
+            elasticsearchMetrics.recordSpool("rejected", rejected.size());
+            log.error("dropping {} rejected bulk items, {}", rejected.getActions(), e.getMessage());
+        } finally {
+            rejected.release();
+        }
+    }
+
+    private void replayQuietly() {
+        try {
+            int replayed = replay();
+            if (replayed > 0) {
+                log.info("replayed {} spooled documents", replayed);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("cluster is not accepting spooled documents yet: {}", e.getMessage());
+        }
+    }
+
+    private static BulkResponse parse(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent();
+             XContentParser parser = JsonXContent.jsonXContent.createParser(
+                     NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            return BulkResponse.fromXContent(parser);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.gravylab.elasticstack.ingest;
+
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+//TODO 고정 크기 세그먼트 파일을 메모리 매핑해서 레코드를 순서대로 덧붙이는 로그.
+// 레코드는 [길이(int)][CRC32(int)][본문] 으로 쓰고, 길이를 가장 마지막에 써서 읽는 쪽이 덜 쓰인 레코드를 보지 않게 한다.
+// 레코드를 쓸 때마다 바로 뒤에 길이 0 을 써 두므로 길이가 0 이거나 CRC 가 맞지 않는 곳이 그 세그먼트의 끝이다.
+// 어디까지 재전송했는지는 checkpoint 파일에 (세그먼트 번호, 오프셋) 으로 남긴다.
+// 다 읽은 세그먼트는 지우지 않고 재사용한다. 매핑된 파일은 지워도 GC 가 매핑을 풀 때까지 디스크를 차지하기 때문에,
+// 지우면 실제 디스크 사용량이 maxDiskUsage 를 넘을 수 있다. 세그먼트 파일 수는 재사용 대기 중인 것까지 maxSegments 를 넘지 않는다.
+// 매핑된 페이지는 프로세스가 죽어도 OS 가 디스크에 쓰고, OS 장애까지 견디려면 force 주기만큼의 유실을 감수한다.
+public class MappedSegmentLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String FREE_PREFIX = "free-";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final Deque<Map.Entry<Path, MappedByteBuffer>> freeSegments = new ArrayDeque<>();
+
+    private long writeSegmentId;
+    private long readSegmentId;
+    private int readOffset;
+
+    public MappedSegmentLog(Path directory, int segmentSize, long maxDiskUsage) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, maxDiskUsage / segmentSize);
+        Files.createDirectories(directory);
+        recover();
+    }
+
+    public synchronized void append(ByteBuffer... records) throws IOException {
+        int length = 0;
+        CRC32 crc = new CRC32();
+        for (ByteBuffer record : records) {
+            length += record.remaining();
+            crc.update(record.duplicate());
+        }
+        if (length == 0) {
+            return;
+        }
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IllegalArgumentException("record of [" + length + "] bytes does not fit in a segment of [" + segmentSize + "] bytes");
+        }
+        MappedByteBuffer segment = segments.get(writeSegmentId);
+        if (segment.remaining() < HEADER_SIZE + length) {
+            segment = roll();
+        }
+        int position = segment.position();
+        segment.position(position + HEADER_SIZE);
+        for (ByteBuffer record : records) {
+            segment.put(record.duplicate());
+        }
+        if (segment.remaining() >= 4) {
+            segment.putInt(segment.position(), 0);
+        }
+        segment.putInt(position + 4, (int) crc.getValue());
+        segment.putInt(position, length);
+    }
+
+    //TODO 체크포인트 이후의 레코드를 최대 maxBytes 까지(최소 한 건) 순서대로 읽는다. commit 하기 전까지는 같은 레코드를 다시 읽는다.
+    public synchronized Batch poll(long maxBytes) {
+        List<ByteBuffer> records = new ArrayList<>();
+        long bytes = 0;
+        long segmentId = readSegmentId;
+        int offset = readOffset;
+        while (true) {
+            ByteBuffer record = recordAt(segmentId, offset);
+            if (record == null) {
+                if (segmentId >= writeSegmentId) {
+                    break;
+                }
+                segmentId = segments.higherKey(segmentId);
+                offset = 0;
+                continue;
+            }
+            if (!records.isEmpty() && bytes + record.remaining() > maxBytes) {
+                break;
+            }
+            records.add(record);
+            bytes += record.remaining();
+            offset += HEADER_SIZE + record.remaining();
+        }
+        return new Batch(records.toArray(ByteBuffer[]::new), bytes, segmentId, offset);
+    }
+
+    public synchronized void commit(Batch batch) throws IOException {
+        readSegmentId = batch.segmentId;
+        readOffset = batch.offset;
+        writeCheckpoint();
+        while (segments.firstKey() < readSegmentId) {
+            Map.Entry<Long, MappedByteBuffer> consumed = segments.pollFirstEntry();
+            Path free = directory.resolve(FREE_PREFIX + consumed.getKey() + SEGMENT_SUFFIX);
+            Files.move(segmentPath(consumed.getKey()), free, StandardCopyOption.ATOMIC_MOVE);
+            freeSegments.addLast(Map.entry(free, consumed.getValue()));
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return readSegmentId == writeSegmentId && readOffset == segments.get(writeSegmentId).position();
+    }
+
+    //TODO 세그먼트 끝에 남는 빈 공간은 계산에 넣지 않은 대략적인 값이다.
+    public synchronized long backlogBytes() {
+        return (writeSegmentId - readSegmentId) * segmentSize + segments.get(writeSegmentId).position() - readOffset;
+    }
+
+    public synchronized long diskUsageBytes() {
+        return (long) (segments.size() + freeSegments.size()) * segmentSize;
+    }
+
+    public synchronized void force() {
+        segments.get(writeSegmentId).force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        writeCheckpoint();
+    }
+
+    private void recover() throws IOException {
+        //TODO 이전 프로세스가 남긴 재사용 대기 세그먼트는 이 프로세스에서 매핑한 적이 없으므로 지우면 바로 공간이 돌아온다.
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path free : (Iterable<Path>) files.filter(path -> path.getFileName().toString().startsWith(FREE_PREFIX))::iterator) {
+                Files.deleteIfExists(free);
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .mapToLong(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .forEach(this::mapQuietly);
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, map(0L));
+        }
+        writeSegmentId = segments.lastKey();
+        readSegmentId = segments.firstKey();
+        readOffset = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            long segmentId = buffer.getLong();
+            int offset = buffer.getInt();
+            if (segments.containsKey(segmentId)) {
+                readSegmentId = segmentId;
+                readOffset = offset;
+            }
+        }
+        //TODO 마지막 세그먼트는 유효한 레코드가 끝나는 곳에서부터 이어서 쓴다. 쓰다 만 레코드는 덮어쓴다.
+        MappedByteBuffer last = segments.get(writeSegmentId);
+        int position = 0;
+        ByteBuffer record;
+        while ((record = recordAt(writeSegmentId, position)) != null) {
+            position += HEADER_SIZE + record.remaining();
+        }
+        last.position(position);
+    }
+
+    private ByteBuffer recordAt(long segmentId, int offset) {
+        MappedByteBuffer segment = segments.get(segmentId);
+        if (offset + HEADER_SIZE > segmentSize) {
+            return null;
+        }
+        int length = segment.getInt(offset);
+        if (length <= 0 || offset + HEADER_SIZE + length > segmentSize) {
+            return null;
+        }
+        ByteBuffer record = segment.duplicate();
+        record.limit(offset + HEADER_SIZE + length);
+        record.position(offset + HEADER_SIZE);
+        record = record.slice();
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate());
+        if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+            return null;
+        }
+        return record.asReadOnlyBuffer();
+    }
+
+    private MappedByteBuffer roll() throws IOException {
+        if (freeSegments.isEmpty() && segments.size() >= maxSegments) {
+            throw new EsRejectedExecutionException("spool is full, [" + segments.size() + "] segments of [" + segmentSize + "] bytes are in use", false);
+        }
+        segments.get(writeSegmentId).force();
+        writeSegmentId++;
+        MappedByteBuffer segment;
+        if (freeSegments.isEmpty()) {
+            segment = map(writeSegmentId);
+        } else {
+            //TODO 재사용하는 세그먼트에는 이전 레코드가 남아 있으므로 맨 앞에 길이 0 을 써서 빈 세그먼트로 만든다.
+            // 이름을 바꾸기 전에 지워야 중간에 죽어도 이전 레코드가 새 세그먼트의 레코드로 읽히지 않는다.
+            Map.Entry<Path, MappedByteBuffer> free = freeSegments.pollFirst();
+            segment = free.getValue();
+            segment.clear();
+            segment.putInt(0, 0);
+            segment.force();
+            Files.move(free.getKey(), segmentPath(writeSegmentId), StandardCopyOption.ATOMIC_MOVE);
+        }
+        segments.put(writeSegmentId, segment);
+        return segment;
+    }
+
+    private void mapQuietly(long segmentId) {
+        try {
+            segments.put(segmentId, map(segmentId));
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to map spool segment [" + segmentId + "]", e);
+        }
+    }
+
+    private MappedByteBuffer map(long segmentId) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private void writeCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(12)
+                .putLong(readSegmentId)
+                .putInt(readOffset);
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        Files.write(temporary, buffer.array());
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static class Batch {
+
+        private final ByteBuffer[] records;
+        private final long bytes;
+        private final long segmentId;
+        private final int offset;
+
+        private Batch(ByteBuffer[] records, long bytes, long segmentId, int offset) {
+            this.records = records;
+            this.bytes = bytes;
+            this.segmentId = segmentId;
+            this.offset = offset;
+        }
+
+        public ByteBuffer[] getRecords() {
+            return records;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public boolean isEmpty() {
+            return records.length == 0;
+        }
+    }
+}
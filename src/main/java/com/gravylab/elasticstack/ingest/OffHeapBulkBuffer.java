@@ -0,0 +1,173 @@
+package com.gravylab.elasticstack.ingest;
+
+import org.apache.http.HttpEntity;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+//TODO 문서를 IndexRequest/소스 맵으로 들고 있지 않고, 받는 즉시 _bulk NDJSON 형식으로 직렬화해서 다이렉트 버퍼 청크에 쌓는다.
+// 힙에는 직렬화하는 동안의 짧은 임시 객체만 생기기 때문에 클러스터가 느려져 적재가 밀려도 old 영역이 차오르지 않는다.
+// 다 쓴 버퍼는 release 로 청크를 풀에 돌려줘야 한다.
+public class OffHeapBulkBuffer {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private final DirectBufferPool pool;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private final Set<String> indices = new HashSet<>();
+    private final ChunkOutputStream outputStream = new ChunkOutputStream();
+    private long size;
+    private int actions;
+
+    public OffHeapBulkBuffer(DirectBufferPool pool) {
+        this.pool = pool;
+    }
+
+    //TODO 직렬화 도중 실패하면 반쯤 쓰인 줄이 남지 않도록 쓰기 전 위치로 되돌린다.
+    public void index(String index, String id, Map<String, ?> source) throws IOException {
+        int chunkCount = chunks.size();
+        int position = chunkCount == 0 ? 0 : chunks.get(chunkCount - 1).position();
+        long sizeBefore = size;
+        try {
+            try (XContentBuilder action = jsonBuilder(outputStream)) {
+                action.startObject()
+                        .startObject("index")
+                        .field("_index", index);
+                if (id != null) {
+                    action.field("_id", id);
+                }
+                action.endObject()
+                        .endObject();
+            }
+            outputStream.write('\n');
+            try (XContentBuilder document = jsonBuilder(outputStream)) {
+                document.map(source);
+            }
+            outputStream.write('\n');
+        } catch (IOException | RuntimeException e) {
+            rollback(chunkCount, position, sizeBefore);
+            throw e;
+        }
+        actions++;
+        indices.add(index);
+    }
+
+    //TODO index 액션만 담긴 _bulk 본문(아이템마다 액션 줄과 문서 줄 두 줄)에서 filter 에 맞는 응답 아이템의 줄만 이 버퍼 뒤에 그대로 복사한다.
+    // 아이템 응답은 요청 순서대로 오므로 줄 번호 / 2 가 아이템 번호다. 다시 직렬화하지 않는다.
+    void copyItems(ByteBuffer[] body, BulkItemResponse[] items, Predicate<BulkItemResponse> filter) {
+        boolean[] selected = new boolean[items.length];
+        for (int i = 0; i < items.length; i++) {
+            selected[i] = filter.test(items[i]);
+            if (selected[i]) {
+                actions++;
+                indices.add(items[i].getIndex());
+            }
+        }
+        int line = 0;
+        for (ByteBuffer chunk : body) {
+            ByteBuffer view = chunk.duplicate();
+            while (view.hasRemaining()) {
+                byte b = view.get();
+                int item = line / 2;
+                if (item < selected.length && selected[item]) {
+                    outputStream.write(b);
+                }
+                if (b == '\n') {
+                    line++;
+                }
+            }
+        }
+    }
+
+    public HttpEntity toEntity() {
+        return new DirectBufferEntity(chunks(), size, NDJSON);
+    }
+
+    ByteBuffer[] chunks() {
+        ByteBuffer[] views = new ByteBuffer[chunks.size()];
+        for (int i = 0; i < views.length; i++) {
+            views[i] = chunks.get(i).duplicate().flip();
+        }
+        return views;
+    }
+
+    public void release() {
+        chunks.forEach(pool::release);
+        chunks.clear();
+        size = 0;
+        actions = 0;
+        indices.clear();
+    }
+
+    public boolean isEmpty() {
+        return actions == 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getActions() {
+        return actions;
+    }
+
+    public Set<String> getIndices() {
+        return indices;
+    }
+
+    private void rollback(int chunkCount, int position, long sizeBefore) {
+        while (chunks.size() > chunkCount) {
+            pool.release(chunks.remove(chunks.size() - 1));
+        }
+        if (chunkCount > 0) {
+            chunks.get(chunkCount - 1).position(position);
+        }
+        size = sizeBefore;
+    }
+
+    //TODO XContentBuilder 가 닫힐 때 스트림도 닫으려고 하므로 close 는 아무것도 하지 않는다.
+    private class ChunkOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            writable().put((byte) b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                ByteBuffer chunk = writable();
+                int written = Math.min(length, chunk.remaining());
+                chunk.put(bytes, offset, written);
+                offset += written;
+                length -= written;
+                size += written;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private ByteBuffer writable() {
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = pool.acquire();
+                chunks.add(chunk);
+            }
+            return chunk;
+        }
+    }
+}
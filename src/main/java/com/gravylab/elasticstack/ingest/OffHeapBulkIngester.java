@@ -0,0 +1,264 @@
+package com.gravylab.elasticstack.ingest;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+//TODO BulkIngestService 와 같은 조건(건수, 크기, 주기)으로 벌크를 보내지만 대기 중인 문서를 힙이 아닌 OffHeapBulkBuffer 에 쌓는다.
+// 본문은 저수준 클라이언트로 _bulk 에 그대로 흘려보내고, 응답을 받은 뒤에야 청크를 풀에 돌려준다.
+// 동시에 보낼 수 있는 벌크 수(concurrentRequests)를 넘으면 호출자가 기다리기 때문에 쌓이는 다이렉트 메모리도 그만큼으로 제한된다.
+// IngestSpool 이 켜져 있으면 과부하로 실패한 벌크는 디스크에 쌓고, 순서를 지키기 위해 쌓인 것이 다 나갈 때까지 새 벌크도 뒤에 붙인다.
+@Slf4j
+@Component
+public class OffHeapBulkIngester implements DisposableBean {
+
+    private final RestClient restClient;
+    private final ClusterCallGuard clusterCallGuard;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+    private final List<IndexWriteListener> indexWriteListeners;
+    private final IngestSpool ingestSpool;
+    private final BulkIngestProperties properties;
+    private final DirectBufferPool pool;
+    private final Semaphore inFlight;
+    private final BackoffPolicy backoffPolicy;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private OffHeapBulkBuffer buffer;
+
+    public OffHeapBulkIngester(RestHighLevelClient client, ClusterCallGuard clusterCallGuard, ElasticsearchMetrics elasticsearchMetrics,
+                               ObjectProvider<IndexWriteListener> indexWriteListeners, ObjectProvider<IngestSpool> ingestSpool,
+                               BulkIngestProperties properties) {
+        this.restClient = client.getLowLevelClient();
+        this.clusterCallGuard = clusterCallGuard;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        this.indexWriteListeners = indexWriteListeners.orderedStream()
+                .collect(Collectors.toList());
+        this.ingestSpool = ingestSpool.getIfAvailable();
+        this.properties = properties;
+        this.pool = new DirectBufferPool((int) properties.getOffHeap().getChunkSize().toBytes(), properties.getOffHeap().getMaxPooledChunks());
+        this.inFlight = new Semaphore(properties.getConcurrentRequests());
+        this.backoffPolicy = BackoffPolicy.exponentialBackoff(
+                TimeValue.timeValueMillis(properties.getInitialBackoff().toMillis()),
+                properties.getMaxRetries()
+        );
+        this.buffer = new OffHeapBulkBuffer(pool);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "off-heap-bulk-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long flushIntervalMillis = properties.getFlushInterval().toMillis();
+        this.scheduler.scheduleWithFixedDelay(this::flushIfIdle, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void index(String index, String id, Map<String, ?> source) throws IOException {
+        OffHeapBulkBuffer full = null;
+        synchronized (lock) {
+            buffer.index(index, id, source);
+            if (buffer.getActions() >= properties.getBulkActions() || buffer.size() >= properties.getBulkSize().toBytes()) {
+                full = swap();
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    public void flush() {
+        OffHeapBulkBuffer pending;
+        synchronized (lock) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            pending = swap();
+        }
+        send(pending);
+    }
+
+    //TODO 주기적인 flush 는 재시도와 같은 스케줄러 스레드에서 돈다. 여기서 자리를 기다리면 자리를 돌려줄 재시도가 실행되지 못하므로
+    // 빈 자리가 없으면 이번 주기는 건너뛴다. 쌓인 문서는 다음 주기나 건수/크기 조건에서 나간다.
+    private void flushIfIdle() {
+        if (!inFlight.tryAcquire()) {
+            return;
+        }
+        OffHeapBulkBuffer pending;
+        synchronized (lock) {
+            if (buffer.isEmpty()) {
+                inFlight.release();
+                return;
+            }
+            pending = swap();
+        }
+        sendAcquired(pending);
+    }
+
+    //TODO 보낸 벌크가 모두 끝날 때까지 기다린다. 모든 자리를 잡았다가 바로 돌려준다.
+    public boolean awaitFlushed(Duration timeout) throws InterruptedException {
+        flush();
+        if (!inFlight.tryAcquire(properties.getConcurrentRequests(), timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        inFlight.release(properties.getConcurrentRequests());
+        return true;
+    }
+
+    public int getPooledChunks() {
+        return pool.getPooledChunks();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        //TODO 재시도는 스케줄러로 미뤄서 보내므로 보낸 벌크가 모두 끝난 뒤에 스케줄러를 닫는다.
+        if (!awaitFlushed(properties.getAwaitCloseTimeout())) {
+            log.warn("off-heap bulk ingester did not finish in-flight requests within {}", properties.getAwaitCloseTimeout());
+        }
+        scheduler.shutdown();
+    }
+
+    private OffHeapBulkBuffer swap() {
+        OffHeapBulkBuffer full = buffer;
+        buffer = new OffHeapBulkBuffer(pool);
+        return full;
+    }
+
+    private void send(OffHeapBulkBuffer batch) {
+        inFlight.acquireUninterruptibly();
+        sendAcquired(batch);
+    }
+
+    private void sendAcquired(OffHeapBulkBuffer batch) {
+        if (ingestSpool != null && !ingestSpool.isEmpty() && spool(batch)) {
+            return;
+        }
+        dispatch(batch, backoffPolicy.iterator());
+    }
+
+    //TODO 재시도하는 동안에도 처음 잡은 자리(inFlight)를 그대로 들고 있어서 동시에 보내는 벌크 수가 늘어나지 않는다.
+    private void dispatch(OffHeapBulkBuffer batch, Iterator<TimeValue> backoff) {
+        Request request = new Request("POST", "/_bulk");
+        request.setEntity(batch.toEntity());
+        clusterCallGuard.perform(restClient, request, ActionListener.wrap(
+                response -> completed(batch, backoff, response),
+                failure -> failed(batch, backoff, failure)
+        ));
+    }
+
+    private void completed(OffHeapBulkBuffer batch, Iterator<TimeValue> backoff, Response response) {
+        //TODO 응답을 읽지 못하면 어떤 아이템이 들어갔는지 알 수 없으므로 성공으로 치지 않고 벌크 전체를 실패로 기록한다.
+        // 일부는 이미 색인됐을 수 있어서 다시 보내지는 않는다.
+        BulkResponse bulkResponse;
+        try (InputStream content = response.getEntity().getContent();
+             XContentParser parser = JsonXContent.jsonXContent.createParser(
+                     NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            bulkResponse = BulkResponse.fromXContent(parser);
+        } catch (IOException | RuntimeException e) {
+            fail(batch, e);
+            return;
+        }
+        elasticsearchMetrics.recordBulk(bulkResponse);
+        if (bulkResponse.hasFailures()) {
+            log.warn("off-heap bulk with {} actions completed with failures: {}", batch.getActions(), bulkResponse.buildFailureMessage());
+        }
+        OffHeapBulkBuffer rejected = null;
+        if (BulkIngestService.hasRejectedItems(bulkResponse)) {
+            rejected = new OffHeapBulkBuffer(pool);
+            rejected.copyItems(batch.chunks(), bulkResponse.getItems(), BulkIngestService::isRejected);
+        }
+        if (rejected == null) {
+            finish(batch);
+            return;
+        }
+        notifyIndicesWritten(batch);
+        batch.release();
+        retry(rejected, backoff);
+    }
+
+    //TODO 429 로 거절된 아이템이나 과부하로 실패한 벌크를 BulkIngestService 의 BulkProcessor 와 같은 지수 백오프로 다시 보낸다.
+    // 스풀이 있으면 기다리지 않고 스풀에 넘긴다. 클러스터가 받아 줄 때 순서대로 재전송된다.
+    private void retry(OffHeapBulkBuffer rejected, Iterator<TimeValue> backoff) {
+        if (ingestSpool != null && spool(rejected)) {
+            log.warn("spooled {} bulk items rejected by the cluster", rejected.getActions());
+            return;
+        }
+        if (backoff.hasNext()) {
+            TimeValue delay = backoff.next();
+            log.debug("retrying {} rejected bulk items in {}", rejected.getActions(), delay);
+            scheduler.schedule(() -> dispatch(rejected, backoff), delay.millis(), TimeUnit.MILLISECONDS);
+            return;
+        }
+        elasticsearchMetrics.recordBulkFailure(rejected.getActions());
+        log.error("dropping {} bulk items still rejected after {} retries", rejected.getActions(), properties.getMaxRetries());
+        release(rejected);
+    }
+
+    private void failed(OffHeapBulkBuffer batch, Iterator<TimeValue> backoff, Exception failure) {
+        if (ClusterCallGuard.isOverload(failure)) {
+            log.warn("off-heap bulk with {} actions rejected by the cluster: {}", batch.getActions(), failure.getMessage());
+            retry(batch, backoff);
+            return;
+        }
+        fail(batch, failure);
+    }
+
+    private void fail(OffHeapBulkBuffer batch, Exception failure) {
+        elasticsearchMetrics.recordBulkFailure(batch.getActions());
+        log.error("off-heap bulk with {} actions ({} bytes) failed", batch.getActions(), batch.size(), failure);
+        finish(batch);
+    }
+
+    //TODO 디스크에 쌓은 벌크는 아직 색인된 것이 아니므로 IndexWriteListener 에는 재전송할 때 알린다.
+    private boolean spool(OffHeapBulkBuffer batch) {
+        try {
+            ingestSpool.append(batch);
+        } catch (IOException | RuntimeException e) {
+            log.error("failed to spool off-heap bulk with {} actions", batch.getActions(), e);
+            return false;
+        }
+        release(batch);
+        return true;
+    }
+
+    private void finish(OffHeapBulkBuffer batch) {
+        notifyIndicesWritten(batch);
+        release(batch);
+    }
+
+    private void notifyIndicesWritten(OffHeapBulkBuffer batch) {
+        Set<String> indices = Set.copyOf(batch.getIndices());
+        indexWriteListeners.forEach(indexWriteListener -> indexWriteListener.onIndicesWritten(indices));
+    }
+
+    private void release(OffHeapBulkBuffer batch) {
+        batch.release();
+        inFlight.release();
+    }
+}
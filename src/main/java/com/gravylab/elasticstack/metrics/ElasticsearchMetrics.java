@@ -0,0 +1,162 @@
+package com.gravylab.elasticstack.metrics;
+
+import com.gravylab.elasticstack.client.CircuitBreaker;
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.ingest.IngestSpool;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class ElasticsearchMetrics {
+
+    public static final String CLIENT_REQUESTS = "elasticsearch.client.requests";
+    public static final String CLIENT_REQUEST_SIZE = "elasticsearch.client.request.size";
+    public static final String CLIENT_TRANSPORT_FAILURES = "elasticsearch.client.transport.failures";
+    public static final String CLIENT_RESPONSE_SIZE = "elasticsearch.client.response.size";
+    public static final String SEARCH_LATENCY = "elasticsearch.search.latency";
+    public static final String BULK_ITEMS = "elasticsearch.bulk.items";
+    public static final String BULK_TOOK = "elasticsearch.bulk.took";
+    public static final String SEARCH_HEDGE = "elasticsearch.search.hedge";
+    public static final String SPOOL_BYTES = "elasticsearch.ingest.spool.bytes";
+    public static final String SPOOL_BACKLOG = "elasticsearch.ingest.spool.backlog";
+    public static final String SPOOL_DISK_USAGE = "elasticsearch.ingest.spool.disk.usage";
+    public static final String CLIENT_CONCURRENCY_LIMIT = "elasticsearch.client.concurrency.limit";
+    public static final String CLIENT_IN_FLIGHT = "elasticsearch.client.in.flight";
+    public static final String CLIENT_CIRCUIT_OPEN = "elasticsearch.client.circuit.open";
+    public static final String CLIENT_REJECTED = "elasticsearch.client.rejected";
+
+    private final MeterRegistry meterRegistry;
+
+    public ElasticsearchMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void recordRequest(String operation, String method, int statusCode, long durationNanos, long requestBytes, long responseBytes) {
+        Timer.builder(CLIENT_REQUESTS)
+                .tag("operation", operation)
+                .tag("method", method)
+                .tag("status", String.valueOf(statusCode))
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+
+        if (requestBytes >= 0) {
+            DistributionSummary.builder(CLIENT_REQUEST_SIZE)
+                    .baseUnit(BaseUnits.BYTES)
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .record(requestBytes);
+        }
+        if (responseBytes >= 0) {
+            DistributionSummary.builder(CLIENT_RESPONSE_SIZE)
+                    .baseUnit(BaseUnits.BYTES)
+                    .tag("operation", operation)
+                    .register(meterRegistry)
+                    .record(responseBytes);
+        }
+    }
+
+    //TODO 응답을 받지 못한 호출(연결 실패, 타임아웃)은 상태 코드가 없으므로 예외 종류로 따로 센다.
+    public void recordTransportFailure(Exception failure, long durationNanos) {
+        Timer.builder(CLIENT_TRANSPORT_FAILURES)
+                .tag("exception", failure.getClass().getSimpleName())
+                .register(meterRegistry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    //TODO took 는 엘라스틱서치가 샤드에서 검색을 수행한 시간이고, wall 은 클라이언트가 응답을 받기까지 걸린 전체 시간이다.
+    // 둘의 차이가 크다면 네트워크, 큐잉, 직렬화/파싱에서 지연이 발생하고 있다는 뜻이다.
+    public void recordSearch(TimeValue took, long wallNanos) {
+        searchLatency("took").record(took.millis(), TimeUnit.MILLISECONDS);
+        searchLatency("wall").record(wallNanos, TimeUnit.NANOSECONDS);
+    }
+
+    //TODO 헤지 비율은 (primary_won + hedge_won) / 전체, 헤지가 실제로 도움이 된 비율은 hedge_won / 전체로 본다.
+    public void recordHedge(String outcome) {
+        Counter.builder(SEARCH_HEDGE)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void recordBulk(BulkResponse bulkResponse) {
+        Timer.builder(BULK_TOOK)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry)
+                .record(bulkResponse.getTook().millis(), TimeUnit.MILLISECONDS);
+
+        long succeeded = 0;
+        for (BulkItemResponse item : bulkResponse.getItems()) {
+            if (item.isFailed()) {
+                bulkItems("failure", String.valueOf(item.getFailure().getStatus().getStatus())).increment();
+            } else {
+                succeeded++;
+            }
+        }
+        bulkItems("success", "200").increment(succeeded);
+    }
+
+    public void recordBulkFailure(int numberOfActions) {
+        bulkItems("error", "none").increment(numberOfActions);
+    }
+
+    public void registerCallGuard(ClusterCallGuard clusterCallGuard) {
+        Gauge.builder(CLIENT_CONCURRENCY_LIMIT, clusterCallGuard, ClusterCallGuard::getConcurrencyLimit)
+                .register(meterRegistry);
+        Gauge.builder(CLIENT_IN_FLIGHT, clusterCallGuard, ClusterCallGuard::getInFlight)
+                .register(meterRegistry);
+        Gauge.builder(CLIENT_CIRCUIT_OPEN, clusterCallGuard, guard -> guard.getCircuitState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .register(meterRegistry);
+    }
+
+    public void recordRejectedCall(String reason) {
+        Counter.builder(CLIENT_REJECTED)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void registerSpool(IngestSpool ingestSpool) {
+        Gauge.builder(SPOOL_BACKLOG, ingestSpool, IngestSpool::backlogBytes)
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+        Gauge.builder(SPOOL_DISK_USAGE, ingestSpool, IngestSpool::diskUsageBytes)
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+    }
+
+    //TODO outcome 은 appended, replayed, requeued(아이템 단위 429 로 다시 쌓음), rejected 중 하나다. replayed 의 증가율이 재전송 속도다.
+    public void recordSpool(String outcome, long bytes) {
+        Counter.builder(SPOOL_BYTES)
+                .baseUnit(BaseUnits.BYTES)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment(bytes);
+    }
+
+    private Timer searchLatency(String clock) {
+        return Timer.builder(SEARCH_LATENCY)
+                .tag("clock", clock)
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Counter bulkItems(String outcome, String status) {
+        return Counter.builder(BULK_ITEMS)
+                .tag("outcome", outcome)
+                .tag("status", status)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,118 @@
+package com.gravylab.elasticstack.metrics;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+
+//TODO RestHighLevelClient 의 API 메서드는 final 이라 상속으로 감쌀 수 없다.
+// 대신 모든 호출이 거쳐가는 HTTP 클라이언트에 인터셉터를 등록해 요청마다 지연 시간과 요청/응답 크기를 기록한다.
+// 응답 인터셉터는 응답 헤더를 받은 시점에 호출되므로 기록되는 시간은 첫 바이트까지의 시간이다.
+// 압축을 켜면 요청 본문 길이를 미리 알 수 없으므로(-1) 요청 크기는 연결이 이 요청 동안 실제로 보낸 바이트 수(헤더 포함, 압축 후)로 잰다.
+// 연결 실패나 타임아웃처럼 응답이 없는 호출은 인터셉터를 거치지 않으므로 ClusterCallGuard 가 실패 경로에서 따로 기록한다.
+public class MeteredHttpInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    private static final String START_NANOS = MeteredHttpInterceptor.class.getName() + ".startNanos";
+    private static final String OPERATION = MeteredHttpInterceptor.class.getName() + ".operation";
+    private static final String METHOD = MeteredHttpInterceptor.class.getName() + ".method";
+    private static final String REQUEST_BYTES = MeteredHttpInterceptor.class.getName() + ".requestBytes";
+    private static final String SENT_BYTES = MeteredHttpInterceptor.class.getName() + ".sentBytes";
+
+    private final ElasticsearchMetrics elasticsearchMetrics;
+
+    public MeteredHttpInterceptor(ElasticsearchMetrics elasticsearchMetrics) {
+        this.elasticsearchMetrics = elasticsearchMetrics;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        context.setAttribute(START_NANOS, System.nanoTime());
+        context.setAttribute(OPERATION, operation(request.getRequestLine().getUri()));
+        context.setAttribute(METHOD, request.getRequestLine().getMethod());
+        context.setAttribute(REQUEST_BYTES, contentLength(request));
+        context.setAttribute(SENT_BYTES, sentBytes(context));
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        Long startNanos = (Long) context.getAttribute(START_NANOS);
+        if (startNanos == null) {
+            return;
+        }
+        HttpEntity entity = response.getEntity();
+        elasticsearchMetrics.recordRequest(
+                (String) context.getAttribute(OPERATION),
+                (String) context.getAttribute(METHOD),
+                response.getStatusLine().getStatusCode(),
+                System.nanoTime() - startNanos,
+                requestBytes(context),
+                entity == null ? 0 : entity.getContentLength()
+        );
+    }
+
+    static String operation(String uri) {
+        int queryStart = uri.indexOf('?');
+        String path = queryStart < 0 ? uri : uri.substring(0, queryStart);
+        if (path.contains("/_msearch")) {
+            return "msearch";
+        }
+        if (path.contains("/_search/scroll")) {
+            return "scroll";
+        }
+        if (path.contains("/_search")) {
+            return "search";
+        }
+        if (path.contains("/_bulk")) {
+            return "bulk";
+        }
+        if (path.contains("/_analyze")) {
+            return "analyze";
+        }
+        if (path.contains("/_count")) {
+            return "count";
+        }
+        if (path.contains("/_pit")) {
+            return "pit";
+        }
+        if (path.contains("/_reindex")) {
+            return "reindex";
+        }
+        if (path.contains("/_template")) {
+            return "template";
+        }
+        if (path.contains("/_doc") || path.contains("/_create") || path.contains("/_update")) {
+            return "document";
+        }
+        return "indices";
+    }
+
+    private long requestBytes(HttpContext context) {
+        Long sentBytes = (Long) context.getAttribute(SENT_BYTES);
+        long sentBytesNow = sentBytes(context);
+        if (sentBytes != null && sentBytes >= 0 && sentBytesNow >= sentBytes) {
+            return sentBytesNow - sentBytes;
+        }
+        return (Long) context.getAttribute(REQUEST_BYTES);
+    }
+
+    private long sentBytes(HttpContext context) {
+        Object connection = context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+        if (connection instanceof HttpConnection && ((HttpConnection) connection).getMetrics() != null) {
+            return ((HttpConnection) connection).getMetrics().getSentBytesCount();
+        }
+        return -1;
+    }
+
+    private long contentLength(HttpRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity == null ? 0 : entity.getContentLength();
+        }
+        return 0;
+    }
+}
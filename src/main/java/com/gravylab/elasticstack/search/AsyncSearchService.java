@@ -0,0 +1,123 @@
+package com.gravylab.elasticstack.search;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+@Service
+public class AsyncSearchService {
+
+    private final RestHighLevelClient client;
+    private final SearchHitMapper searchHitMapper;
+    private final SearchResultCache searchResultCache;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+    private final SearchProperties properties;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+    private final MultiSearchCoalescer multiSearchCoalescer;
+
+    public AsyncSearchService(RestHighLevelClient client, SearchHitMapper searchHitMapper, SearchResultCache searchResultCache,
+                              ElasticsearchMetrics elasticsearchMetrics, SearchProperties properties, RequestOptions requestOptions,
+                              ClusterCallGuard clusterCallGuard, MultiSearchCoalescer multiSearchCoalescer) {
+        this.client = client;
+        this.requestOptions = requestOptions;
+        this.clusterCallGuard = clusterCallGuard;
+        this.multiSearchCoalescer = multiSearchCoalescer;
+        this.searchHitMapper = searchHitMapper;
+        this.searchResultCache = searchResultCache;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        this.properties = properties;
+    }
+
+    //TODO 묶기를 켜면 window 안에 들어온 검색을 하나의 _msearch 로 보낸다. 묶어서 보낸 요청은 개별로 취소할 수 없다.
+    public CompletableFuture<SearchResponse> search(SearchRequest searchRequest) {
+        if (properties.getCoalescing().isEnabled()) {
+            return multiSearchCoalescer.search(searchRequest);
+        }
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+        Runnable cancel = clusterCallGuard.execute(
+                listener -> client.searchAsync(searchRequest, requestOptions, listener),
+                ActionListener.wrap(
+                        searchResponse -> {
+                            elasticsearchMetrics.recordSearch(searchResponse.getTook(), System.nanoTime() - startNanos);
+                            future.complete(searchResponse);
+                        },
+                        future::completeExceptionally
+                )
+        );
+        //TODO 호출자가 future 를 취소하면 진행 중인 HTTP 요청도 함께 취소한다.
+        future.whenComplete((response, failure) -> {
+            if (future.isCancelled()) {
+                cancel.run();
+            }
+        });
+        return future;
+    }
+
+    //TODO 결과가 자주 바뀌지 않는 필터 컨텍스트 쿼리처럼 같은 요청이 반복되는 경우에만 사용한다.
+    // 캐시된 응답은 호출자들이 공유하므로 변경하지 않아야 한다.
+    public CompletableFuture<SearchResponse> searchCached(SearchRequest searchRequest) {
+        return searchResultCache.get(searchRequest, this::search);
+    }
+
+    public <T> CompletableFuture<List<T>> search(SearchRequest searchRequest, Class<T> type) {
+        return search(searchRequest)
+                .thenApply(searchResponse -> searchHitMapper.map(searchResponse, type));
+    }
+
+    public CompletableFuture<List<SearchResponse>> searchAll(List<SearchRequest> searchRequests) {
+        return searchAll(searchRequests, properties.getMaxConcurrency());
+    }
+
+    //TODO 서로 독립적인 쿼리들을 최대 maxConcurrency 개까지 동시에 실행한다.
+    // 전체 소요 시간은 각 쿼리 지연 시간의 합이 아니라 가장 느린 쿼리에 가까워진다.
+    // 하나라도 실패하면 아직 시작하지 않은 쿼리는 더 이상 보내지 않는다.
+    public CompletableFuture<List<SearchResponse>> searchAll(List<SearchRequest> searchRequests, int maxConcurrency) {
+        AtomicReferenceArray<SearchResponse> responses = new AtomicReferenceArray<>(searchRequests.size());
+        AtomicInteger next = new AtomicInteger();
+
+        int lanes = Math.max(1, Math.min(maxConcurrency, searchRequests.size()));
+        CompletableFuture<?>[] futures = new CompletableFuture[lanes];
+        for (int i = 0; i < lanes; i++) {
+            futures[i] = runLane(searchRequests, responses, next);
+        }
+
+        return CompletableFuture.allOf(futures)
+                .thenApply(ignored -> {
+                    List<SearchResponse> result = new ArrayList<>(responses.length());
+                    for (int i = 0; i < responses.length(); i++) {
+                        result.add(responses.get(i));
+                    }
+                    return result;
+                });
+    }
+
+    private CompletableFuture<Void> runLane(List<SearchRequest> searchRequests, AtomicReferenceArray<SearchResponse> responses, AtomicInteger next) {
+        int index = next.getAndIncrement();
+        if (index >= searchRequests.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return search(searchRequests.get(index))
+                .whenComplete((response, failure) -> {
+                    if (failure != null) {
+                        next.set(searchRequests.size());
+                    }
+                })
+                .thenCompose(response -> {
+                    responses.set(index, response);
+                    return runLane(searchRequests, responses, next);
+                });
+    }
+}
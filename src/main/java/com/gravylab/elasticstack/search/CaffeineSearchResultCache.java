@@ -0,0 +1,147 @@
+package com.gravylab.elasticstack.search;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.gravylab.elasticstack.ingest.IndexWriteListener;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//TODO 최대 크기를 넘으면 Caffeine 의 W-TinyLFU 정책으로 자주 쓰이지 않는 결과부터 제거한다.
+// 같은 키로 동시에 들어온 요청은 하나의 검색 요청만 보내고 결과를 공유한다.
+// 쓰기 응답은 검색에 보이기 전에 오므로 쓰기 직후와 refresh_interval 이 지난 뒤(또는 명시적인 _refresh 가 끝난 뒤) 두 번 무효화한다.
+// 쓰기는 실제 인덱스 이름으로 들어오므로 그 인덱스를 가리키는 별칭으로 캐시된 검색도 함께 무효화한다.
+@Component
+public class CaffeineSearchResultCache implements SearchResultCache, IndexWriteListener, MeterBinder {
+
+    private static final int BASE_WEIGHT = 1024;
+
+    private final AsyncCache<SearchCacheKey, SearchResponse> cache;
+    private final AsyncCache<String, Set<String>> aliases;
+    private final ObjectProvider<RestHighLevelClient> client;
+    private final RequestOptions requestOptions;
+    private final Executor afterRefresh;
+
+    public CaffeineSearchResultCache(SearchProperties properties, ObjectProvider<RestHighLevelClient> client, RequestOptions requestOptions) {
+        SearchProperties.Cache cacheProperties = properties.getCache();
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(cacheProperties.getTtl())
+                .maximumWeight(cacheProperties.getMaxWeight().toBytes())
+                .weigher((SearchCacheKey key, SearchResponse response) -> weigh(key, response))
+                .recordStats()
+                .buildAsync();
+        this.aliases = Caffeine.newBuilder()
+                .expireAfterWrite(cacheProperties.getAliasTtl())
+                .buildAsync();
+        this.client = client;
+        this.requestOptions = requestOptions;
+        this.afterRefresh = CompletableFuture.delayedExecutor(cacheProperties.getRefreshInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<SearchResponse> get(SearchRequest searchRequest, Function<SearchRequest, CompletableFuture<SearchResponse>> loader) {
+        return cache.get(SearchCacheKey.of(searchRequest), (key, executor) -> loader.apply(searchRequest));
+    }
+
+    @Override
+    public void invalidate(String index) {
+        cache.asMap()
+                .keySet()
+                .removeIf(key -> key.targets(index));
+    }
+
+    @Override
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    @Override
+    public SearchCacheStats stats() {
+        CacheStats stats = cache.synchronous().stats();
+        return new SearchCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "elasticsearch.search.results");
+    }
+
+    @Override
+    public void onIndicesWritten(Set<String> indices) {
+        invalidateWithAliases(indices);
+        afterRefresh.execute(() -> invalidateWithAliases(indices));
+    }
+
+    @Override
+    public void onIndicesRefreshed(Set<String> indices) {
+        invalidateWithAliases(indices);
+    }
+
+    private void invalidateWithAliases(Set<String> indices) {
+        for (String index : indices) {
+            invalidate(index);
+            aliases.get(index, (key, executor) -> getAliases(key))
+                    .whenComplete((names, failure) -> {
+                        if (failure == null) {
+                            names.forEach(this::invalidate);
+                        } else {
+                            invalidateAll();
+                        }
+                    });
+        }
+    }
+
+    //TODO 클라이언트가 없으면(단위 테스트) 별칭이 없는 것으로 본다. 조회에 실패하면 어느 별칭이 걸렸는지 모르므로 전부 무효화하고,
+    // 실패한 결과는 캐시에 남지 않는다.
+    private CompletableFuture<Set<String>> getAliases(String index) {
+        RestHighLevelClient restHighLevelClient = client.getIfAvailable();
+        if (restHighLevelClient == null) {
+            return CompletableFuture.completedFuture(Collections.emptySet());
+        }
+        CompletableFuture<Set<String>> future = new CompletableFuture<>();
+        GetAliasesRequest getAliasesRequest = new GetAliasesRequest()
+                .indices(index)
+                .indicesOptions(IndicesOptions.lenientExpandOpen());
+        restHighLevelClient.indices().getAliasAsync(getAliasesRequest, requestOptions, ActionListener.wrap(
+                getAliasesResponse -> future.complete(getAliasesResponse.getAliases()
+                        .values()
+                        .stream()
+                        .flatMap(Set::stream)
+                        .map(AliasMetadata::alias)
+                        .collect(Collectors.toUnmodifiableSet())),
+                future::completeExceptionally
+        ));
+        return future;
+    }
+
+    //TODO 응답 크기는 대부분 _source 가 차지하기 때문에 _source 바이트 수로 대략적인 무게를 계산한다.
+    private static int weigh(SearchCacheKey key, SearchResponse response) {
+        long weight = BASE_WEIGHT + key.getSource().length();
+        for (SearchHit hit : response.getHits().getHits()) {
+            BytesReference source = hit.getSourceRef();
+            weight += source == null ? 0 : source.length();
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,158 @@
+package com.gravylab.elasticstack.search;
+
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//TODO 읽기 전용 검색의 꼬리 지연을 줄이기 위한 헤지 요청.
+// 최근 검색 지연 시간의 percentile 안에 응답이 오지 않으면 preference 를 바꾼 같은 검색을 한 번 더 보낸다.
+// preference 가 다르면 다른 샤드 복제본으로 라우팅될 수 있고, 먼저 성공한 응답을 쓰고 나머지 요청은 취소한다.
+// 헤지는 percentile 을 넘긴 요청에만 나가므로 추가 부하는 대략 (1 - percentile) 비율로 제한된다.
+@Component
+public class HedgedSearchExecutor implements DisposableBean {
+
+    public static final String NOT_NEEDED = "not_needed";
+    public static final String PRIMARY_WON = "primary_won";
+    public static final String HEDGE_WON = "hedge_won";
+
+    private final AsyncSearchService asyncSearchService;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+    private final SearchProperties.Hedging properties;
+    private final ScheduledExecutorService scheduler;
+
+    private final long[] latencies;
+    private int latencyCount;
+    private int latencyCursor;
+    private volatile long hedgeDelayNanos;
+
+    public HedgedSearchExecutor(AsyncSearchService asyncSearchService, ElasticsearchMetrics elasticsearchMetrics, SearchProperties properties) {
+        this.asyncSearchService = asyncSearchService;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        this.properties = properties.getHedging();
+        this.latencies = new long[this.properties.getSampleSize()];
+        this.hedgeDelayNanos = this.properties.getMinDelay().toNanos();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-hedger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //TODO preference 를 직접 지정한 검색(_local, _only_nodes:... 등)은 라우팅을 의도한 것이라 헤지하지 않는다.
+    // 헤지 요청의 preference 를 바꾸면 그 의도가 깨지거나 예약어 뒤에 값이 붙어 요청 자체가 실패한다.
+    public CompletableFuture<SearchResponse> search(SearchRequest searchRequest) {
+        if (!properties.isEnabled() || searchRequest.preference() != null) {
+            return asyncSearchService.search(searchRequest);
+        }
+        HedgedSearch hedgedSearch = new HedgedSearch(searchRequest);
+        hedgedSearch.start();
+        return hedgedSearch.result;
+    }
+
+    public long getHedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    //TODO percentile 은 최근 sampleSize 개의 지연 시간으로 계산하고, 표본이 minSamples 보다 적으면 minDelay 를 쓴다.
+    // 매 요청마다 정렬하지 않도록 표본이 일정 개수 쌓일 때마다 다시 계산한다.
+    private synchronized void recordLatency(long latencyNanos) {
+        latencies[latencyCursor] = latencyNanos;
+        latencyCursor = (latencyCursor + 1) % latencies.length;
+        latencyCount = Math.min(latencyCount + 1, latencies.length);
+        if (latencyCount < properties.getMinSamples() || latencyCursor % Math.max(1, latencies.length / 10) != 0) {
+            return;
+        }
+        long[] samples = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(properties.getPercentile() * samples.length) - 1;
+        long percentile = samples[Math.max(0, Math.min(samples.length - 1, index))];
+        hedgeDelayNanos = Math.max(properties.getMinDelay().toNanos(), percentile);
+    }
+
+    private static SearchRequest hedgeRequest(SearchRequest searchRequest) {
+        return new SearchRequest(searchRequest)
+                .preference("hedge_" + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+    }
+
+    private class HedgedSearch {
+
+        private final SearchRequest request;
+        private final CompletableFuture<SearchResponse> result = new CompletableFuture<>();
+        //TODO 헤지 여부와 남은 시도 수는 요청을 보내기 전에 갱신한다. 가드가 요청을 그 자리에서 거절하면 콜백이 attempt 안에서 바로 실행되기 때문이다.
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicBoolean hedged = new AtomicBoolean();
+        private final AtomicBoolean decided = new AtomicBoolean();
+        private volatile CompletableFuture<SearchResponse> primary;
+        private volatile CompletableFuture<SearchResponse> hedge;
+        private volatile ScheduledFuture<?> hedgeTimer;
+
+        private HedgedSearch(SearchRequest request) {
+            this.request = request;
+        }
+
+        private void start() {
+            primary = attempt(request, PRIMARY_WON);
+            hedgeTimer = scheduler.schedule(this::sendHedge, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            //TODO 호출자가 취소했거나 한쪽이 이겼으면 남아 있는 요청과 타이머를 정리한다.
+            result.whenComplete((response, failure) -> {
+                hedgeTimer.cancel(false);
+                primary.cancel(true);
+                if (hedge != null) {
+                    hedge.cancel(true);
+                }
+            });
+        }
+
+        private void sendHedge() {
+            if (result.isDone()) {
+                return;
+            }
+            pending.incrementAndGet();
+            hedged.set(true);
+            hedge = attempt(hedgeRequest(request), HEDGE_WON);
+            if (result.isDone()) {
+                hedge.cancel(true);
+            }
+        }
+
+        private CompletableFuture<SearchResponse> attempt(SearchRequest searchRequest, String outcome) {
+            long startNanos = System.nanoTime();
+            CompletableFuture<SearchResponse> future = asyncSearchService.search(searchRequest);
+            future.whenComplete((response, failure) -> {
+                //TODO 진 쪽 요청은 취소되므로 취소된 시점까지의 시간을 그 요청의 지연 시간으로 기록한다.
+                // 이긴 쪽만 기록하면 느린 요청이 표본에서 빠져 percentile 이 실제보다 낮아진다.
+                if (failure == null || failure instanceof CancellationException) {
+                    recordLatency(System.nanoTime() - startNanos);
+                }
+                if (failure == null) {
+                    if (decided.compareAndSet(false, true)) {
+                        elasticsearchMetrics.recordHedge(hedged.get() ? outcome : NOT_NEEDED);
+                        result.complete(response);
+                    }
+                } else if (pending.decrementAndGet() == 0) {
+                    //TODO 헤지를 보내기 전에 원 요청이 실패하면 남은 시도가 없으므로 기다리지 않고 바로 실패시킨다.
+                    result.completeExceptionally(failure);
+                }
+            });
+            return future;
+        }
+    }
+}
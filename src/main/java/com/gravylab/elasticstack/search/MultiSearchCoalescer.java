@@ -0,0 +1,156 @@
+package com.gravylab.elasticstack.search;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+//TODO 짧은 시간(window) 안에 들어온 검색 요청들을 모아 하나의 _msearch 요청으로 보내고,
+// 응답 순서대로 각 호출자의 future 에 결과를 돌려준다. 요청이 maxBatchSize 만큼 모이면 window 를 기다리지 않고 바로 보낸다.
+// wall 시간은 호출자가 요청을 넣은 시점부터 재므로 window 만큼 기다린 시간도 포함된다.
+@Slf4j
+@Component
+public class MultiSearchCoalescer implements DisposableBean {
+
+    private final RestHighLevelClient client;
+    private final ElasticsearchMetrics elasticsearchMetrics;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private List<PendingSearch> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public MultiSearchCoalescer(RestHighLevelClient client, ElasticsearchMetrics elasticsearchMetrics, SearchProperties properties, RequestOptions requestOptions,
+                                ClusterCallGuard clusterCallGuard) {
+        this.client = client;
+        this.elasticsearchMetrics = elasticsearchMetrics;
+        this.requestOptions = requestOptions;
+        this.clusterCallGuard = clusterCallGuard;
+        this.windowMillis = properties.getCoalescing().getWindow().toMillis();
+        this.maxBatchSize = properties.getCoalescing().getMaxBatchSize();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "msearch-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<SearchResponse> search(SearchRequest searchRequest) {
+        PendingSearch pendingSearch = new PendingSearch(searchRequest);
+        List<PendingSearch> batch = null;
+        synchronized (lock) {
+            pending.add(pendingSearch);
+            if (pending.size() >= maxBatchSize) {
+                batch = drain();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        return pendingSearch.future;
+    }
+
+    public void flush() {
+        List<PendingSearch> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    private List<PendingSearch> drain() {
+        List<PendingSearch> batch = pending;
+        pending = new ArrayList<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void send(List<PendingSearch> batch) {
+        if (batch.size() == 1) {
+            PendingSearch pendingSearch = batch.get(0);
+            clusterCallGuard.execute(listener -> client.searchAsync(pendingSearch.request, requestOptions, listener),
+                    ActionListener.wrap(pendingSearch::complete, pendingSearch.future::completeExceptionally));
+            return;
+        }
+
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        batch.forEach(pendingSearch -> multiSearchRequest.add(pendingSearch.request));
+
+        log.debug("sending {} coalesced searches as one _msearch", batch.size());
+        clusterCallGuard.execute(
+                listener -> client.msearchAsync(multiSearchRequest, requestOptions, listener),
+                MultiSearchCoalescer::isOverloaded,
+                ActionListener.wrap(
+                        multiSearchResponse -> demultiplex(batch, multiSearchResponse),
+                        failure -> batch.forEach(pendingSearch -> pendingSearch.future.completeExceptionally(failure))
+                ));
+    }
+
+    //TODO 각 검색이 429 로 거절된 것도 과부하 신호로 보고 동시성 한도를 줄인다.
+    private static boolean isOverloaded(MultiSearchResponse multiSearchResponse) {
+        return Arrays.stream(multiSearchResponse.getResponses())
+                .anyMatch(item -> item.isFailure() && ClusterCallGuard.isOverload(item.getFailure()));
+    }
+
+    private void demultiplex(List<PendingSearch> batch, MultiSearchResponse multiSearchResponse) {
+        MultiSearchResponse.Item[] items = multiSearchResponse.getResponses();
+        for (int i = 0; i < batch.size(); i++) {
+            MultiSearchResponse.Item item = items[i];
+            if (item.isFailure()) {
+                batch.get(i).future.completeExceptionally(item.getFailure());
+            } else {
+                batch.get(i).complete(item.getResponse());
+            }
+        }
+    }
+
+    private class PendingSearch {
+
+        private final SearchRequest request;
+        private final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        private final long startNanos = System.nanoTime();
+
+        private PendingSearch(SearchRequest request) {
+            this.request = request;
+        }
+
+        private void complete(SearchResponse searchResponse) {
+            elasticsearchMetrics.recordSearch(searchResponse.getTook(), System.nanoTime() - startNanos);
+            future.complete(searchResponse);
+        }
+    }
+}
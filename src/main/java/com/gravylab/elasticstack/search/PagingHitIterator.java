@@ -0,0 +1,74 @@
+package com.gravylab.elasticstack.search;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+//TODO 한 번에 한 페이지의 히트만 메모리에 유지하고, 다 소비하면 다음 페이지를 요청한다.
+// 마지막 페이지까지 소비하거나 close 되면 PIT/스크롤 컨텍스트를 해제한다.
+@Slf4j
+abstract class PagingHitIterator implements Iterator<SearchHit>, Closeable {
+
+    private static final SearchHit[] EMPTY_PAGE = new SearchHit[0];
+
+    protected final int pageSize;
+    private SearchHit[] page = EMPTY_PAGE;
+    private int cursor;
+    private boolean lastPage;
+    private boolean closed;
+
+    protected PagingHitIterator(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (cursor < page.length) {
+            return true;
+        }
+        if (lastPage || closed) {
+            close();
+            return false;
+        }
+        try {
+            page = fetchNextPage();
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException(e);
+        }
+        cursor = 0;
+        lastPage = page.length < pageSize;
+        return hasNext();
+    }
+
+    @Override
+    public SearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page[cursor++];
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        page = EMPTY_PAGE;
+        try {
+            release();
+        } catch (IOException e) {
+            log.warn("failed to release search context", e);
+        }
+    }
+
+    protected abstract SearchHit[] fetchNextPage() throws IOException;
+
+    protected abstract void release() throws IOException;
+}
@@ -0,0 +1,100 @@
+package com.gravylab.elasticstack.search;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+class PointInTimeHitIterator extends PagingHitIterator {
+
+    private static final String SHARD_DOC = "_shard_doc";
+
+    private final RestHighLevelClient client;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+    private final SearchSourceBuilder source;
+    private final TimeValue keepAlive;
+    private String pointInTimeId;
+    private Object[] searchAfter;
+
+    private PointInTimeHitIterator(RestHighLevelClient client, RequestOptions requestOptions, ClusterCallGuard clusterCallGuard, String pointInTimeId,
+                                   SearchSourceBuilder source, int pageSize, TimeValue keepAlive) {
+        super(pageSize);
+        this.client = client;
+        this.requestOptions = requestOptions;
+        this.clusterCallGuard = clusterCallGuard;
+        this.pointInTimeId = pointInTimeId;
+        this.keepAlive = keepAlive;
+        this.source = source.shallowCopy()
+                .size(pageSize);
+        if (this.source.sorts() == null || this.source.sorts().isEmpty()) {
+            this.source.sort(SortBuilders.fieldSort(SHARD_DOC));
+        }
+    }
+
+    static PointInTimeHitIterator open(RestHighLevelClient client, RequestOptions requestOptions, ClusterCallGuard clusterCallGuard, String index,
+                                       SearchSourceBuilder source, int pageSize, TimeValue keepAlive) throws IOException {
+        Request request = new Request("POST", "/" + index + "/_pit");
+        request.addParameter("keep_alive", keepAlive.getStringRep());
+        request.setOptions(requestOptions);
+        Response response = clusterCallGuard.call(() -> client.getLowLevelClient().performRequest(request));
+        try (InputStream content = response.getEntity().getContent()) {
+            String pointInTimeId = (String) XContentHelper.convertToMap(xContentType(response).xContent(), content, false).get("id");
+            return new PointInTimeHitIterator(client, requestOptions, clusterCallGuard, pointInTimeId, source, pageSize, keepAlive);
+        }
+    }
+
+    @Override
+    protected SearchHit[] fetchNextPage() throws IOException {
+        source.pointInTimeBuilder(new PointInTimeBuilder(pointInTimeId).setKeepAlive(keepAlive));
+        if (searchAfter != null) {
+            source.searchAfter(searchAfter);
+        }
+
+        //TODO PIT 를 사용할 때는 인덱스를 지정하지 않는다. PIT 가 이미 특정 시점의 인덱스를 가리키고 있다.
+        SearchResponse searchResponse = clusterCallGuard.call(() -> client.search(new SearchRequest().source(source), requestOptions));
+        if (searchResponse.pointInTimeId() != null) {
+            pointInTimeId = searchResponse.pointInTimeId();
+        }
+
+        SearchHit[] hits = searchResponse.getHits().getHits();
+        if (hits.length > 0) {
+            searchAfter = hits[hits.length - 1].getSortValues();
+        }
+        return hits;
+    }
+
+    //TODO PIT 를 닫는 요청은 클러스터 부하를 줄이는 쪽이므로 가드에서 거절되지 않게 바로 보낸다.
+    @Override
+    protected void release() throws IOException {
+        Request request = new Request("DELETE", "/_pit");
+        request.setJsonEntity(Strings.toString(
+                jsonBuilder()
+                        .startObject()
+                        .field("id", pointInTimeId)
+                        .endObject()
+        ));
+        request.setOptions(requestOptions);
+        client.getLowLevelClient().performRequest(request);
+    }
+
+    private static XContentType xContentType(Response response) {
+        return XContentType.fromMediaType(response.getEntity().getContentType().getValue());
+    }
+}
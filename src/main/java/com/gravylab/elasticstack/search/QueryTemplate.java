@@ -0,0 +1,101 @@
+package com.gravylab.elasticstack.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//TODO 자주 쓰는 쿼리 모양을 한 번만 JSON 으로 직렬화해서 파라미터 자리("{{name}}")를 기준으로 바이트 조각으로 잘라 둔다.
+// 요청 시에는 SearchSourceBuilder 트리를 만들거나 직렬화하지 않고 조각 사이에 JSON 으로 인코딩한 파라미터 값만 끼워 넣는다.
+public class QueryTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\"\\{\\{([A-Za-z0-9_.]+)}}\"");
+
+    private final String name;
+    private final String source;
+    private final byte[][] fragments;
+    private final List<String> parameterNames;
+
+    private QueryTemplate(String name, String source, byte[][] fragments, List<String> parameterNames) {
+        this.name = name;
+        this.source = source;
+        this.fragments = fragments;
+        this.parameterNames = parameterNames;
+    }
+
+    public static String param(String name) {
+        return "{{" + name + "}}";
+    }
+
+    public static QueryTemplate compile(String name, SearchSourceBuilder searchSourceBuilder) {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder();
+            searchSourceBuilder.toXContent(builder, ToXContent.EMPTY_PARAMS);
+            return compile(name, BytesReference.bytes(builder).utf8ToString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static QueryTemplate compile(String name, String source) {
+        List<byte[]> fragments = new ArrayList<>();
+        List<String> parameterNames = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        int last = 0;
+        while (matcher.find()) {
+            fragments.add(source.substring(last, matcher.start()).getBytes(StandardCharsets.UTF_8));
+            parameterNames.add(matcher.group(1));
+            last = matcher.end();
+        }
+        fragments.add(source.substring(last).getBytes(StandardCharsets.UTF_8));
+        return new QueryTemplate(name, source, fragments.toArray(byte[][]::new), Collections.unmodifiableList(parameterNames));
+    }
+
+    public byte[] render(Map<String, ?> params, ObjectMapper objectMapper) {
+        int estimatedSize = Arrays.stream(fragments)
+                .mapToInt(fragment -> fragment.length)
+                .sum();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(estimatedSize + parameterNames.size() * 16);
+        try {
+            for (int i = 0; i < parameterNames.size(); i++) {
+                out.write(fragments[i]);
+                String parameterName = parameterNames.get(i);
+                if (!params.containsKey(parameterName)) {
+                    throw new IllegalArgumentException("missing parameter [" + parameterName + "] for query template [" + name + "]");
+                }
+                out.write(objectMapper.writeValueAsBytes(params.get(parameterName)));
+            }
+            out.write(fragments[fragments.length - 1]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    //TODO 서버 측 mustache 검색 템플릿으로 등록할 때 쓰는 소스. 파라미터 자리를 toJson 섹션으로 바꿔서 값의 타입을 그대로 유지한다.
+    public String toMustache() {
+        return PLACEHOLDER.matcher(source).replaceAll("{{#toJson}}$1{{/toJson}}");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+}
@@ -0,0 +1,94 @@
+package com.gravylab.elasticstack.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.action.search.RestSearchAction;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.script.mustache.SearchTemplateRequest;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//TODO 쿼리 템플릿을 이름으로 등록해 두고 파라미터만 바꿔서 실행한다.
+// compiled 백엔드는 미리 잘라 둔 바이트 조각으로 본문을 만들어 저수준 클라이언트로 보내고,
+// mustache 백엔드는 같은 템플릿을 저장된 검색 템플릿(_scripts)으로 등록해 서버에서 렌더링한다.
+@Slf4j
+@Component
+public class QueryTemplateService {
+
+    private final RestHighLevelClient client;
+    private final ObjectMapper objectMapper;
+    private final SearchProperties properties;
+    private final RequestOptions requestOptions;
+    private final NamedXContentRegistry namedXContentRegistry;
+    private final ClusterCallGuard clusterCallGuard;
+    private final Map<String, QueryTemplate> templates = new ConcurrentHashMap<>();
+
+    public QueryTemplateService(RestHighLevelClient client, ObjectMapper objectMapper, SearchProperties properties, RequestOptions requestOptions,
+                                NamedXContentRegistry namedXContentRegistry, ClusterCallGuard clusterCallGuard) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+        this.requestOptions = requestOptions;
+        this.namedXContentRegistry = namedXContentRegistry;
+        this.clusterCallGuard = clusterCallGuard;
+    }
+
+    public QueryTemplate register(String name, SearchSourceBuilder searchSourceBuilder) throws IOException {
+        QueryTemplate queryTemplate = QueryTemplate.compile(name, searchSourceBuilder);
+        if (properties.getTemplate().getBackend() == SearchProperties.TemplateBackend.MUSTACHE) {
+            Request request = new Request("PUT", "/_scripts/" + name);
+            Map<String, Object> script = Map.of("lang", "mustache", "source", queryTemplate.toMustache());
+            request.setJsonEntity(objectMapper.writeValueAsString(Map.of("script", script)));
+            request.setOptions(requestOptions);
+            clusterCallGuard.call(() -> client.getLowLevelClient().performRequest(request));
+        }
+        templates.put(name, queryTemplate);
+        return queryTemplate;
+    }
+
+    public SearchResponse search(String name, String index, Map<String, ?> params) throws IOException {
+        QueryTemplate queryTemplate = templates.get(name);
+        if (queryTemplate == null) {
+            throw new IllegalArgumentException("query template [" + name + "] is not registered");
+        }
+        if (properties.getTemplate().getBackend() == SearchProperties.TemplateBackend.MUSTACHE) {
+            SearchTemplateRequest searchTemplateRequest = new SearchTemplateRequest(new SearchRequest(index));
+            searchTemplateRequest.setScriptType(ScriptType.STORED);
+            searchTemplateRequest.setScript(name);
+            searchTemplateRequest.setScriptParams(new HashMap<>(params));
+            return clusterCallGuard.call(() -> client.searchTemplate(searchTemplateRequest, requestOptions)).getResponse();
+        }
+
+        //TODO 집계 결과를 종류별 파서로 풀려면 고수준 클라이언트처럼 typed_keys 로 받아야 한다.
+        Request request = new Request("POST", "/" + index + "/_search");
+        request.addParameter(RestSearchAction.TYPED_KEYS_PARAM, "true");
+        request.setEntity(new ByteArrayEntity(queryTemplate.render(params, objectMapper), ContentType.APPLICATION_JSON));
+        request.setOptions(requestOptions);
+        Response response = clusterCallGuard.call(() -> client.getLowLevelClient().performRequest(request));
+        XContentType xContentType = XContentType.fromMediaType(response.getEntity().getContentType().getValue());
+        try (InputStream content = response.getEntity().getContent();
+             XContentParser parser = xContentType.xContent().createParser(
+                     namedXContentRegistry, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+}
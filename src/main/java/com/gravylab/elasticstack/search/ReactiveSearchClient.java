@@ -0,0 +1,171 @@
+package com.gravylab.elasticstack.search;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.action.search.RestSearchAction;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+//TODO 저수준 클라이언트의 performRequestAsync 를 Mono 로 감싼다. 응답을 기다리는 동안 스레드를 잡고 있지 않기 때문에
+// 적은 수의 이벤트 루프 스레드로 많은 수의 느린 검색을 동시에 처리할 수 있다.
+// 구독이 취소되면 진행 중인 HTTP 요청도 함께 취소한다.
+// 응답은 저수준 클라이언트의 IO 리액터 스레드에서 오므로 parallel 스케줄러로 넘긴 뒤 파싱한다. 리액터 스레드가 파싱에 묶이면 다른 응답을 받지 못한다.
+@Component
+public class ReactiveSearchClient {
+
+    private static final String SHARD_DOC = "_shard_doc";
+
+    private final RestClient restClient;
+    private final RequestOptions requestOptions;
+    private final NamedXContentRegistry namedXContentRegistry;
+    private final ClusterCallGuard clusterCallGuard;
+
+    public ReactiveSearchClient(RestHighLevelClient client, RequestOptions requestOptions, NamedXContentRegistry namedXContentRegistry,
+                                ClusterCallGuard clusterCallGuard) {
+        this.restClient = client.getLowLevelClient();
+        this.requestOptions = requestOptions;
+        this.namedXContentRegistry = namedXContentRegistry;
+        this.clusterCallGuard = clusterCallGuard;
+    }
+
+    public Mono<Response> perform(Request request) {
+        request.setOptions(requestOptions);
+        return Mono.<Response>create(sink -> {
+                    Runnable cancel = clusterCallGuard.perform(restClient, request, ActionListener.wrap(sink::success, sink::error));
+                    sink.onCancel(cancel::run);
+                })
+                .publishOn(Schedulers.parallel());
+    }
+
+    public Mono<SearchResponse> search(String index, SearchSourceBuilder source) {
+        Request request = new Request("POST", "/" + index + "/_search");
+        request.addParameter(RestSearchAction.TYPED_KEYS_PARAM, "true");
+        request.setJsonEntity(Strings.toString(source));
+        return perform(request)
+                .map(this::parseSearchResponse);
+    }
+
+    //TODO PIT 와 search_after 로 페이지를 하나씩 가져온다. 다음 페이지는 하위 구독자가 요청할 때만 가져오고(expand),
+    // 페이지를 건으로 펼칠 때 prefetch 를 1 로 두어 한 페이지 이상 앞서 읽지 않는다.
+    // 끝까지 읽었든, 실패했든, 취소됐든 PIT 는 닫는다.
+    public Flux<SearchHit> export(String index, SearchSourceBuilder source, int pageSize, TimeValue keepAlive) {
+        SearchSourceBuilder pageSource = source.shallowCopy()
+                .size(pageSize);
+        if (pageSource.sorts() == null || pageSource.sorts().isEmpty()) {
+            pageSource.sort(SortBuilders.fieldSort(SHARD_DOC));
+        }
+        return Flux.usingWhen(
+                openPointInTime(index, keepAlive),
+                pointInTime -> fetchPage(pointInTime, pageSource, keepAlive, null)
+                        .expand(searchResponse -> {
+                            SearchHit[] hits = searchResponse.getHits().getHits();
+                            if (hits.length < pageSize) {
+                                return Mono.empty();
+                            }
+                            return fetchPage(pointInTime, pageSource, keepAlive, hits[hits.length - 1].getSortValues());
+                        })
+                        .flatMapIterable(searchResponse -> Arrays.asList(searchResponse.getHits().getHits()), 1),
+                this::closePointInTime
+        );
+    }
+
+    private Mono<PointInTime> openPointInTime(String index, TimeValue keepAlive) {
+        Request request = new Request("POST", "/" + index + "/_pit");
+        request.addParameter("keep_alive", keepAlive.getStringRep());
+        return perform(request)
+                .map(response -> new PointInTime((String) toMap(response).get("id")));
+    }
+
+    private Mono<SearchResponse> fetchPage(PointInTime pointInTime, SearchSourceBuilder pageSource, TimeValue keepAlive, Object[] searchAfter) {
+        SearchSourceBuilder source = pageSource.shallowCopy()
+                .pointInTimeBuilder(new PointInTimeBuilder(pointInTime.id).setKeepAlive(keepAlive));
+        if (searchAfter != null) {
+            source.searchAfter(searchAfter);
+        }
+        //TODO PIT 를 사용할 때는 인덱스를 지정하지 않는다.
+        Request request = new Request("POST", "/_search");
+        request.addParameter(RestSearchAction.TYPED_KEYS_PARAM, "true");
+        request.setJsonEntity(Strings.toString(source));
+        return perform(request)
+                .map(response -> {
+                    SearchResponse searchResponse = parseSearchResponse(response);
+                    if (searchResponse.pointInTimeId() != null) {
+                        pointInTime.id = searchResponse.pointInTimeId();
+                    }
+                    return searchResponse;
+                });
+    }
+
+    private Mono<Response> closePointInTime(PointInTime pointInTime) {
+        Request request = new Request("DELETE", "/_pit");
+        try {
+            request.setJsonEntity(Strings.toString(
+                    jsonBuilder()
+                            .startObject()
+                            .field("id", pointInTime.id)
+                            .endObject()
+            ));
+        } catch (IOException e) {
+            return Mono.error(e);
+        }
+        return perform(request);
+    }
+
+    private SearchResponse parseSearchResponse(Response response) {
+        try (InputStream content = response.getEntity().getContent();
+             XContentParser parser = xContentType(response).xContent().createParser(
+                     namedXContentRegistry, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            return SearchResponse.fromXContent(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Map<String, Object> toMap(Response response) {
+        try (InputStream content = response.getEntity().getContent()) {
+            return XContentHelper.convertToMap(xContentType(response).xContent(), content, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static XContentType xContentType(Response response) {
+        return XContentType.fromMediaType(response.getEntity().getContentType().getValue());
+    }
+
+    private static class PointInTime {
+
+        private volatile String id;
+
+        private PointInTime(String id) {
+            this.id = id;
+        }
+    }
+}
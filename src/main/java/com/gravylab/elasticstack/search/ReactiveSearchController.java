@@ -0,0 +1,63 @@
+package com.gravylab.elasticstack.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+//TODO reactive 프로필에서 SearchController 대신 등록되는 같은 /search 엔드포인트.
+// 요청마다 스레드를 잡지 않고, 페이지 단위로 NDJSON 청크를 만들어 클라이언트가 읽는 속도에 맞춰 내려보낸다.
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveSearchController {
+
+    private final ReactiveSearchClient reactiveSearchClient;
+    private final ObjectMapper objectMapper;
+    private final SearchExportProperties properties;
+    private final DataBufferFactory dataBufferFactory = DefaultDataBufferFactory.sharedInstance;
+
+    public ReactiveSearchController(ReactiveSearchClient reactiveSearchClient, ObjectMapper objectMapper, SearchExportProperties properties) {
+        this.reactiveSearchClient = reactiveSearchClient;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    @PostMapping(value = "/search", produces = "application/x-ndjson")
+    public Flux<DataBuffer> search(@RequestBody SearchQueryRequest searchQueryRequest) {
+        Flux<SearchHit> hits = reactiveSearchClient.export(
+                searchQueryRequest.getIndex(),
+                searchQueryRequest.toSearchSource(),
+                properties.getPageSize(),
+                TimeValue.timeValueMillis(properties.getKeepAlive().toMillis())
+        );
+        if (searchQueryRequest.getLimit() != null) {
+            hits = hits.take(searchQueryRequest.getLimit());
+        }
+        return hits.buffer(properties.getPageSize())
+                .map(this::toChunk);
+    }
+
+    private DataBuffer toChunk(List<SearchHit> hits) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            for (SearchHit hit : hits) {
+                SearchHitNdjson.write(hit, objectMapper, outputStream);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dataBufferFactory.wrap(outputStream.toByteArray());
+    }
+}
@@ -0,0 +1,73 @@
+package com.gravylab.elasticstack.search;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+
+import java.io.IOException;
+
+class ScrollHitIterator extends PagingHitIterator {
+
+    private final RestHighLevelClient client;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+    private final String index;
+    private final SearchSourceBuilder source;
+    private final TimeValue keepAlive;
+    private String scrollId;
+
+    ScrollHitIterator(RestHighLevelClient client, RequestOptions requestOptions, ClusterCallGuard clusterCallGuard, String index, SearchSourceBuilder source,
+                      SliceBuilder slice, int pageSize, TimeValue keepAlive) {
+        super(pageSize);
+        this.client = client;
+        this.requestOptions = requestOptions;
+        this.clusterCallGuard = clusterCallGuard;
+        this.index = index;
+        this.keepAlive = keepAlive;
+        this.source = source.shallowCopy()
+                .size(pageSize)
+                .slice(slice);
+        //TODO 정렬이 필요 없다면 _doc 으로 정렬하는 것이 스크롤에서 가장 효율적이다.
+        if (this.source.sorts() == null || this.source.sorts().isEmpty()) {
+            this.source.sort(SortBuilders.fieldSort(FieldSortBuilder.DOC_FIELD_NAME));
+        }
+    }
+
+    @Override
+    protected SearchHit[] fetchNextPage() throws IOException {
+        SearchResponse searchResponse;
+        if (scrollId == null) {
+            SearchRequest searchRequest = new SearchRequest(index)
+                    .source(source)
+                    .scroll(keepAlive);
+            searchResponse = clusterCallGuard.call(() -> client.search(searchRequest, requestOptions));
+        } else {
+            SearchScrollRequest searchScrollRequest = new SearchScrollRequest(scrollId)
+                    .scroll(keepAlive);
+            searchResponse = clusterCallGuard.call(() -> client.scroll(searchScrollRequest, requestOptions));
+        }
+        scrollId = searchResponse.getScrollId();
+        return searchResponse.getHits().getHits();
+    }
+
+    //TODO 스크롤 컨텍스트를 푸는 요청은 클러스터 부하를 줄이는 쪽이므로 가드에서 거절되지 않게 바로 보낸다.
+    @Override
+    protected void release() throws IOException {
+        if (scrollId == null) {
+            return;
+        }
+        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(scrollId);
+        client.clearScroll(clearScrollRequest, requestOptions);
+    }
+}
@@ -0,0 +1,52 @@
+package com.gravylab.elasticstack.search;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.common.regex.Regex;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Getter
+@ToString
+@EqualsAndHashCode
+public class SearchCacheKey {
+
+    private static final String ALL = "_all";
+
+    private final List<String> indices;
+    private final String source;
+    private final String routing;
+    private final String preference;
+    private final IndicesOptions indicesOptions;
+
+    private SearchCacheKey(List<String> indices, String source, String routing, String preference, IndicesOptions indicesOptions) {
+        this.indices = indices;
+        this.source = source;
+        this.routing = routing;
+        this.preference = preference;
+        this.indicesOptions = indicesOptions;
+    }
+
+    //TODO SearchSourceBuilder 의 JSON 직렬화 결과를 키로 사용하기 때문에, 같은 모양의 쿼리는 빌더를 새로 만들어도 같은 키가 된다.
+    // routing, preference, indicesOptions 는 본문 밖에 있지만 검색할 샤드와 인덱스를 바꾸므로 키에 포함한다.
+    public static SearchCacheKey of(SearchRequest searchRequest) {
+        List<String> indices = Arrays.stream(searchRequest.indices())
+                .sorted()
+                .collect(Collectors.toUnmodifiableList());
+        String source = searchRequest.source() == null ? "" : searchRequest.source().toString();
+        return new SearchCacheKey(indices, source, searchRequest.routing(), searchRequest.preference(), searchRequest.indicesOptions());
+    }
+
+    public boolean targets(String index) {
+        if (indices.isEmpty()) {
+            return true;
+        }
+        return indices.stream()
+                .anyMatch(pattern -> ALL.equals(pattern) || Regex.simpleMatch(pattern, index));
+    }
+}
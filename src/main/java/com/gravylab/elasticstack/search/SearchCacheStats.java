@@ -0,0 +1,20 @@
+package com.gravylab.elasticstack.search;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class SearchCacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+
+    public double hitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+}
@@ -0,0 +1,64 @@
+package com.gravylab.elasticstack.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+//TODO 검색 결과를 한 줄에 한 문서씩(NDJSON) 내려보낸다. 페이지를 다 받을 때마다 flush 하므로 전체 결과를 힙에 모으지 않는다.
+// 클라이언트가 느리게 읽으면 소켓 쓰기가 막히고, 그동안 다음 페이지를 가져오지 않기 때문에 자연스럽게 배압이 걸린다.
+// 클라이언트가 연결을 끊으면 쓰기가 실패하면서 스트림이 닫히고 PIT/스크롤 컨텍스트도 함께 정리된다.
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class SearchController {
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final SearchHitExporter searchHitExporter;
+    private final ObjectMapper objectMapper;
+    private final SearchExportProperties properties;
+
+    public SearchController(SearchHitExporter searchHitExporter, ObjectMapper objectMapper, SearchExportProperties properties) {
+        this.searchHitExporter = searchHitExporter;
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    @PostMapping("/search")
+    public ResponseEntity<StreamingResponseBody> search(@RequestBody SearchQueryRequest searchQueryRequest) {
+        SearchSourceBuilder source = searchQueryRequest.toSearchSource();
+        StreamingResponseBody body = outputStream -> {
+            try (Stream<SearchHit> hits = searchHitExporter.export(searchQueryRequest.getIndex(), source)) {
+                Stream<SearchHit> limited = searchQueryRequest.getLimit() == null ? hits : hits.limit(searchQueryRequest.getLimit());
+                writeHits(limited.iterator(), outputStream);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    private void writeHits(Iterator<SearchHit> hits, OutputStream outputStream) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(outputStream, 64 * 1024);
+        int written = 0;
+        while (hits.hasNext()) {
+            SearchHitNdjson.write(hits.next(), objectMapper, buffered);
+            if (++written % properties.getPageSize() == 0) {
+                buffered.flush();
+            }
+        }
+        buffered.flush();
+    }
+}
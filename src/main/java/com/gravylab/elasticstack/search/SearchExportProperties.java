@@ -0,0 +1,17 @@
+package com.gravylab.elasticstack.search;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.export")
+public class SearchExportProperties {
+
+    private int pageSize = 1000;
+
+    private Duration keepAlive = Duration.ofMinutes(1);
+}
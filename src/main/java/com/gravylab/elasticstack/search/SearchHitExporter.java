@@ -0,0 +1,71 @@
+package com.gravylab.elasticstack.search;
+
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+//TODO 반환되는 Stream 은 PIT/스크롤 컨텍스트를 잡고 있기 때문에 끝까지 소비하지 않는다면 반드시 close 해야 한다. (try-with-resources)
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SearchHitExporter {
+
+    private final RestHighLevelClient client;
+    private final SearchExportProperties properties;
+    private final RequestOptions requestOptions;
+    private final ClusterCallGuard clusterCallGuard;
+
+    public Stream<SearchHit> export(String index, SearchSourceBuilder source) {
+        PagingHitIterator iterator;
+        try {
+            iterator = PointInTimeHitIterator.open(client, requestOptions, clusterCallGuard, index, source, properties.getPageSize(), keepAlive());
+        } catch (ResponseException e) {
+            log.warn("point in time is not available for [{}], falling back to scroll: {}", index, e.getMessage());
+            iterator = new ScrollHitIterator(client, requestOptions, clusterCallGuard, index, source, null, properties.getPageSize(), keepAlive());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toStream(iterator);
+    }
+
+    //TODO 슬라이스 스크롤을 이용해 샤드 단위로 나눠진 결과를 병렬로 읽는다. 슬라이스 수는 샤드 수와 같게 두는 것이 가장 효율적이다.
+    public Stream<SearchHit> exportSliced(String index, SearchSourceBuilder source, int slices) {
+        if (slices <= 1) {
+            return export(index, source);
+        }
+        return IntStream.range(0, slices)
+                .boxed()
+                .parallel()
+                .flatMap(slice -> toStream(
+                        new ScrollHitIterator(client, requestOptions, clusterCallGuard, index, source, new SliceBuilder(slice, slices), properties.getPageSize(), keepAlive())
+                ));
+    }
+
+    private TimeValue keepAlive() {
+        return TimeValue.timeValueMillis(properties.getKeepAlive().toMillis());
+    }
+
+    private Stream<SearchHit> toStream(PagingHitIterator iterator) {
+        return StreamSupport.stream(
+                        Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+                        false
+                )
+                .onClose(iterator::close);
+    }
+}
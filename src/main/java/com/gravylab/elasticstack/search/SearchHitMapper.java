@@ -0,0 +1,89 @@
+package com.gravylab.elasticstack.search;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+//TODO SearchHit::getSourceAsMap 은 히트마다 _source 전체를 HashMap 트리로 만든다.
+// _source 바이트를 그대로 Jackson 스트리밍 파서에 넘겨 필요한 필드만 타입 객체로 바인딩한다.
+@Component
+public class SearchHitMapper {
+
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+
+    private final ObjectMapper objectMapper;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, FetchSourceContext> sourceContexts = new ConcurrentHashMap<>();
+
+    public SearchHitMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public <T> T map(SearchHit hit, Class<T> type) {
+        BytesReference source = hit.getSourceRef();
+        if (source == null) {
+            return null;
+        }
+        BytesRef bytesRef = source.toBytesRef();
+        try {
+            //TODO SMILE/CBOR 로 응답을 받으면 _source 도 같은 형식이므로 해당 형식의 파서로 읽는다.
+            XContentType contentType = XContentFactory.xContentType(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+            if (contentType == XContentType.SMILE) {
+                return reader(type).readValue(SMILE_FACTORY.createParser(bytesRef.bytes, bytesRef.offset, bytesRef.length));
+            }
+            if (contentType == XContentType.CBOR) {
+                return reader(type).readValue(CBOR_FACTORY.createParser(bytesRef.bytes, bytesRef.offset, bytesRef.length));
+            }
+            return reader(type).readValue(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to map hit [" + hit.getId() + "] to " + type.getSimpleName(), e);
+        }
+    }
+
+    public <T> List<T> map(SearchResponse searchResponse, Class<T> type) {
+        return Arrays.stream(searchResponse.getHits().getHits())
+                .map(hit -> map(hit, type))
+                .collect(Collectors.toList());
+    }
+
+    //TODO 타입에 선언된 프로퍼티만 _source 에 포함하도록 요청하면 네트워크 전송량과 파싱 비용을 함께 줄일 수 있다.
+    public FetchSourceContext sourceFilter(Class<?> type) {
+        return sourceContexts.computeIfAbsent(type, this::createSourceFilter);
+    }
+
+    private FetchSourceContext createSourceFilter(Class<?> type) {
+        JavaType javaType = objectMapper.constructType(type);
+        String[] includes = objectMapper.getDeserializationConfig()
+                .introspect(javaType)
+                .findProperties()
+                .stream()
+                .map(BeanPropertyDefinition::getName)
+                .toArray(String[]::new);
+        return new FetchSourceContext(true, includes, Strings.EMPTY_ARRAY);
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, objectMapper::readerFor);
+    }
+}
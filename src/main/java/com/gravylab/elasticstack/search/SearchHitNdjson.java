@@ -0,0 +1,48 @@
+package com.gravylab.elasticstack.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+//TODO 검색 결과 한 건을 NDJSON 한 줄로 쓴다. JSON _source 는 파싱하지 않고 응답에서 받은 바이트를 그대로 이어 붙인다.
+// SMILE/CBOR 로 응답을 받으면 _source 도 바이너리이므로 그때만 JSON 으로 변환한다.
+class SearchHitNdjson {
+
+    private static final byte[] INDEX_FIELD = "{\"_index\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ID_FIELD = ",\"_id\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SOURCE_FIELD = ",\"_source\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] LINE_END = "}\n".getBytes(StandardCharsets.UTF_8);
+
+    private SearchHitNdjson() {
+    }
+
+    static void write(SearchHit hit, ObjectMapper objectMapper, OutputStream outputStream) throws IOException {
+        outputStream.write(INDEX_FIELD);
+        outputStream.write(objectMapper.writeValueAsBytes(hit.getIndex()));
+        outputStream.write(ID_FIELD);
+        outputStream.write(objectMapper.writeValueAsBytes(hit.getId()));
+        outputStream.write(SOURCE_FIELD);
+        BytesReference source = hit.getSourceRef();
+        if (source == null) {
+            outputStream.write(NULL);
+        } else {
+            BytesRef bytesRef = source.toBytesRef();
+            XContentType contentType = XContentFactory.xContentType(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+            if (contentType == XContentType.SMILE || contentType == XContentType.CBOR) {
+                outputStream.write(XContentHelper.convertToJson(source, false, contentType).getBytes(StandardCharsets.UTF_8));
+            } else {
+                source.writeTo(outputStream);
+            }
+        }
+        outputStream.write(LINE_END);
+    }
+}
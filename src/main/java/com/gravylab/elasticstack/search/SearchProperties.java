@@ -0,0 +1,78 @@
+package com.gravylab.elasticstack.search;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.search")
+public class SearchProperties {
+
+    private int maxConcurrency = 8;
+
+    private final Coalescing coalescing = new Coalescing();
+
+    private final Cache cache = new Cache();
+
+    private final Template template = new Template();
+
+    private final Hedging hedging = new Hedging();
+
+    @Getter
+    @Setter
+    public static class Coalescing {
+
+        //TODO 켜면 AsyncSearchService.search 가 개별 _search 대신 MultiSearchCoalescer 로 묶어서 보낸다.
+        private boolean enabled = false;
+
+        private Duration window = Duration.ofMillis(5);
+
+        private int maxBatchSize = 32;
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+
+        private Duration ttl = Duration.ofSeconds(30);
+
+        private DataSize maxWeight = DataSize.ofMegabytes(64);
+
+        //TODO 쓰기 응답(ack)은 검색에 보이기 전에 온다. 인덱스의 refresh_interval 만큼 지난 뒤 한 번 더 무효화한다.
+        private Duration refreshInterval = Duration.ofSeconds(1);
+
+        //TODO 실제 인덱스 이름으로 들어온 쓰기를 별칭으로 캐시된 검색에도 반영하기 위해 인덱스별 별칭 목록을 이 시간만큼 기억한다.
+        private Duration aliasTtl = Duration.ofMinutes(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Template {
+
+        private TemplateBackend backend = TemplateBackend.COMPILED;
+    }
+
+    @Getter
+    @Setter
+    public static class Hedging {
+
+        private boolean enabled = false;
+
+        private double percentile = 0.95;
+
+        private Duration minDelay = Duration.ofMillis(20);
+
+        private int sampleSize = 1000;
+
+        private int minSamples = 100;
+    }
+
+    public enum TemplateBackend {
+        COMPILED,
+        MUSTACHE
+    }
+}
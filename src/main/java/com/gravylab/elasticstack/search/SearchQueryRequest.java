@@ -0,0 +1,43 @@
+package com.gravylab.elasticstack.search;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+
+//TODO must 는 필드별 match 쿼리(점수 계산), filter 는 필드별 term 쿼리(점수 없음, 캐시 가능)로 bool 쿼리를 만든다.
+@Getter
+@Setter
+public class SearchQueryRequest {
+
+    private String index;
+
+    private Map<String, String> must = new LinkedHashMap<>();
+
+    private Map<String, Object> filter = new LinkedHashMap<>();
+
+    private List<String> fields = new ArrayList<>();
+
+    private Long limit;
+
+    public SearchSourceBuilder toSearchSource() {
+        BoolQueryBuilder query = boolQuery();
+        must.forEach((field, text) -> query.must(matchQuery(field, text)));
+        filter.forEach((field, value) -> query.filter(termQuery(field, value)));
+        SearchSourceBuilder source = new SearchSourceBuilder().query(query);
+        if (!fields.isEmpty()) {
+            source.fetchSource(fields.toArray(String[]::new), Strings.EMPTY_ARRAY);
+        }
+        return source;
+    }
+}
@@ -0,0 +1,18 @@
+package com.gravylab.elasticstack.search;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public interface SearchResultCache {
+
+    CompletableFuture<SearchResponse> get(SearchRequest searchRequest, Function<SearchRequest, CompletableFuture<SearchResponse>> loader);
+
+    void invalidate(String index);
+
+    void invalidateAll();
+
+    SearchCacheStats stats();
+}
@@ -0,0 +1,34 @@
+package com.gravylab.elasticstack.template;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.migration")
+public class IndexMigrationProperties {
+
+    //TODO 기동할 때 마이그레이션할 별칭 목록. --elasticsearch.migration.aliases=customer_analyzer 처럼 넘긴다.
+    private List<String> aliases = new ArrayList<>();
+
+    //TODO 0 이면 샤드 수만큼 자동으로 나눈다(slices=auto).
+    private int slices = 0;
+
+    //TODO 초당 문서 수 제한. 0 이하면 제한하지 않는다.
+    private float requestsPerSecond = 0;
+
+    private int batchSize = 1000;
+
+    private boolean blockWrites = true;
+
+    private boolean deleteSource = false;
+
+    private Duration pollInterval = Duration.ofSeconds(1);
+
+    private Duration timeout = Duration.ofHours(1);
+}
@@ -0,0 +1,275 @@
+package com.gravylab.elasticstack.template;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RethrottleRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.tasks.CancelTasksRequest;
+import org.elasticsearch.client.tasks.TaskId;
+import org.elasticsearch.client.tasks.TaskSubmissionResponse;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//TODO 매핑이나 분석기가 바뀐 인덱스를 지우고 다시 만드는 대신, 별칭 뒤의 인덱스를 새 버전으로 옮긴다.
+// 1. {별칭}-v{n+1} 인덱스를 만든다. 매핑과 설정은 IndexTemplateRegistry 가 그 이름에 걸리는 템플릿에서 풀어 준다.
+//    걸리는 템플릿이 없으면 빈 매핑으로 복사하지 않도록 마이그레이션을 거부한다.
+// 2. 복사하는 동안 새 인덱스의 refresh 와 레플리카를 끄고, 슬라이스로 나눈 _reindex 를 태스크로 돌리며 _tasks 로 진행 상황을 확인한다.
+// 3. 복사가 끝나면 설정을 되돌리고 _aliases 한 번으로 별칭을 옮긴다. 읽는 쪽은 별칭만 보므로 중단 없이 새 인덱스를 읽는다.
+// 별칭이 아니라 같은 이름의 인덱스였다면 그 인덱스를 지우는 동작(remove_index)을 같은 요청에 넣는다.
+// 원본 인덱스를 남겨 두는 경우에는 복사 동안 걸었던 쓰기 차단을 별칭을 옮긴 뒤 푼다.
+// 관리 요청을 하나씩 순서대로 보내고 복사 속도는 requestsPerSecond 로 조절하므로 ClusterCallGuard 를 거치지 않는다.
+// 가드가 중간 요청을 거절하면 오래 걸린 복사를 되돌려야 하기 때문이다.
+@Slf4j
+@Component
+public class IndexMigrationService {
+
+    private static final Pattern VERSIONED_INDEX = Pattern.compile("(.+)-v(\\d+)");
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final String BLOCKS_WRITE = "index.blocks.write";
+
+    private final RestHighLevelClient client;
+    private final IndexTemplateRegistry indexTemplateRegistry;
+    private final IndexMigrationProperties properties;
+    private final RequestOptions requestOptions;
+
+    public IndexMigrationService(RestHighLevelClient client, IndexTemplateRegistry indexTemplateRegistry, IndexMigrationProperties properties,
+                                 RequestOptions requestOptions) {
+        this.client = client;
+        this.indexTemplateRegistry = indexTemplateRegistry;
+        this.properties = properties;
+        this.requestOptions = requestOptions;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() throws IOException, InterruptedException {
+        for (String alias : properties.getAliases()) {
+            Migration migration = migrate(alias);
+            log.info("migrated alias [{}] from [{}] to [{}], {} documents in {}",
+                    alias, migration.getSourceIndex(), migration.getTargetIndex(), migration.getDocuments(), migration.getTook());
+        }
+    }
+
+    public Migration migrate(String alias) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        indexTemplateRegistry.apply();
+
+        boolean concreteIndex = false;
+        String sourceIndex;
+        if (client.indices().existsAlias(new GetAliasesRequest(alias), requestOptions)) {
+            Set<String> indices = client.indices()
+                    .getAlias(new GetAliasesRequest(alias), requestOptions)
+                    .getAliases()
+                    .keySet();
+            if (indices.size() != 1) {
+                throw new IllegalStateException("alias [" + alias + "] must point to exactly one index but points to " + indices);
+            }
+            sourceIndex = indices.iterator().next();
+        } else if (client.indices().exists(new GetIndexRequest(alias), requestOptions)) {
+            concreteIndex = true;
+            sourceIndex = alias;
+        } else {
+            throw new IllegalArgumentException("no such index or alias [" + alias + "]");
+        }
+        String targetIndex = alias + "-v" + (version(alias, sourceIndex) + 1);
+        IndexTemplateRegistry.ResolvedTemplate template = indexTemplateRegistry.resolve(targetIndex)
+                .orElseThrow(() -> new IllegalStateException("no index template matches [" + targetIndex + "], refusing to migrate alias [" + alias + "]"));
+        log.info("creating [{}] from index templates {}", targetIndex, template.getNames());
+
+        client.indices().create(new CreateIndexRequest(targetIndex)
+                .settings(template.getSettings())
+                .mapping(template.getMappings()), requestOptions);
+        long documents;
+        try {
+            if (properties.isBlockWrites()) {
+                updateSettings(sourceIndex, Settings.builder().put(BLOCKS_WRITE, true).build());
+            }
+            Settings restore = getSettings(targetIndex, REFRESH_INTERVAL, NUMBER_OF_REPLICAS);
+            updateSettings(targetIndex, Settings.builder()
+                    .put(REFRESH_INTERVAL, "-1")
+                    .put(NUMBER_OF_REPLICAS, 0)
+                    .build());
+
+            documents = reindex(sourceIndex, targetIndex);
+
+            updateSettings(targetIndex, restore);
+            client.indices().refresh(new RefreshRequest(targetIndex), requestOptions);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            rollback(sourceIndex, targetIndex);
+            throw e;
+        }
+
+        IndicesAliasesRequest indicesAliasesRequest = new IndicesAliasesRequest()
+                .addAliasAction(IndicesAliasesRequest.AliasActions.add().index(targetIndex).alias(alias));
+        if (concreteIndex) {
+            indicesAliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(sourceIndex));
+        } else {
+            indicesAliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(sourceIndex).alias(alias));
+        }
+        client.indices().updateAliases(indicesAliasesRequest, requestOptions);
+        if (!concreteIndex && properties.isDeleteSource()) {
+            client.indices().delete(new DeleteIndexRequest(sourceIndex), requestOptions);
+        } else if (!concreteIndex && properties.isBlockWrites()) {
+            updateSettings(sourceIndex, Settings.builder().putNull(BLOCKS_WRITE).build());
+        }
+        return new Migration(sourceIndex, targetIndex, documents, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    //TODO 진행 중인 마이그레이션의 초당 문서 수 제한을 바꾼다. 0 이하면 제한을 푼다.
+    public void rethrottle(String taskId, float requestsPerSecond) throws IOException {
+        client.reindexRethrottle(new RethrottleRequest(new org.elasticsearch.tasks.TaskId(taskId), throttle(requestsPerSecond)), requestOptions);
+    }
+
+    private long reindex(String sourceIndex, String targetIndex) throws IOException, InterruptedException {
+        ReindexRequest reindexRequest = new ReindexRequest()
+                .setSourceIndices(sourceIndex)
+                .setDestIndex(targetIndex)
+                .setSourceBatchSize(properties.getBatchSize())
+                .setSlices(properties.getSlices())
+                .setRequestsPerSecond(throttle(properties.getRequestsPerSecond()));
+        TaskSubmissionResponse taskSubmissionResponse = client.submitReindexTask(reindexRequest, requestOptions);
+        String taskId = taskSubmissionResponse.getTask();
+        log.info("reindexing [{}] into [{}] as task [{}]", sourceIndex, targetIndex, taskId);
+
+        long deadline = System.nanoTime() + properties.getTimeout().toNanos();
+        while (true) {
+            Map<String, Object> task = getTask(taskId);
+            if (Boolean.TRUE.equals(task.get("completed"))) {
+                return documents(taskId, task);
+            }
+            if (System.nanoTime() > deadline) {
+                client.tasks().cancel(new CancelTasksRequest.Builder()
+                        .withTaskId(new TaskId(taskId))
+                        .build(), requestOptions);
+                throw new IllegalStateException("reindex task [" + taskId + "] did not complete within " + properties.getTimeout());
+            }
+            Map<String, Object> status = map(map(task.get("task")).get("status"));
+            log.info("reindex task [{}] progress: {}/{} documents", taskId, status.get("created"), status.get("total"));
+            Thread.sleep(properties.getPollInterval().toMillis());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private long documents(String taskId, Map<String, Object> task) {
+        if (task.get("error") != null) {
+            throw new IllegalStateException("reindex task [" + taskId + "] failed: " + task.get("error"));
+        }
+        Map<String, Object> response = map(task.get("response"));
+        Collection<Object> failures = (Collection<Object>) response.getOrDefault("failures", Collections.emptyList());
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("reindex task [" + taskId + "] completed with " + failures.size() + " failures: " + failures);
+        }
+        long total = number(response.get("total"));
+        long copied = number(response.get("created")) + number(response.get("updated"));
+        if (copied != total) {
+            throw new IllegalStateException("reindex task [" + taskId + "] copied " + copied + " of " + total + " documents");
+        }
+        return total;
+    }
+
+    //TODO 클라이언트의 GetTaskResponse 는 완료된 태스크의 response/error 를 버리기 때문에 _tasks 응답을 그대로 읽는다.
+    private Map<String, Object> getTask(String taskId) throws IOException {
+        Request request = new Request("GET", "/_tasks/" + taskId);
+        request.setOptions(requestOptions);
+        Response response = client.getLowLevelClient().performRequest(request);
+        XContentType xContentType = XContentType.fromMediaType(response.getEntity().getContentType().getValue());
+        try (InputStream content = response.getEntity().getContent()) {
+            return XContentHelper.convertToMap(xContentType.xContent(), content, false);
+        }
+    }
+
+    private Settings getSettings(String index, String... names) throws IOException {
+        GetSettingsResponse getSettingsResponse = client.indices()
+                .getSettings(new GetSettingsRequest().indices(index).names(names), requestOptions);
+        Settings.Builder settings = Settings.builder();
+        for (String name : names) {
+            String value = getSettingsResponse.getSetting(index, name);
+            if (value == null) {
+                settings.putNull(name);
+            } else {
+                settings.put(name, value);
+            }
+        }
+        return settings.build();
+    }
+
+    private void updateSettings(String index, Settings settings) throws IOException {
+        client.indices().putSettings(new UpdateSettingsRequest(index).settings(settings), requestOptions);
+    }
+
+    //TODO 실패하면 별칭은 그대로 두고 만들던 인덱스를 지운 뒤 원본 인덱스의 쓰기 차단을 푼다.
+    private void rollback(String sourceIndex, String targetIndex) {
+        try {
+            client.indices().delete(new DeleteIndexRequest(targetIndex), requestOptions);
+            if (properties.isBlockWrites()) {
+                updateSettings(sourceIndex, Settings.builder().putNull(BLOCKS_WRITE).build());
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("failed to roll back migration from [{}] to [{}]", sourceIndex, targetIndex, e);
+        }
+    }
+
+    private static int version(String alias, String index) {
+        Matcher matcher = VERSIONED_INDEX.matcher(index);
+        if (matcher.matches() && matcher.group(1).equals(alias)) {
+            return Integer.parseInt(matcher.group(2));
+        }
+        return 0;
+    }
+
+    private static float throttle(float requestsPerSecond) {
+        return requestsPerSecond > 0 ? requestsPerSecond : Float.POSITIVE_INFINITY;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : Collections.emptyMap();
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    @Getter
+    public static class Migration {
+
+        private final String sourceIndex;
+        private final String targetIndex;
+        private final long documents;
+        private final Duration took;
+
+        private Migration(String sourceIndex, String targetIndex, long documents, Duration took) {
+            this.sourceIndex = sourceIndex;
+            this.targetIndex = targetIndex;
+            this.documents = documents;
+            this.took = took;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.gravylab.elasticstack.template;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "elasticsearch.templates")
+public class IndexTemplateProperties {
+
+    private boolean applyOnStartup = true;
+
+    private String location = "classpath*:elasticsearch/templates/*.json";
+
+    private boolean failOnError = false;
+}
@@ -0,0 +1,243 @@
+package com.gravylab.elasticstack.template;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.GetIndexTemplatesRequest;
+import org.elasticsearch.client.indices.IndexTemplateMetadata;
+import org.elasticsearch.client.indices.PutIndexTemplateRequest;
+import org.elasticsearch.cluster.metadata.IndexMetadata;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//TODO 클래스패스의 elasticsearch/templates/{템플릿 이름}.json 파일을 인덱스 템플릿으로 등록한다.
+// 다이내믹 템플릿(mappings.dynamic_templates)과 분석기(settings.analysis)도 같은 파일에 선언한다.
+// 클러스터에 등록된 템플릿과 파일의 내용(index_patterns, order, version, settings, mappings, aliases)이 모두 같으면 다시 보내지 않는다.
+// version 을 올리지 않고 내용만 고쳐도 다음 기동 때 다시 등록된다.
+@Slf4j
+@Component
+public class IndexTemplateRegistry {
+
+    private final RestHighLevelClient client;
+    private final IndexTemplateProperties properties;
+    private final RequestOptions requestOptions;
+
+    public IndexTemplateRegistry(RestHighLevelClient client, IndexTemplateProperties properties, RequestOptions requestOptions) {
+        this.client = client;
+        this.properties = properties;
+        this.requestOptions = requestOptions;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void applyOnStartup() {
+        if (!properties.isApplyOnStartup()) {
+            return;
+        }
+        try {
+            List<String> applied = apply();
+            log.info("index templates applied: {}", applied);
+        } catch (IOException | RuntimeException e) {
+            if (properties.isFailOnError()) {
+                throw new IllegalStateException("failed to apply index templates", e);
+            }
+            log.error("failed to apply index templates", e);
+        }
+    }
+
+    public List<String> apply() throws IOException {
+        List<IndexTemplateDefinition> definitions = loadDefinitions();
+        if (definitions.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<String, IndexTemplateMetadata> installedTemplates = getInstalledTemplates(definitions);
+        List<String> applied = new ArrayList<>();
+        for (IndexTemplateDefinition definition : definitions) {
+            IndexTemplateMetadata installed = installedTemplates.get(definition.name);
+            if (installed != null && definition.matches(installed)) {
+                continue;
+            }
+            PutIndexTemplateRequest putIndexTemplateRequest = new PutIndexTemplateRequest(definition.name)
+                    .source(definition.source, XContentType.JSON);
+            client.indices().putTemplate(putIndexTemplateRequest, requestOptions);
+            applied.add(definition.name);
+        }
+        return applied;
+    }
+
+    //TODO index 이름에 걸리는 템플릿을 order 순으로 겹쳐서 인덱스를 만들 때 쓸 설정과 매핑을 돌려준다.
+    // order 가 높은 템플릿이 낮은 템플릿의 값을 덮어쓴다. 걸리는 템플릿이 없으면 빈 값을 돌려준다.
+    public Optional<ResolvedTemplate> resolve(String index) throws IOException {
+        List<IndexTemplateDefinition> matched = loadDefinitions().stream()
+                .filter(definition -> Regex.simpleMatch(definition.indexPatterns.toArray(String[]::new), index))
+                .sorted(Comparator.comparingInt(definition -> definition.order))
+                .collect(Collectors.toList());
+        if (matched.isEmpty()) {
+            return Optional.empty();
+        }
+        List<String> names = new ArrayList<>();
+        Map<String, Object> settings = new LinkedHashMap<>();
+        Map<String, Object> mappings = new LinkedHashMap<>();
+        for (IndexTemplateDefinition definition : matched) {
+            names.add(definition.name);
+            merge(settings, Settings.builder().loadFromMap(definition.section("settings")).build().getAsStructuredMap());
+            merge(mappings, definition.section("mappings"));
+        }
+        return Optional.of(new ResolvedTemplate(names, settings, mappings));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void merge(Map<String, Object> target, Map<String, Object> source) {
+        source.forEach((key, value) -> {
+            Object current = target.get(key);
+            if (current instanceof Map && value instanceof Map) {
+                Map<String, Object> merged = new LinkedHashMap<>((Map<String, Object>) current);
+                merge(merged, (Map<String, Object>) value);
+                target.put(key, merged);
+            } else {
+                target.put(key, value);
+            }
+        });
+    }
+
+    private Map<String, IndexTemplateMetadata> getInstalledTemplates(List<IndexTemplateDefinition> definitions) throws IOException {
+        String[] names = definitions.stream()
+                .map(definition -> definition.name)
+                .toArray(String[]::new);
+        try {
+            return client.indices()
+                    .getIndexTemplate(new GetIndexTemplatesRequest(names), requestOptions)
+                    .getIndexTemplates()
+                    .stream()
+                    .collect(Collectors.toMap(IndexTemplateMetadata::name, Function.identity()));
+        } catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND) {
+                return Collections.emptyMap();
+            }
+            throw e;
+        }
+    }
+
+    private List<IndexTemplateDefinition> loadDefinitions() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(properties.getLocation());
+        List<IndexTemplateDefinition> definitions = new ArrayList<>(resources.length);
+        for (Resource resource : resources) {
+            definitions.add(IndexTemplateDefinition.load(resource));
+        }
+        return definitions;
+    }
+
+    @Getter
+    public static class ResolvedTemplate {
+
+        private final List<String> names;
+        private final Map<String, Object> settings;
+        private final Map<String, Object> mappings;
+
+        private ResolvedTemplate(List<String> names, Map<String, Object> settings, Map<String, Object> mappings) {
+            this.names = names;
+            this.settings = settings;
+            this.mappings = mappings;
+        }
+    }
+
+    private static class IndexTemplateDefinition {
+
+        private final String name;
+        private final Integer version;
+        private final byte[] source;
+        private final Map<String, Object> template;
+        private final List<String> indexPatterns;
+        private final int order;
+
+        @SuppressWarnings("unchecked")
+        private IndexTemplateDefinition(String name, byte[] source) {
+            this.name = name;
+            this.source = source;
+            this.template = XContentHelper.convertToMap(new BytesArray(source), true, XContentType.JSON).v2();
+            Object version = template.get("version");
+            this.version = version == null ? null : ((Number) version).intValue();
+            Object indexPatterns = template.getOrDefault("index_patterns", Collections.emptyList());
+            this.indexPatterns = indexPatterns instanceof List ? (List<String>) indexPatterns : List.of(indexPatterns.toString());
+            this.order = ((Number) template.getOrDefault("order", 0)).intValue();
+        }
+
+        //TODO 클러스터는 설정 키 앞에 index. 을 붙이고 매핑을 _doc 아래에 두거나 벗겨서 돌려주므로 양쪽을 같은 모양으로 맞춘 뒤 비교한다.
+        private boolean matches(IndexTemplateMetadata installed) {
+            if (!Objects.equals(version, installed.version())
+                    || order != installed.order()
+                    || !indexPatterns.equals(installed.patterns())) {
+                return false;
+            }
+            Settings settings = Settings.builder()
+                    .loadFromMap(section("settings"))
+                    .normalizePrefix(IndexMetadata.INDEX_SETTING_PREFIX)
+                    .build();
+            Settings installedSettings = Settings.builder()
+                    .put(installed.settings())
+                    .normalizePrefix(IndexMetadata.INDEX_SETTING_PREFIX)
+                    .build();
+            if (!settings.equals(installedSettings)) {
+                return false;
+            }
+            Map<String, Object> installedMappings = installed.mappings() == null ? Collections.emptyMap() : installed.mappings().sourceAsMap();
+            if (!unwrapType(section("mappings")).equals(unwrapType(installedMappings))) {
+                return false;
+            }
+            Set<String> installedAliases = new HashSet<>();
+            installed.aliases().keysIt().forEachRemaining(installedAliases::add);
+            return section("aliases").keySet().equals(installedAliases);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Map<String, Object> unwrapType(Map<String, Object> mappings) {
+            if (mappings.size() == 1 && mappings.get(MapperService.SINGLE_MAPPING_NAME) instanceof Map) {
+                return (Map<String, Object>) mappings.get(MapperService.SINGLE_MAPPING_NAME);
+            }
+            return mappings;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> section(String key) {
+            return (Map<String, Object>) template.getOrDefault(key, Collections.emptyMap());
+        }
+
+        private static IndexTemplateDefinition load(Resource resource) {
+            String name = StringUtils.stripFilenameExtension(Objects.requireNonNull(resource.getFilename()));
+            try (InputStream inputStream = resource.getInputStream()) {
+                return new IndexTemplateDefinition(name, inputStream.readAllBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to read index template " + resource, e);
+            }
+        }
+    }
+}
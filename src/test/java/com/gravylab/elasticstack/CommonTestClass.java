@@ -1,13 +1,17 @@
 package com.gravylab.elasticstack;
 
-import org.apache.http.HttpHost;
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.client.ElasticsearchClientFactory;
+import com.gravylab.elasticstack.client.ElasticsearchClientProperties;
+import com.gravylab.elasticstack.embedded.EmbeddedElasticsearch;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.template.delete.DeleteIndexTemplateRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
-import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.AnalyzeResponse;
 import org.elasticsearch.client.indices.GetIndexRequest;
@@ -15,40 +19,104 @@ import org.elasticsearch.client.indices.IndexTemplatesExistRequest;
 import org.elasticsearch.search.SearchHit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.TestInfo;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class CommonTestClass {
 
-    RestHighLevelClient client;
+    //TODO 테스트마다 클라이언트를 새로 만들면 매번 TCP 연결과 IO 리액터 스레드를 새로 띄워야 한다.
+    // 프로세스 전체에서 하나의 커넥션 풀을 공유하도록 한 번만 생성한다.
+    static final EmbeddedElasticsearch embeddedElasticsearch = DOCKER.equals(System.getProperty(TEST_MODE)) ? null : EmbeddedElasticsearch.start();
+    static final RestHighLevelClient client = createSharedClient();
 
+    //TODO 기본은 테스트 JVM 안의 EmbeddedElasticsearch 를 대상으로 실행한다.
+    // 실제 클러스터로 돌리려면 -Pelasticsearch.test.mode=docker 로 실행하고, 여러 노드는 -Pelasticsearch.test.hosts=es01:9200,es02:9200 처럼 넘긴다.
+    public static final String TEST_MODE = "elasticsearch.test.mode";
+    public static final String TEST_HOSTS = "elasticsearch.test.hosts";
+    public static final String DOCKER = "docker";
+
+    //TODO 테스트마다 고유한 인덱스/템플릿 접두어를 부여해서 병렬로 실행해도 서로의 인덱스를 건드리지 않게 한다.
+    // 테스트가 끝나면 접두어로 시작하는 인덱스와 템플릿을 한 번에 지운다.
+    private static final AtomicLong NAMESPACE_SEQUENCE = new AtomicLong();
+
+    private String namespace;
 
     @BeforeEach
-    void beforeEach() {
-        client = getDockerRestClient();
+    void createNamespace(TestInfo testInfo) {
+        String testName = testInfo.getTestMethod()
+                .map(Method::getName)
+                .orElse("test")
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("[^a-z0-9_]", "_");
+        namespace = testName + "_" + NAMESPACE_SEQUENCE.incrementAndGet() + "_";
     }
 
     @AfterEach
-    void afterEach() throws IOException {
-        client.close();
+    void deleteNamespace() throws IOException {
+        DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(namespace + "*")
+                .indicesOptions(IndicesOptions.lenientExpandOpen());
+        client.indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
+        removeIfExistsTemplate(namespace + "*");
+    }
+
+    //TODO 장애 주입이나 요청 수 확인처럼 대역 서버에서만 할 수 있는 검증은 도커 모드에서 건너뛴다.
+    protected EmbeddedElasticsearch embedded() {
+        assumeTrue(embeddedElasticsearch != null, "requires the embedded elasticsearch");
+        return embeddedElasticsearch;
+    }
+
+    protected ClusterCallGuard clusterCallGuard() {
+        return clusterCallGuard(new ElasticsearchMetrics(new SimpleMeterRegistry()));
+    }
+
+    protected ClusterCallGuard clusterCallGuard(ElasticsearchMetrics elasticsearchMetrics) {
+        return ClusterCallGuard.create(new ElasticsearchClientProperties().getGuard(), elasticsearchMetrics);
     }
 
-    private RestHighLevelClient getDockerRestClient() {
-        RestClientBuilder builder = RestClient.builder(
-                HttpHost.create("localhost:9200")
-        );
-        return new RestHighLevelClient(
-                builder
-                        .setHttpClientConfigCallback(
-                                httpClientBuilder ->
-                                        httpClientBuilder
-                                                .setConnectionReuseStrategy((response, context) -> true)
-                                                .setKeepAliveStrategy((response, context) -> 9999999999L)
-                        )
-        );
+    protected String index(String name) {
+        return namespace + name;
+    }
+
+    protected String template(String name) {
+        return namespace + name;
+    }
+
+    protected List<String> patterns(String... patterns) {
+        return Arrays.stream(patterns)
+                .map(pattern -> namespace + pattern)
+                .collect(Collectors.toList());
+    }
+
+
+    private static RestHighLevelClient createSharedClient() {
+        ElasticsearchClientProperties properties = new ElasticsearchClientProperties();
+        if (embeddedElasticsearch == null) {
+            properties.setHosts(List.of(System.getProperty(TEST_HOSTS, "localhost:9200").split(",")));
+        } else {
+            properties.setHosts(List.of(embeddedElasticsearch.getHttpHostAddress()));
+        }
+        RestHighLevelClient restHighLevelClient = new ElasticsearchClientFactory(properties)
+                .createClient();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                restHighLevelClient.close();
+            } catch (IOException ignored) {
+            }
+            if (embeddedElasticsearch != null) {
+                embeddedElasticsearch.close();
+            }
+        }));
+        return restHighLevelClient;
     }
 
 
@@ -85,7 +153,7 @@ public class CommonTestClass {
                         .getInternalResponse()
                         .hits()
                         .getHits())
-                .map(SearchHit::getSourceAsMap)
+                .map(SearchHit::getSourceAsString)
                 .forEach(System.err::println);
     }
 }
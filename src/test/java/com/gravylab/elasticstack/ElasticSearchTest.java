@@ -1,26 +1,99 @@
 package com.gravylab.elasticstack;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gravylab.elasticstack.aggregation.AggregationProperties;
+import com.gravylab.elasticstack.aggregation.AggregationService;
+import com.gravylab.elasticstack.client.ClusterCallGuard;
+import com.gravylab.elasticstack.client.ElasticsearchClientFactory;
+import com.gravylab.elasticstack.client.ElasticsearchClientProperties;
+import com.gravylab.elasticstack.client.WireFormat;
+import com.gravylab.elasticstack.ecommerce.EcommerceOrder;
+import com.gravylab.elasticstack.ingest.BulkIngestProperties;
+import com.gravylab.elasticstack.ingest.DocumentWriter;
+import com.gravylab.elasticstack.ingest.IndexWriteListener;
+import com.gravylab.elasticstack.ingest.IngestSpool;
+import com.gravylab.elasticstack.ingest.OffHeapBulkIngester;
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import com.gravylab.elasticstack.metrics.MeteredHttpInterceptor;
+import com.gravylab.elasticstack.search.AsyncSearchService;
+import com.gravylab.elasticstack.search.CaffeineSearchResultCache;
+import com.gravylab.elasticstack.search.HedgedSearchExecutor;
+import com.gravylab.elasticstack.search.MultiSearchCoalescer;
+import com.gravylab.elasticstack.search.ReactiveSearchClient;
+import com.gravylab.elasticstack.search.ReactiveSearchController;
+import com.gravylab.elasticstack.search.QueryTemplate;
+import com.gravylab.elasticstack.search.QueryTemplateService;
+import com.gravylab.elasticstack.search.SearchController;
+import com.gravylab.elasticstack.search.SearchExportProperties;
+import com.gravylab.elasticstack.search.SearchHitExporter;
+import com.gravylab.elasticstack.search.SearchHitMapper;
+import com.gravylab.elasticstack.search.SearchProperties;
+import com.gravylab.elasticstack.search.SearchQueryRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.storedscripts.DeleteStoredScriptRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Node;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.core.CountResponse;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.CreateIndexResponse;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.query.Operator;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.DateHistogramValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Stats;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.elasticsearch.index.query.QueryBuilders.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ElasticSearchTest extends CommonTestClass {
@@ -44,6 +117,8 @@ public class ElasticSearchTest extends CommonTestClass {
     public static final String TEST_DATE = "test_date";
     public static final String DATE_RANGE = "date_range";
     public static final String RANGE_TEST_INDEX = "range_test_index";
+    public static final String CARRIER = "Carrier";
+    public static final String FLIGHT_DELAY_MIN = "FlightDelayMin";
 
     @DisplayName("쿼리 컨텍스트 실행")
     @Test
@@ -118,7 +193,6 @@ public class ElasticSearchTest extends CommonTestClass {
     @DisplayName("검색을 위한 인덱싱")
     @Test
     void index_data_for_search() throws Exception {
-        removeIfExistsIndex(QINDEX);
         XContentBuilder builder = XContentFactory.jsonBuilder();
         builder.startObject();
         {
@@ -140,7 +214,7 @@ public class ElasticSearchTest extends CommonTestClass {
         }
         builder.endObject();
 
-        CreateIndexRequest createIndexRequest = new CreateIndexRequest(QINDEX)
+        CreateIndexRequest createIndexRequest = new CreateIndexRequest(index(QINDEX))
                 .mapping(builder);
 
         CreateIndexResponse createIndexResponse = client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
@@ -148,20 +222,21 @@ public class ElasticSearchTest extends CommonTestClass {
 
         BulkRequest bulkRequest = new BulkRequest()
                 .add(
-                        new IndexRequest(QINDEX)
+                        new IndexRequest(index(QINDEX))
                                 .id("1")
                                 .source(Map.of(CONTENTS, "I Love Elastic Stack"))
                 )
                 .add(
-                        new IndexRequest(QINDEX)
+                        new IndexRequest(index(QINDEX))
                                 .id("2")
                                 .source(Map.of(CATEGORY, "Tech"))
-                );
+                )
+                //TODO Thread.sleep 대신 다음 refresh 로 문서가 검색 가능해질 때까지만 기다린다.
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
 
         client.bulk(bulkRequest, RequestOptions.DEFAULT);
 
-        Thread.sleep(1000);
-        SearchRequest searchRequest = new SearchRequest(QINDEX)
+        SearchRequest searchRequest = new SearchRequest(index(QINDEX))
                 .source(
                         new SearchSourceBuilder()
                                 .query(
@@ -174,7 +249,7 @@ public class ElasticSearchTest extends CommonTestClass {
         printSearchResponse(searchResponse);
 
 
-        searchRequest = new SearchRequest(QINDEX)
+        searchRequest = new SearchRequest(index(QINDEX))
                 .source(
                         new SearchSourceBuilder()
                                 .query(
@@ -414,8 +489,6 @@ public class ElasticSearchTest extends CommonTestClass {
     @DisplayName("날짜/시간 범위 타입을 갖는 인덱스 생성")
     @Test
     void create_index_have_date_range_type() throws Exception {
-        removeIfExistsIndex(RANGE_TEST_INDEX);
-
         XContentBuilder builder = XContentFactory.jsonBuilder();
         builder.startObject();
         {
@@ -431,7 +504,7 @@ public class ElasticSearchTest extends CommonTestClass {
         }
         builder.endObject();
 
-        CreateIndexRequest createIndexRequest = new CreateIndexRequest(RANGE_TEST_INDEX)
+        CreateIndexRequest createIndexRequest = new CreateIndexRequest(index(RANGE_TEST_INDEX))
                 .mapping(builder);
 
         CreateIndexResponse createIndexResponse = client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
@@ -442,25 +515,24 @@ public class ElasticSearchTest extends CommonTestClass {
     @Test
     void index_data_have_date_range_type() throws Exception {
         create_index_have_date_range_type();
-        IndexRequest indexRequest = new IndexRequest(RANGE_TEST_INDEX)
+        IndexRequest indexRequest = new IndexRequest(index(RANGE_TEST_INDEX))
                 .source(
                         Map.of(
                                 TEST_DATE, Map.of(
                                         "gte", "2021-01-21",
                                         "lt", "2021-01-25"
                                 ))
-                );
+                )
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
 
         client.index(indexRequest, RequestOptions.DEFAULT);
-
-        Thread.sleep(900);
     }
 
     @DisplayName("relation 파라미터를 이용한 범위 설정")
     @Test
     void search_request_with_date_range() throws Exception {
         index_data_have_date_range_type();
-        SearchRequest searchRequest = new SearchRequest(RANGE_TEST_INDEX)
+        SearchRequest searchRequest = new SearchRequest(index(RANGE_TEST_INDEX))
                 .source(
                         new SearchSourceBuilder()
                                 .query(
@@ -686,4 +758,688 @@ public class ElasticSearchTest extends CommonTestClass {
         SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
         printSearchResponse(searchResponse);
     }
+
+    @DisplayName("PIT 와 search_after 를 이용한 전체 도큐먼트 스트리밍 조회")
+    @Test
+    void export_all_documents_with_point_in_time() throws Exception {
+        SearchHitExporter searchHitExporter = new SearchHitExporter(client, new SearchExportProperties(), RequestOptions.DEFAULT, clusterCallGuard());
+        long expected = client.count(new CountRequest(KIBANA_SAMPLE_DATA_ECOMMERCE), RequestOptions.DEFAULT)
+                .getCount();
+
+        try (Stream<SearchHit> hits = searchHitExporter.export(KIBANA_SAMPLE_DATA_ECOMMERCE, new SearchSourceBuilder().query(matchAllQuery()))) {
+            assertEquals(expected, hits.count());
+        }
+    }
+
+    @DisplayName("슬라이스 스크롤을 이용한 병렬 전체 도큐먼트 조회")
+    @Test
+    void export_all_documents_with_sliced_scroll() throws Exception {
+        SearchHitExporter searchHitExporter = new SearchHitExporter(client, new SearchExportProperties(), RequestOptions.DEFAULT, clusterCallGuard());
+        long expected = client.count(new CountRequest(KIBANA_SAMPLE_DATA_ECOMMERCE), RequestOptions.DEFAULT)
+                .getCount();
+
+        try (Stream<SearchHit> hits = searchHitExporter.exportSliced(KIBANA_SAMPLE_DATA_ECOMMERCE, new SearchSourceBuilder().query(matchAllQuery()), 4)) {
+            assertEquals(expected, hits.count());
+        }
+    }
+
+    @DisplayName("검색 결과를 NDJSON 으로 스트리밍")
+    @Test
+    void stream_search_hits_as_ndjson() throws Exception {
+        SearchExportProperties searchExportProperties = new SearchExportProperties();
+        searchExportProperties.setPageSize(100);
+        SearchController searchController = new SearchController(new SearchHitExporter(client, searchExportProperties, RequestOptions.DEFAULT, clusterCallGuard()), new ObjectMapper(), searchExportProperties);
+        SearchQueryRequest searchQueryRequest = new SearchQueryRequest();
+        searchQueryRequest.setIndex(KIBANA_SAMPLE_DATA_ECOMMERCE);
+        searchQueryRequest.getFilter().put(DAY_OF_WEEK, FRIDAY);
+        searchQueryRequest.getFields().add(DAY_OF_WEEK);
+        long expected = client.count(new CountRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                        .query(termQuery(DAY_OF_WEEK, FRIDAY)), RequestOptions.DEFAULT)
+                .getCount();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        searchController.search(searchQueryRequest)
+                .getBody()
+                .writeTo(outputStream);
+
+        List<String> lines = outputStream.toString(StandardCharsets.UTF_8).lines()
+                .collect(Collectors.toList());
+        assertEquals(expected, lines.size());
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (String line : lines) {
+            assertEquals(FRIDAY, objectMapper.readTree(line).path("_source").path(DAY_OF_WEEK).asText());
+        }
+    }
+
+    @DisplayName("SMILE 로 받은 검색 결과도 NDJSON 에는 JSON 으로 쓴다")
+    @Test
+    void stream_smile_search_hits_as_ndjson() throws Exception {
+        client.bulk(new BulkRequest()
+                .add(new IndexRequest(index(QINDEX)).id("1").source(Map.of(CONTENTS, "I Love Elastic Stack")))
+                .add(new IndexRequest(index(QINDEX)).id("2").source(Map.of(CONTENTS, "Elastic World")))
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE), RequestOptions.DEFAULT);
+        ElasticsearchClientProperties properties = new ElasticsearchClientProperties();
+        properties.setHosts(List.of(client.getLowLevelClient().getNodes().get(0).getHost().toHostString()));
+        properties.setWireFormat(WireFormat.SMILE);
+        ElasticsearchClientFactory elasticsearchClientFactory = new ElasticsearchClientFactory(properties);
+        SearchExportProperties searchExportProperties = new SearchExportProperties();
+
+        try (RestHighLevelClient smileClient = elasticsearchClientFactory.createClient()) {
+            SearchController searchController = new SearchController(new SearchHitExporter(smileClient, searchExportProperties, elasticsearchClientFactory.createRequestOptions(), clusterCallGuard()), new ObjectMapper(), searchExportProperties);
+            SearchQueryRequest searchQueryRequest = new SearchQueryRequest();
+            searchQueryRequest.setIndex(index(QINDEX));
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            searchController.search(searchQueryRequest)
+                    .getBody()
+                    .writeTo(outputStream);
+
+            List<String> lines = outputStream.toString(StandardCharsets.UTF_8).lines()
+                    .collect(Collectors.toList());
+            assertEquals(2, lines.size());
+            ObjectMapper objectMapper = new ObjectMapper();
+            for (String line : lines) {
+                assertTrue(objectMapper.readTree(line).path("_source").path(CONTENTS).asText().contains("Elastic"));
+            }
+        }
+    }
+
+    @DisplayName("검색 결과를 논블로킹 클라이언트로 NDJSON 스트리밍")
+    @Test
+    void stream_search_hits_reactively() throws Exception {
+        SearchExportProperties searchExportProperties = new SearchExportProperties();
+        searchExportProperties.setPageSize(3);
+        ReactiveSearchClient reactiveSearchClient = new ReactiveSearchClient(client, RequestOptions.DEFAULT,
+                new ElasticsearchClientFactory(new ElasticsearchClientProperties()).createNamedXContentRegistry(),
+                clusterCallGuard());
+        ReactiveSearchController reactiveSearchController = new ReactiveSearchController(reactiveSearchClient, new ObjectMapper(), searchExportProperties);
+        SearchQueryRequest searchQueryRequest = new SearchQueryRequest();
+        searchQueryRequest.setIndex(KIBANA_SAMPLE_DATA_ECOMMERCE);
+        searchQueryRequest.getFilter().put(DAY_OF_WEEK, FRIDAY);
+        searchQueryRequest.setLimit(5L);
+
+        String body = DataBufferUtils.join(reactiveSearchController.search(searchQueryRequest))
+                .map(dataBuffer -> dataBuffer.toString(StandardCharsets.UTF_8))
+                .block(Duration.ofSeconds(30));
+
+        List<String> lines = body.lines()
+                .collect(Collectors.toList());
+        assertEquals(5, lines.size());
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (String line : lines) {
+            assertEquals(FRIDAY, objectMapper.readTree(line).path("_source").path(DAY_OF_WEEK).asText());
+        }
+
+        //TODO 응답 파싱은 IO 리액터 스레드가 아니라 parallel 스케줄러에서 한다.
+        String parsingThread = reactiveSearchClient.search(KIBANA_SAMPLE_DATA_ECOMMERCE, new SearchSourceBuilder().size(1))
+                .map(searchResponse -> Thread.currentThread().getName())
+                .block(Duration.ofSeconds(30));
+        assertTrue(parsingThread.startsWith("parallel-"));
+    }
+
+    @DisplayName("_source 를 타입 객체로 바로 매핑")
+    @Test
+    void map_hits_to_typed_object() throws Exception {
+        SearchHitMapper searchHitMapper = new SearchHitMapper(new ObjectMapper());
+        SearchRequest searchRequest = new SearchRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                .source(
+                        new SearchSourceBuilder()
+                                .query(
+                                        boolQuery()
+                                                .must(
+                                                        matchQuery(CUSTOMER_FULL_NAME, "mary")
+                                                )
+                                                .filter(
+                                                        termQuery(DAY_OF_WEEK, FRIDAY)
+                                                )
+                                )
+                                .fetchSource(searchHitMapper.sourceFilter(EcommerceOrder.class))
+                );
+
+        SearchResponse searchResponse = client.search(searchRequest, RequestOptions.DEFAULT);
+        List<EcommerceOrder> orders = searchHitMapper.map(searchResponse, EcommerceOrder.class);
+        orders.forEach(System.err::println);
+        orders.forEach(order -> assertEquals(FRIDAY, order.getDayOfWeek()));
+    }
+
+    @DisplayName("여러 쿼리를 비동기로 동시에 실행")
+    @Test
+    void search_many_queries_concurrently() throws Exception {
+        SearchProperties searchProperties = new SearchProperties();
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        ClusterCallGuard clusterCallGuard = clusterCallGuard(elasticsearchMetrics);
+        AsyncSearchService asyncSearchService = new AsyncSearchService(client, new SearchHitMapper(new ObjectMapper()), new CaffeineSearchResultCache(searchProperties, new StaticListableBeanFactory().getBeanProvider(RestHighLevelClient.class), RequestOptions.DEFAULT),
+                elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard,
+                new MultiSearchCoalescer(client, elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard));
+        List<SearchRequest> searchRequests = List.of(
+                new SearchRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                        .source(new SearchSourceBuilder().query(matchQuery(CATEGORY, "clothing"))),
+                new SearchRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                        .source(new SearchSourceBuilder().query(boolQuery().filter(termQuery(DAY_OF_WEEK, FRIDAY)))),
+                new SearchRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                        .source(new SearchSourceBuilder().query(matchQuery(CUSTOMER_FULL_NAME, "Mary")))
+        );
+
+        List<SearchResponse> searchResponses = asyncSearchService.searchAll(searchRequests, 2)
+                .get();
+
+        assertEquals(searchRequests.size(), searchResponses.size());
+        searchResponses.forEach(this::printSearchResponse);
+    }
+
+    @DisplayName("응답이 늦으면 preference 를 바꾼 헤지 요청을 보내고 먼저 온 응답을 사용")
+    @Test
+    void hedge_slow_searches() throws Exception {
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getHedging().setEnabled(true);
+        searchProperties.getHedging().setMinDelay(Duration.ZERO);
+        searchProperties.getHedging().setMinSamples(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(meterRegistry);
+        ClusterCallGuard clusterCallGuard = clusterCallGuard(elasticsearchMetrics);
+        AsyncSearchService asyncSearchService = new AsyncSearchService(client, new SearchHitMapper(new ObjectMapper()), new CaffeineSearchResultCache(searchProperties, new StaticListableBeanFactory().getBeanProvider(RestHighLevelClient.class), RequestOptions.DEFAULT),
+                elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard,
+                new MultiSearchCoalescer(client, elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard));
+        HedgedSearchExecutor hedgedSearchExecutor = new HedgedSearchExecutor(asyncSearchService, elasticsearchMetrics, searchProperties);
+        try {
+            SearchRequest searchRequest = new SearchRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                    .source(new SearchSourceBuilder().query(boolQuery().filter(termQuery(DAY_OF_WEEK, FRIDAY))));
+
+            SearchResponse hedgedResponse = hedgedSearchExecutor.search(searchRequest).get();
+            SearchResponse searchResponse = asyncSearchService.search(searchRequest).get();
+
+            assertEquals(searchResponse.getHits().getTotalHits().value, hedgedResponse.getHits().getTotalHits().value);
+            double hedgeOutcomes = meterRegistry.find(ElasticsearchMetrics.SEARCH_HEDGE)
+                    .counters()
+                    .stream()
+                    .mapToDouble(Counter::count)
+                    .sum();
+            assertEquals(1, hedgeOutcomes);
+        } finally {
+            hedgedSearchExecutor.destroy();
+        }
+    }
+
+    @DisplayName("preference 를 직접 지정한 검색은 헤지하지 않고 그대로 보낸다")
+    @Test
+    void do_not_hedge_searches_with_preference() throws Exception {
+        client.bulk(new BulkRequest()
+                .add(new IndexRequest(index(QINDEX)).id("1").source(Map.of(CONTENTS, "I Love Elastic Stack")))
+                .add(new IndexRequest(index(QINDEX)).id("2").source(Map.of(CONTENTS, "Elastic World")))
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE), RequestOptions.DEFAULT);
+
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getHedging().setEnabled(true);
+        searchProperties.getHedging().setMinDelay(Duration.ZERO);
+        searchProperties.getHedging().setMinSamples(0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(meterRegistry);
+        ClusterCallGuard clusterCallGuard = clusterCallGuard(elasticsearchMetrics);
+        AsyncSearchService asyncSearchService = new AsyncSearchService(client, new SearchHitMapper(new ObjectMapper()), new CaffeineSearchResultCache(searchProperties, new StaticListableBeanFactory().getBeanProvider(RestHighLevelClient.class), RequestOptions.DEFAULT),
+                elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard,
+                new MultiSearchCoalescer(client, elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard));
+        HedgedSearchExecutor hedgedSearchExecutor = new HedgedSearchExecutor(asyncSearchService, elasticsearchMetrics, searchProperties);
+        try {
+            SearchRequest searchRequest = new SearchRequest(index(QINDEX))
+                    .preference("_local")
+                    .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "elastic")));
+
+            SearchResponse searchResponse = hedgedSearchExecutor.search(searchRequest).get(30, TimeUnit.SECONDS);
+
+            assertEquals(2, searchResponse.getHits().getTotalHits().value);
+            assertEquals("_local", searchRequest.preference());
+            assertEquals(1, embedded().getRequestCount("_search", index(QINDEX)));
+            assertTrue(meterRegistry.find(ElasticsearchMetrics.SEARCH_HEDGE).counters().isEmpty());
+        } finally {
+            hedgedSearchExecutor.destroy();
+        }
+    }
+
+    @DisplayName("동시에 들어온 검색 요청을 하나의 _msearch 로 묶어서 실행")
+    @Test
+    void coalesce_concurrent_searches_into_msearch() throws Exception {
+        client.bulk(new BulkRequest()
+                .add(new IndexRequest(index(QINDEX)).id("1").source(Map.of(CONTENTS, "I Love Elastic Stack")))
+                .add(new IndexRequest(index(QINDEX)).id("2").source(Map.of(CONTENTS, "Elastic World")))
+                .add(new IndexRequest(index(QINDEX)).id("3").source(Map.of(CONTENTS, "Kibana Dashboard")))
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE), RequestOptions.DEFAULT);
+
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getCoalescing().setEnabled(true);
+        searchProperties.getCoalescing().setWindow(Duration.ofMillis(200));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(meterRegistry);
+        ClusterCallGuard clusterCallGuard = clusterCallGuard(elasticsearchMetrics);
+        MultiSearchCoalescer multiSearchCoalescer = new MultiSearchCoalescer(client, elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard);
+        AsyncSearchService asyncSearchService = new AsyncSearchService(client, new SearchHitMapper(new ObjectMapper()), new CaffeineSearchResultCache(searchProperties, new StaticListableBeanFactory().getBeanProvider(RestHighLevelClient.class), RequestOptions.DEFAULT),
+                elasticsearchMetrics, searchProperties, RequestOptions.DEFAULT, clusterCallGuard, multiSearchCoalescer);
+        try {
+            CompletableFuture<SearchResponse> elasticResponse = asyncSearchService.search(new SearchRequest(index(QINDEX))
+                    .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "elastic"))));
+            CompletableFuture<SearchResponse> kibanaResponse = asyncSearchService.search(new SearchRequest(index(QINDEX))
+                    .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "kibana"))));
+            CompletableFuture<SearchResponse> logstashResponse = asyncSearchService.search(new SearchRequest(index(QINDEX))
+                    .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "logstash"))));
+
+            //TODO 각 호출자는 자기 쿼리의 응답을 받아야 한다.
+            assertEquals(2, elasticResponse.get(30, TimeUnit.SECONDS).getHits().getTotalHits().value);
+            assertEquals(1, kibanaResponse.get(30, TimeUnit.SECONDS).getHits().getTotalHits().value);
+            assertEquals(0, logstashResponse.get(30, TimeUnit.SECONDS).getHits().getTotalHits().value);
+
+            assertEquals(3, meterRegistry.get(ElasticsearchMetrics.SEARCH_LATENCY)
+                    .tag("clock", "wall")
+                    .timer()
+                    .count());
+            assertEquals(0, clusterCallGuard.getInFlight());
+            assertEquals(1, embedded().getRequestCount("_msearch", index(QINDEX)));
+        } finally {
+            multiSearchCoalescer.destroy();
+        }
+    }
+
+    @DisplayName("다이렉트 버퍼에 쌓은 NDJSON 본문으로 벌크 색인")
+    @Test
+    void bulk_index_from_off_heap_buffer() throws Exception {
+        BulkIngestProperties bulkIngestProperties = new BulkIngestProperties();
+        bulkIngestProperties.setBulkActions(7);
+        bulkIngestProperties.getOffHeap().setChunkSize(DataSize.ofBytes(128));
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        OffHeapBulkIngester offHeapBulkIngester = new OffHeapBulkIngester(client,
+                clusterCallGuard(elasticsearchMetrics), elasticsearchMetrics,
+                new StaticListableBeanFactory().getBeanProvider(IndexWriteListener.class),
+                new StaticListableBeanFactory().getBeanProvider(IngestSpool.class), bulkIngestProperties);
+        try {
+            for (int i = 0; i < 20; i++) {
+                offHeapBulkIngester.index(index(QINDEX), String.valueOf(i), Map.of(CONTENTS, "Elastic Stack " + i, CATEGORY, "Tech"));
+            }
+            assertTrue(offHeapBulkIngester.awaitFlushed(Duration.ofSeconds(30)));
+            client.indices().refresh(new RefreshRequest(index(QINDEX)), RequestOptions.DEFAULT);
+
+            long count = client.count(new CountRequest(index(QINDEX)), RequestOptions.DEFAULT)
+                    .getCount();
+            assertEquals(20, count);
+            assertTrue(offHeapBulkIngester.getPooledChunks() > 0);
+        } finally {
+            offHeapBulkIngester.destroy();
+        }
+    }
+
+    @DisplayName("아이템 단위로 429 를 받은 문서만 백오프 후 다시 보낸다")
+    @Test
+    void retry_rejected_off_heap_bulk_items() throws Exception {
+        embedded().rejectBulkItems(index(QINDEX), 3);
+        BulkIngestProperties bulkIngestProperties = new BulkIngestProperties();
+        bulkIngestProperties.setBulkActions(7);
+        bulkIngestProperties.setInitialBackoff(Duration.ofMillis(10));
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        OffHeapBulkIngester offHeapBulkIngester = new OffHeapBulkIngester(client,
+                clusterCallGuard(elasticsearchMetrics), elasticsearchMetrics,
+                new StaticListableBeanFactory().getBeanProvider(IndexWriteListener.class),
+                new StaticListableBeanFactory().getBeanProvider(IngestSpool.class), bulkIngestProperties);
+        try {
+            for (int i = 0; i < 7; i++) {
+                offHeapBulkIngester.index(index(QINDEX), String.valueOf(i), Map.of(CONTENTS, "Elastic Stack " + i, CATEGORY, "Tech"));
+            }
+            assertTrue(offHeapBulkIngester.awaitFlushed(Duration.ofSeconds(30)));
+            client.indices().refresh(new RefreshRequest(index(QINDEX)), RequestOptions.DEFAULT);
+
+            long count = client.count(new CountRequest(index(QINDEX)), RequestOptions.DEFAULT)
+                    .getCount();
+            assertEquals(7, count);
+            assertEquals(2, embedded().getRequestCount("_bulk", index(QINDEX)));
+        } finally {
+            offHeapBulkIngester.destroy();
+        }
+    }
+
+    @DisplayName("벌크 요청 전체가 429 로 거절되면 버리지 않고 백오프 후 다시 보낸다")
+    @Test
+    void retry_rejected_off_heap_bulk_requests() throws Exception {
+        embedded().rejectBulkRequests(index(QINDEX), 1);
+        BulkIngestProperties bulkIngestProperties = new BulkIngestProperties();
+        bulkIngestProperties.setBulkActions(7);
+        bulkIngestProperties.setInitialBackoff(Duration.ofMillis(10));
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        OffHeapBulkIngester offHeapBulkIngester = new OffHeapBulkIngester(client,
+                clusterCallGuard(elasticsearchMetrics), elasticsearchMetrics,
+                new StaticListableBeanFactory().getBeanProvider(IndexWriteListener.class),
+                new StaticListableBeanFactory().getBeanProvider(IngestSpool.class), bulkIngestProperties);
+        try {
+            for (int i = 0; i < 7; i++) {
+                offHeapBulkIngester.index(index(QINDEX), String.valueOf(i), Map.of(CONTENTS, "Elastic Stack " + i, CATEGORY, "Tech"));
+            }
+            assertTrue(offHeapBulkIngester.awaitFlushed(Duration.ofSeconds(30)));
+            client.indices().refresh(new RefreshRequest(index(QINDEX)), RequestOptions.DEFAULT);
+
+            long count = client.count(new CountRequest(index(QINDEX)), RequestOptions.DEFAULT)
+                    .getCount();
+            assertEquals(7, count);
+            assertEquals(2, embedded().getRequestCount("_bulk", index(QINDEX)));
+        } finally {
+            offHeapBulkIngester.destroy();
+        }
+    }
+
+    @DisplayName("디스크 스풀에 쌓아 둔 문서를 순서대로 벌크 재전송")
+    @Test
+    void replay_spooled_documents(@TempDir Path directory) throws Exception {
+        BulkIngestProperties bulkIngestProperties = new BulkIngestProperties();
+        bulkIngestProperties.setBulkSize(DataSize.ofBytes(512));
+        bulkIngestProperties.getSpool().setDirectory(directory.toString());
+        bulkIngestProperties.getSpool().setSegmentSize(DataSize.ofKilobytes(4));
+        bulkIngestProperties.getSpool().setReplayInterval(Duration.ofHours(1));
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        IngestSpool ingestSpool = new IngestSpool(client,
+                clusterCallGuard(elasticsearchMetrics), elasticsearchMetrics,
+                new StaticListableBeanFactory().getBeanProvider(IndexWriteListener.class), bulkIngestProperties);
+        try {
+            for (int i = 0; i < 50; i++) {
+                ingestSpool.index(index(QINDEX), String.valueOf(i), Map.of(CONTENTS, "Elastic Stack " + i, CATEGORY, "Tech"));
+            }
+            assertFalse(ingestSpool.isEmpty());
+
+            assertEquals(50, ingestSpool.replay());
+            assertTrue(ingestSpool.isEmpty());
+            client.indices().refresh(new RefreshRequest(index(QINDEX)), RequestOptions.DEFAULT);
+
+            long count = client.count(new CountRequest(index(QINDEX)), RequestOptions.DEFAULT)
+                    .getCount();
+            assertEquals(50, count);
+        } finally {
+            ingestSpool.destroy();
+        }
+    }
+
+    @DisplayName("재전송 중 429 를 받은 아이템은 스풀 끝에 다시 쌓았다가 다음 재전송에 보낸다")
+    @Test
+    void requeue_rejected_spooled_items(@TempDir Path directory) throws Exception {
+        embedded().rejectBulkItems(index(QINDEX), 2);
+        BulkIngestProperties bulkIngestProperties = new BulkIngestProperties();
+        bulkIngestProperties.getSpool().setDirectory(directory.toString());
+        bulkIngestProperties.getSpool().setSegmentSize(DataSize.ofKilobytes(4));
+        bulkIngestProperties.getSpool().setReplayInterval(Duration.ofHours(1));
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        IngestSpool ingestSpool = new IngestSpool(client,
+                clusterCallGuard(elasticsearchMetrics), elasticsearchMetrics,
+                new StaticListableBeanFactory().getBeanProvider(IndexWriteListener.class), bulkIngestProperties);
+        try {
+            for (int i = 0; i < 5; i++) {
+                ingestSpool.index(index(QINDEX), String.valueOf(i), Map.of(CONTENTS, "Elastic Stack " + i, CATEGORY, "Tech"));
+            }
+
+            assertEquals(5, ingestSpool.replay());
+            assertFalse(ingestSpool.isEmpty());
+            assertEquals(2, ingestSpool.replay());
+            assertTrue(ingestSpool.isEmpty());
+            client.indices().refresh(new RefreshRequest(index(QINDEX)), RequestOptions.DEFAULT);
+
+            long count = client.count(new CountRequest(index(QINDEX)), RequestOptions.DEFAULT)
+                    .getCount();
+            assertEquals(5, count);
+        } finally {
+            ingestSpool.destroy();
+        }
+    }
+
+    @DisplayName("refresh 를 기다리지 않고 쓴 문서를 읽기 직전에 대상 인덱스만 refresh 해서 조회")
+    @Test
+    void read_your_writes_with_targeted_refresh() throws Exception {
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        DocumentWriter documentWriter = new DocumentWriter(client, new StaticListableBeanFactory().getBeanProvider(IndexWriteListener.class),
+                elasticsearchMetrics, RequestOptions.DEFAULT, clusterCallGuard(elasticsearchMetrics));
+
+        documentWriter.bulk(new BulkRequest()
+                .add(new IndexRequest(index(QINDEX)).id("1").source(Map.of(CONTENTS, "I Love Elastic Stack")))
+                .add(new IndexRequest(index(QINDEX)).id("2").source(Map.of(CONTENTS, "Elastic World"))), WriteRequest.RefreshPolicy.NONE);
+        assertTrue(documentWriter.hasPendingWrites(index(QINDEX)));
+
+        documentWriter.awaitSearchable(index(QINDEX));
+        assertFalse(documentWriter.hasPendingWrites(index(QINDEX)));
+
+        SearchResponse searchResponse = client.search(new SearchRequest(index(QINDEX))
+                .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "elastic"))), RequestOptions.DEFAULT);
+        assertEquals(2, searchResponse.getHits().getTotalHits().value);
+    }
+
+    @DisplayName("동시에 awaitSearchable 을 호출해도 refresh 가 끝나기 전에는 반환하지 않음")
+    @Test
+    void concurrent_await_searchable() throws Exception {
+        ElasticsearchMetrics elasticsearchMetrics = new ElasticsearchMetrics(new SimpleMeterRegistry());
+        DocumentWriter documentWriter = new DocumentWriter(client, new StaticListableBeanFactory().getBeanProvider(IndexWriteListener.class),
+                elasticsearchMetrics, RequestOptions.DEFAULT, clusterCallGuard(elasticsearchMetrics));
+
+        documentWriter.bulk(new BulkRequest()
+                .add(new IndexRequest(index(QINDEX)).id("1").source(Map.of(CONTENTS, "I Love Elastic Stack")))
+                .add(new IndexRequest(index(QINDEX)).id("2").source(Map.of(CONTENTS, "Elastic World"))), WriteRequest.RefreshPolicy.NONE);
+
+        List<CompletableFuture<Long>> callers = Stream.generate(() -> CompletableFuture.supplyAsync(() -> {
+                    try {
+                        documentWriter.awaitSearchable(index(QINDEX));
+                        return client.search(new SearchRequest(index(QINDEX))
+                                .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "elastic"))), RequestOptions.DEFAULT)
+                                .getHits()
+                                .getTotalHits().value;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }))
+                .limit(8)
+                .collect(Collectors.toList());
+
+        for (CompletableFuture<Long> caller : callers) {
+            assertEquals(2, caller.get(30, TimeUnit.SECONDS));
+        }
+        assertFalse(documentWriter.hasPendingWrites(index(QINDEX)));
+    }
+
+    @DisplayName("실제 인덱스에 쓰면 그 인덱스를 가리키는 별칭으로 캐시된 검색도 무효화")
+    @Test
+    void invalidate_cached_alias_searches_on_concrete_write() throws Exception {
+        String concreteIndex = index(QINDEX) + "-v2";
+        client.indices().create(new CreateIndexRequest(concreteIndex), RequestOptions.DEFAULT);
+        client.indices().updateAliases(new IndicesAliasesRequest()
+                .addAliasAction(IndicesAliasesRequest.AliasActions.add().index(concreteIndex).alias(index(QINDEX))), RequestOptions.DEFAULT);
+
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getCache().setRefreshInterval(Duration.ofMinutes(1));
+        CaffeineSearchResultCache searchResultCache = new CaffeineSearchResultCache(searchProperties,
+                new StaticListableBeanFactory(Map.of("client", client)).getBeanProvider(RestHighLevelClient.class), RequestOptions.DEFAULT);
+        AtomicInteger loadCount = new AtomicInteger();
+        Function<SearchRequest, CompletableFuture<SearchResponse>> loader = searchRequest -> {
+            loadCount.incrementAndGet();
+            CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+            client.searchAsync(searchRequest, RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        };
+        searchResultCache.get(new SearchRequest(index(QINDEX)), loader).get();
+
+        searchResultCache.onIndicesWritten(Set.of(concreteIndex));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (loadCount.get() < 2 && System.nanoTime() < deadline) {
+            searchResultCache.get(new SearchRequest(index(QINDEX)), loader).get();
+            Thread.sleep(10);
+        }
+        assertEquals(2, loadCount.get());
+    }
+
+    @DisplayName("항공편 데이터를 날짜별, 항공사별로 집계")
+    @Test
+    void aggregate_flights_by_timestamp() throws Exception {
+        AggregationService aggregationService = new AggregationService(client, new AggregationProperties(), RequestOptions.DEFAULT, clusterCallGuard());
+        long total = client.count(new CountRequest(KIBANA_SAMPLE_DATA_FLIGHTS), RequestOptions.DEFAULT)
+                .getCount();
+
+        List<? extends Histogram.Bucket> perDay = aggregationService.dateHistogram(KIBANA_SAMPLE_DATA_FLIGHTS, matchAllQuery(), TIMESTAMP, DateHistogramInterval.DAY);
+        perDay.forEach(bucket -> System.err.println(bucket.getKeyAsString() + " = " + bucket.getDocCount()));
+        assertEquals(total, perDay.stream().mapToLong(Histogram.Bucket::getDocCount).sum());
+
+        List<? extends Terms.Bucket> carriers = aggregationService.terms(KIBANA_SAMPLE_DATA_FLIGHTS, matchAllQuery(), CARRIER, 10);
+        carriers.forEach(bucket -> System.err.println(bucket.getKeyAsString() + " = " + bucket.getDocCount()));
+        assertEquals(total, carriers.stream().mapToLong(Terms.Bucket::getDocCount).sum());
+
+        Stats delay = aggregationService.stats(KIBANA_SAMPLE_DATA_FLIGHTS, matchAllQuery(), FLIGHT_DELAY_MIN);
+        System.err.println("delay = " + delay.getMin() + " ~ " + delay.getMax() + ", avg " + delay.getAvg());
+        assertEquals(total, delay.getCount());
+    }
+
+    @DisplayName("composite 집계의 after_key 로 버킷을 페이지 단위로 스트리밍")
+    @Test
+    void stream_composite_buckets() throws Exception {
+        AggregationProperties aggregationProperties = new AggregationProperties();
+        aggregationProperties.setCompositePageSize(3);
+        AggregationService aggregationService = new AggregationService(client, aggregationProperties, RequestOptions.DEFAULT, clusterCallGuard());
+        long total = client.count(new CountRequest(KIBANA_SAMPLE_DATA_FLIGHTS), RequestOptions.DEFAULT)
+                .getCount();
+
+        List<CompositeAggregation.Bucket> buckets = aggregationService.streamComposite(
+                        KIBANA_SAMPLE_DATA_FLIGHTS,
+                        matchAllQuery(),
+                        List.of(
+                                new TermsValuesSourceBuilder(CARRIER).field(CARRIER),
+                                new DateHistogramValuesSourceBuilder(TIMESTAMP).field(TIMESTAMP).calendarInterval(DateHistogramInterval.WEEK)
+                        )
+                )
+                .peek(bucket -> System.err.println(bucket.getKey() + " = " + bucket.getDocCount()))
+                .collect(Collectors.toList());
+
+        assertTrue(buckets.size() > aggregationProperties.getCompositePageSize());
+        assertEquals(total, buckets.stream().mapToLong(CompositeAggregation.Bucket::getDocCount).sum());
+    }
+
+    @DisplayName("미리 컴파일한 쿼리 템플릿과 mustache 검색 템플릿으로 같은 결과 조회")
+    @Test
+    void search_with_compiled_query_template() throws Exception {
+        SearchSourceBuilder nameAndDay = new SearchSourceBuilder()
+                .query(
+                        boolQuery()
+                                .must(
+                                        matchQuery(CUSTOMER_FULL_NAME, QueryTemplate.param("name"))
+                                )
+                                .filter(
+                                        termQuery(DAY_OF_WEEK, QueryTemplate.param("day"))
+                                )
+                )
+                .aggregation(AggregationBuilders.terms(DAY_OF_WEEK).field(DAY_OF_WEEK));
+        Map<String, Object> params = Map.of("name", "mary", "day", FRIDAY);
+        SearchResponse expected = client.search(new SearchRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                .source(new SearchSourceBuilder()
+                        .query(boolQuery().must(matchQuery(CUSTOMER_FULL_NAME, "mary")).filter(termQuery(DAY_OF_WEEK, FRIDAY)))
+                        .aggregation(AggregationBuilders.terms(DAY_OF_WEEK).field(DAY_OF_WEEK))), RequestOptions.DEFAULT);
+        ClusterCallGuard clusterCallGuard = clusterCallGuard();
+        NamedXContentRegistry namedXContentRegistry = new ElasticsearchClientFactory(new ElasticsearchClientProperties()).createNamedXContentRegistry();
+
+        for (SearchProperties.TemplateBackend backend : SearchProperties.TemplateBackend.values()) {
+            SearchProperties searchProperties = new SearchProperties();
+            searchProperties.getTemplate().setBackend(backend);
+            QueryTemplateService queryTemplateService = new QueryTemplateService(client, new ObjectMapper(), searchProperties, RequestOptions.DEFAULT,
+                    namedXContentRegistry, clusterCallGuard);
+            queryTemplateService.register(template("name_and_day"), nameAndDay);
+            try {
+                SearchResponse searchResponse = queryTemplateService.search(template("name_and_day"), KIBANA_SAMPLE_DATA_ECOMMERCE, params);
+                printSearchResponse(searchResponse);
+                assertEquals(expected.getHits().getTotalHits().value, searchResponse.getHits().getTotalHits().value);
+                Terms expectedDays = expected.getAggregations().get(DAY_OF_WEEK);
+                Terms days = searchResponse.getAggregations().get(DAY_OF_WEEK);
+                assertEquals(expectedDays.getBuckets().size(), days.getBuckets().size());
+            } finally {
+                if (backend == SearchProperties.TemplateBackend.MUSTACHE) {
+                    client.deleteScript(new DeleteStoredScriptRequest(template("name_and_day")), RequestOptions.DEFAULT);
+                }
+            }
+        }
+    }
+
+    @DisplayName("gzip 압축과 SMILE 본문으로 벌크 인덱싱 후 검색")
+    @Test
+    void bulk_and_search_with_smile_and_gzip() throws Exception {
+        ElasticsearchClientProperties properties = new ElasticsearchClientProperties();
+        properties.setHosts(List.of(client.getLowLevelClient().getNodes().get(0).getHost().toHostString()));
+        properties.setCompressionEnabled(true);
+        properties.setWireFormat(WireFormat.SMILE);
+        ElasticsearchClientFactory elasticsearchClientFactory = new ElasticsearchClientFactory(properties);
+        RequestOptions requestOptions = elasticsearchClientFactory.createRequestOptions();
+
+        try (RestHighLevelClient smileClient = elasticsearchClientFactory.createClient()) {
+            BulkRequest bulkRequest = new BulkRequest()
+                    .add(new IndexRequest(index(QINDEX)).id("1").source(Map.of(CONTENTS, "I Love Elastic Stack"), WireFormat.SMILE.bulkContentType()))
+                    .add(new IndexRequest(index(QINDEX)).id("2").source(Map.of(CONTENTS, "Elastic World"), WireFormat.SMILE.bulkContentType()))
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+            assertFalse(smileClient.bulk(bulkRequest, requestOptions).hasFailures());
+
+            SearchResponse searchResponse = smileClient.search(new SearchRequest(index(QINDEX))
+                    .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "elastic"))), requestOptions);
+            printSearchResponse(searchResponse);
+            assertEquals(2, searchResponse.getHits().getTotalHits().value);
+        }
+    }
+
+    @DisplayName("검색과 벌크 한 번씩 보낸 뒤 요청별 타이머와 gzip 압축된 요청 크기가 기록되는지 확인")
+    @Test
+    void record_client_request_metrics() throws Exception {
+        ElasticsearchClientProperties properties = new ElasticsearchClientProperties();
+        properties.setHosts(List.of(client.getLowLevelClient().getNodes().get(0).getHost().toHostString()));
+        properties.setCompressionEnabled(true);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MeteredHttpInterceptor meteredHttpInterceptor = new MeteredHttpInterceptor(new ElasticsearchMetrics(meterRegistry));
+        ElasticsearchClientFactory elasticsearchClientFactory = new ElasticsearchClientFactory(properties)
+                .addHttpClientConfigCallback(
+                        httpClientBuilder ->
+                                httpClientBuilder
+                                        .addInterceptorLast((HttpRequestInterceptor) meteredHttpInterceptor)
+                                        .addInterceptorLast((HttpResponseInterceptor) meteredHttpInterceptor)
+                );
+
+        try (RestHighLevelClient meteredClient = elasticsearchClientFactory.createClient()) {
+            BulkRequest bulkRequest = new BulkRequest()
+                    .add(new IndexRequest(index(QINDEX)).id("1").source(Map.of(CONTENTS, "I Love Elastic Stack")))
+                    .add(new IndexRequest(index(QINDEX)).id("2").source(Map.of(CONTENTS, "Elastic World")))
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+            assertFalse(meteredClient.bulk(bulkRequest, RequestOptions.DEFAULT).hasFailures());
+            meteredClient.search(new SearchRequest(index(QINDEX))
+                    .source(new SearchSourceBuilder().query(matchQuery(CONTENTS, "elastic"))), RequestOptions.DEFAULT);
+        }
+
+        for (String operation : List.of("bulk", "search")) {
+            Timer timer = meterRegistry.get(ElasticsearchMetrics.CLIENT_REQUESTS)
+                    .tag("operation", operation)
+                    .tag("status", "200")
+                    .timer();
+            assertEquals(1, timer.count());
+            assertTrue(timer.totalTime(TimeUnit.NANOSECONDS) > 0);
+
+            DistributionSummary requestSize = meterRegistry.get(ElasticsearchMetrics.CLIENT_REQUEST_SIZE)
+                    .tag("operation", operation)
+                    .summary();
+            assertEquals(1, requestSize.count());
+            assertTrue(requestSize.totalAmount() > 0);
+
+            assertEquals(1, meterRegistry.get(ElasticsearchMetrics.CLIENT_RESPONSE_SIZE)
+                    .tag("operation", operation)
+                    .summary()
+                    .count());
+        }
+    }
+
+    @Test
+    @DisplayName("스니퍼로 클러스터 노드를 발견하고 역할 정보로 노드를 고른다")
+    void sniff_nodes_and_select_by_latency() throws Exception {
+        ElasticsearchClientProperties properties = new ElasticsearchClientProperties();
+        properties.setHosts(List.of(client.getLowLevelClient().getNodes().get(0).getHost().toHostString()));
+        properties.getSniff().setEnabled(true);
+        ElasticsearchClientFactory elasticsearchClientFactory = new ElasticsearchClientFactory(properties);
+
+        try (RestHighLevelClient sniffedClient = elasticsearchClientFactory.createClient();
+             Sniffer sniffer = elasticsearchClientFactory.createSniffer(sniffedClient.getLowLevelClient())) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (sniffedClient.getLowLevelClient().getNodes().get(0).getRoles() == null && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Node node = sniffedClient.getLowLevelClient().getNodes().get(0);
+            assertTrue(node.getRoles().isData());
+
+            CountResponse countResponse = sniffedClient.count(new CountRequest(KIBANA_SAMPLE_DATA_ECOMMERCE), RequestOptions.DEFAULT);
+            assertTrue(countResponse.getCount() > 0);
+            assertTrue(elasticsearchClientFactory.getNodeSelector().getLatency(node.getHost()) > 0);
+        }
+    }
 }
@@ -1,21 +1,44 @@
 package com.gravylab.elasticstack;
 
+import com.gravylab.elasticstack.analyze.AnalyzeProperties;
+import com.gravylab.elasticstack.analyze.AnalyzeService;
+import com.gravylab.elasticstack.template.IndexMigrationProperties;
+import com.gravylab.elasticstack.template.IndexMigrationService;
+import com.gravylab.elasticstack.template.IndexTemplateProperties;
+import com.gravylab.elasticstack.template.IndexTemplateRegistry;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.action.support.master.AcknowledgedResponse;
+import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.core.CountRequest;
 import org.elasticsearch.client.indices.*;
 import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
 
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ElasticStackBasicTest extends CommonTestClass {
@@ -33,12 +56,10 @@ public class ElasticStackBasicTest extends CommonTestClass {
     public static final String TEXT = "text";
     public static final String TYPE = "type";
     public static final String AGE = "age";
-    public static final String SHORT = "short";
     public static final String GENDER = "gender";
     public static final String KEYWORD = "keyword";
     public static final String TEST_INDEX_1 = "test_index1";
     public static final String MULTI_TEMPLATE_1 = "multi_template1";
-    public static final String INTEGER = "integer";
     public static final String MULTI_TEMPLATE_2 = "multi_template2";
     public static final String MULTI_DATA_INDEX = "multi_data_index";
     public static final String DYNAMIC_INDEX_1 = "dynamic_index1";
@@ -69,57 +90,17 @@ public class ElasticStackBasicTest extends CommonTestClass {
 
     @DisplayName("test_template 인덱스 템플릿 생성")
     @Test
-    void create_test_template() throws Exception {
-        removeIfExistsTemplate(TEST_TEMPLATE);
-        Settings.Builder settings = Settings.builder()
-                .put(NUMBER_OF_SHARDS, 3)
-                .put(NUMBER_OF_REPLICAS, 1);
+    void create_test_template(@TempDir Path directory) throws Exception {
+        IndexTemplateRegistry indexTemplateRegistry = fixtureTemplates(directory, TEST_TEMPLATE);
 
-
-        XContentBuilder mappingBuilder = XContentFactory.jsonBuilder();
-        mappingBuilder.startObject();
-        {
-            mappingBuilder.startObject(PROPERTIES);
-            {
-                mappingBuilder.startObject(NAME);
-                {
-                    mappingBuilder.field(TYPE, TEXT);
-                }
-                mappingBuilder.endObject();
-
-                mappingBuilder.startObject(AGE);
-                {
-                    mappingBuilder.field(TYPE, SHORT);
-                }
-                mappingBuilder.endObject();
-
-                mappingBuilder.startObject(GENDER);
-                {
-                    mappingBuilder.field(TYPE, KEYWORD);
-                }
-                mappingBuilder.endObject();
-            }
-            mappingBuilder.endObject();
-        }
-        mappingBuilder.endObject();
-        PutIndexTemplateRequest putIndexTemplateRequest = new PutIndexTemplateRequest(TEST_TEMPLATE)
-                .mapping(mappingBuilder)
-                .settings(settings)
-                .patterns(List.of("test_*"))
-                .order(1);
-
-
-        AcknowledgedResponse putTemplateResponse = client.indices().putTemplate(putIndexTemplateRequest, RequestOptions.DEFAULT);
-        assertTrue(putTemplateResponse.isAcknowledged());
+        assertEquals(List.of(template(TEST_TEMPLATE)), indexTemplateRegistry.apply());
     }
 
     @DisplayName("생성한 템플릿 패턴에 맞는 인덱스 생성")
     @Test
-    void create_index_for_template() throws Exception {
-        removeIfExistsIndex(TEST_INDEX_1);
-
-
-        IndexRequest indexRequest = new IndexRequest(TEST_INDEX_1)
+    void create_index_for_template(@TempDir Path directory) throws Exception {
+        create_test_template(directory);
+        IndexRequest indexRequest = new IndexRequest(index(TEST_INDEX_1))
                 .id("1")
                 .source(
                         Map.of(NAME, "kim",
@@ -134,71 +115,37 @@ public class ElasticStackBasicTest extends CommonTestClass {
 
     @DisplayName("템플릿 우선순위")
     @Test
-    void template_priority() throws Exception {
-        removeIfExistsTemplate(MULTI_TEMPLATE_1);
-        removeIfExistsTemplate(MULTI_TEMPLATE_2);
+    void template_priority(@TempDir Path directory) throws Exception {
+        //TODO multi_template1(order 1) 은 name 을 text 로, multi_template2(order 2) 는 keyword 로 선언한다.
+        // 두 템플릿에 모두 걸리는 인덱스는 order 가 높은 multi_template2 의 매핑을 따른다.
+        IndexTemplateRegistry indexTemplateRegistry = fixtureTemplates(directory, MULTI_TEMPLATE_1, MULTI_TEMPLATE_2);
+        assertEquals(Set.of(template(MULTI_TEMPLATE_1), template(MULTI_TEMPLATE_2)), Set.copyOf(indexTemplateRegistry.apply()));
 
+        CreateIndexResponse createIndexResponse = client.indices().create(new CreateIndexRequest(index(MULTI_DATA_INDEX)), RequestOptions.DEFAULT);
+        System.out.println("createIndexResponse = " + createIndexResponse);
+    }
 
-        XContentBuilder builder = XContentFactory.jsonBuilder();
-        builder.startObject();
-        {
-            builder.startObject(PROPERTIES);
-            {
-                builder.startObject(AGE);
-                {
-                    builder.field(TYPE, INTEGER);
-                }
-                builder.endObject();
-                builder.startObject(NAME);
-                {
-                    builder.field(TYPE, TEXT);
-                }
-                builder.endObject();
-            }
-            builder.endObject();
-        }
-        builder.endObject();
-        PutIndexTemplateRequest putIndexTemplateRequest = new PutIndexTemplateRequest(MULTI_TEMPLATE_1)
-                .patterns(List.of("multi_*"))
-                .order(1)
-                .mapping(builder);
-
-        AcknowledgedResponse acknowledgedResponse = client.indices().putTemplate(putIndexTemplateRequest, RequestOptions.DEFAULT);
-        assertTrue(acknowledgedResponse.isAcknowledged());
-
-        builder = XContentFactory.jsonBuilder();
-
-        builder.startObject();
-        {
-            builder.startObject(PROPERTIES);
-            {
-                builder.startObject(NAME);
-                {
-                    builder.field(TYPE, KEYWORD);
-                }
-                builder.endObject();
+    //TODO test-templates 의 선언형 템플릿을 테스트 이름 공간으로 옮겨 적은 뒤 레지스트리로 등록한다.
+    // 병렬로 도는 다른 테스트의 인덱스에 걸리지 않도록 템플릿 이름과 index_patterns 에 이름 공간을 붙인다.
+    @SuppressWarnings("unchecked")
+    private IndexTemplateRegistry fixtureTemplates(Path directory, String... names) throws Exception {
+        for (String name : names) {
+            Map<String, Object> fixture;
+            try (InputStream inputStream = new ClassPathResource("elasticsearch/test-templates/" + name + ".json").getInputStream()) {
+                fixture = XContentHelper.convertToMap(XContentType.JSON.xContent(), inputStream, true);
             }
-            builder.endObject();
+            fixture.put(INDEX_PATTERNS, patterns(((List<String>) fixture.get(INDEX_PATTERNS)).toArray(String[]::new)));
+            XContentBuilder templateBuilder = XContentFactory.jsonBuilder().map(fixture);
+            Files.write(directory.resolve(template(name) + ".json"), BytesReference.toBytes(BytesReference.bytes(templateBuilder)));
         }
-        builder.endObject();
-
-        putIndexTemplateRequest = new PutIndexTemplateRequest(MULTI_TEMPLATE_2)
-                .order(2)
-                .patterns(List.of("multi_data_*"))
-                .mapping(builder)
-        ;
-
-        acknowledgedResponse = client.indices().putTemplate(putIndexTemplateRequest, RequestOptions.DEFAULT);
-        assertTrue(acknowledgedResponse.isAcknowledged());
-
-        CreateIndexResponse createIndexResponse = client.indices().create(new CreateIndexRequest(MULTI_DATA_INDEX), RequestOptions.DEFAULT);
-        System.out.println("createIndexResponse = " + createIndexResponse);
+        IndexTemplateProperties indexTemplateProperties = new IndexTemplateProperties();
+        indexTemplateProperties.setLocation(directory.toUri() + "*.json");
+        return new IndexTemplateRegistry(client, indexTemplateProperties, RequestOptions.DEFAULT);
     }
 
     @DisplayName("다이내믹 매핑을 적용한 인덱스 생성")
     @Test
     void create_index_using_dynamic_mapping() throws Exception {
-        removeIfExistsIndex(DYNAMIC_INDEX_1);
         XContentBuilder builder = XContentFactory.jsonBuilder();
         builder.startObject();
         {
@@ -226,7 +173,7 @@ public class ElasticStackBasicTest extends CommonTestClass {
             builder.endArray();
         }
         builder.endObject();
-        CreateIndexRequest createIndexRequest = new CreateIndexRequest(DYNAMIC_INDEX_1)
+        CreateIndexRequest createIndexRequest = new CreateIndexRequest(index(DYNAMIC_INDEX_1))
                 .mapping(builder);
         CreateIndexResponse createIndexResponse = client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
         assertTrue(createIndexResponse.isAcknowledged());
@@ -236,12 +183,12 @@ public class ElasticStackBasicTest extends CommonTestClass {
     @Test
     void indexing_to_dynamic_mapping_index() throws Exception {
         create_index_using_dynamic_mapping();
-        IndexRequest indexRequest = new IndexRequest(DYNAMIC_INDEX_1)
+        IndexRequest indexRequest = new IndexRequest(index(DYNAMIC_INDEX_1))
                 .source(Map.of(NAME, "mr. kim", AGE, 40));
         client.index(indexRequest, RequestOptions.DEFAULT);
 
         GetMappingsRequest getMappingRequest = new GetMappingsRequest()
-                .indices(DYNAMIC_INDEX_1);
+                .indices(index(DYNAMIC_INDEX_1));
 
         GetMappingsResponse getMappingResponse = client.indices().getMapping(getMappingRequest, RequestOptions.DEFAULT);
         getMappingResponse
@@ -255,7 +202,6 @@ public class ElasticStackBasicTest extends CommonTestClass {
     @DisplayName("다이내믹 템플릿 match, unmatch 조건문 이용")
     @Test
     void create_index_using_dynamic_template_with_match_unmatch() throws Exception {
-        removeIfExistsIndex(DYNAMIC_INDEX_2);
         XContentBuilder builder = XContentFactory.jsonBuilder();
         builder.startObject();
         {
@@ -285,7 +231,7 @@ public class ElasticStackBasicTest extends CommonTestClass {
         }
         builder.endObject();
 
-        CreateIndexRequest createIndexRequest = new CreateIndexRequest(DYNAMIC_INDEX_2)
+        CreateIndexRequest createIndexRequest = new CreateIndexRequest(index(DYNAMIC_INDEX_2))
                 .mapping(builder);
         CreateIndexResponse createIndexResponse = client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
         assertTrue(createIndexResponse.isAcknowledged());
@@ -295,7 +241,7 @@ public class ElasticStackBasicTest extends CommonTestClass {
     @Test
     void indexing_to_dynamic_mapping_index2() throws Exception {
         create_index_using_dynamic_template_with_match_unmatch();
-        IndexRequest indexRequest = new IndexRequest(DYNAMIC_INDEX_2)
+        IndexRequest indexRequest = new IndexRequest(index(DYNAMIC_INDEX_2))
                 .source(Map.of("long_num", 5,
                         "long_text", 170));
 
@@ -351,7 +297,6 @@ public class ElasticStackBasicTest extends CommonTestClass {
     @DisplayName("커스텀 분석기를 적용한 customer_analyzer 인덱스 생성")
     @Test
     void create_index_customer_analyzer() throws Exception {
-        removeIfExistsIndex(CUSTOMER_ANALYZER);
         XContentBuilder builder = XContentFactory.jsonBuilder();
         builder.startObject();
         {
@@ -400,7 +345,7 @@ public class ElasticStackBasicTest extends CommonTestClass {
         builder.endObject();
 
 
-        CreateIndexRequest createIndexRequest = new CreateIndexRequest(CUSTOMER_ANALYZER)
+        CreateIndexRequest createIndexRequest = new CreateIndexRequest(index(CUSTOMER_ANALYZER))
                 .settings(builder);
 
         CreateIndexResponse createIndexResponse = client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
@@ -411,11 +356,152 @@ public class ElasticStackBasicTest extends CommonTestClass {
     @Test
     void analyze_with_my_analyzer() throws Exception {
         create_index_customer_analyzer();
-        AnalyzeRequest analyzeRequest = AnalyzeRequest.withIndexAnalyzer(CUSTOMER_ANALYZER, MY_ANALYZER, "Cats Lions Dogs");
+        AnalyzeRequest analyzeRequest = AnalyzeRequest.withIndexAnalyzer(index(CUSTOMER_ANALYZER), MY_ANALYZER, "Cats Lions Dogs");
         AnalyzeResponse analyzeResponse = client.indices().analyze(analyzeRequest, RequestOptions.DEFAULT);
 
         printAnalyzeResponse(analyzeResponse);
     }
 
+    @DisplayName("클래스패스 템플릿 레지스트리는 변경된 템플릿만 적용한다")
+    @Test
+    void apply_template_registry_only_once(@TempDir Path directory) throws Exception {
+        IndexTemplateProperties indexTemplateProperties = new IndexTemplateProperties();
+        indexTemplateProperties.setLocation(directory.toUri() + "*.json");
+        IndexTemplateRegistry indexTemplateRegistry = new IndexTemplateRegistry(client, indexTemplateProperties, RequestOptions.DEFAULT);
+        Path templateFile = directory.resolve(template(TEST_TEMPLATE) + ".json");
+
+        Files.write(templateFile, templateSource(TEXT));
+        assertEquals(List.of(template(TEST_TEMPLATE)), indexTemplateRegistry.apply());
+        assertTrue(indexTemplateRegistry.apply().isEmpty());
+
+        //TODO version 을 올리지 않고 매핑만 바꿔도 내용이 다르므로 다시 등록한다.
+        Files.write(templateFile, templateSource(KEYWORD));
+        assertEquals(List.of(template(TEST_TEMPLATE)), indexTemplateRegistry.apply());
+        assertTrue(indexTemplateRegistry.apply().isEmpty());
+    }
+
+    private byte[] templateSource(String nameType) throws Exception {
+        XContentBuilder templateBuilder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field(INDEX_PATTERNS, patterns("test_*"))
+                .field("order", 1)
+                .field("version", 1)
+                .startObject(SETTINGS)
+                .field(NUMBER_OF_SHARDS, 3)
+                .field(NUMBER_OF_REPLICAS, 1)
+                .endObject()
+                .startObject(MAPPINGS)
+                .startObject(PROPERTIES)
+                .startObject(NAME)
+                .field(TYPE, nameType)
+                .endObject()
+                .endObject()
+                .endObject()
+                .endObject();
+        return BytesReference.toBytes(BytesReference.bytes(templateBuilder));
+    }
+
+    @DisplayName("여러 텍스트를 한 번의 요청으로 분석")
+    @Test
+    void analyze_many_texts_in_one_request() throws Exception {
+        create_index_customer_analyzer();
+        AnalyzeService analyzeService = new AnalyzeService(client, new AnalyzeProperties(), RequestOptions.DEFAULT, clusterCallGuard());
+        List<String> texts = List.of("Cats Lions Dogs", "", "The Lions of Africa", "lions");
+
+        Map<String, List<String>> batched = analyzeService.analyze(index(CUSTOMER_ANALYZER), MY_ANALYZER, texts);
+
+        for (String text : texts) {
+            AnalyzeRequest analyzeRequest = AnalyzeRequest.withIndexAnalyzer(index(CUSTOMER_ANALYZER), MY_ANALYZER, text);
+            List<String> expected = client.indices()
+                    .analyze(analyzeRequest, RequestOptions.DEFAULT)
+                    .getTokens()
+                    .stream()
+                    .map(AnalyzeResponse.AnalyzeToken::getTerm)
+                    .collect(Collectors.toList());
+            assertEquals(expected, batched.get(text));
+        }
+    }
+
+    @DisplayName("분석기의 offset_gap 을 바꿔도 여러 텍스트를 한 번에 분석한 토큰이 제자리로 나뉜다")
+    @Test
+    void analyze_many_texts_with_custom_offset_gap() throws Exception {
+        Settings settings = Settings.builder()
+                .put("analysis.analyzer." + MY_ANALYZER + ".type", CUSTOM)
+                .put("analysis.analyzer." + MY_ANALYZER + ".tokenizer", STANDARD)
+                .putList("analysis.analyzer." + MY_ANALYZER + ".filter", LOWERCASE)
+                .put("analysis.analyzer." + MY_ANALYZER + ".offset_gap", 10)
+                .build();
+        assertTrue(client.indices().create(new CreateIndexRequest(index(CUSTOMER_ANALYZER)).settings(settings), RequestOptions.DEFAULT).isAcknowledged());
+        AnalyzeService analyzeService = new AnalyzeService(client, new AnalyzeProperties(), RequestOptions.DEFAULT, clusterCallGuard());
+
+        Map<String, List<String>> batched = analyzeService.analyze(index(CUSTOMER_ANALYZER), MY_ANALYZER, List.of("Cats Lions Dogs", "fox", "", "bear"));
+
+        assertEquals(List.of("cats", "lions", "dogs"), batched.get("Cats Lions Dogs"));
+        assertEquals(List.of("fox"), batched.get("fox"));
+        assertEquals(List.of(), batched.get(""));
+        assertEquals(List.of("bear"), batched.get("bear"));
+    }
 
+    @DisplayName("새 매핑의 버전 인덱스로 복사한 뒤 별칭을 원자적으로 옮긴다")
+    @Test
+    void migrate_index_behind_alias(@TempDir Path directory) throws Exception {
+        for (int i = 0; i < 5; i++) {
+            client.index(new IndexRequest(index(DYNAMIC_INDEX_1))
+                    .id(String.valueOf(i))
+                    .source(Map.of(NAME, "kim " + i, AGE, i))
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE), RequestOptions.DEFAULT);
+        }
+        IndexTemplateProperties indexTemplateProperties = new IndexTemplateProperties();
+        indexTemplateProperties.setLocation(directory.toUri() + "*.json");
+        IndexMigrationService indexMigrationService = new IndexMigrationService(client,
+                new IndexTemplateRegistry(client, indexTemplateProperties, RequestOptions.DEFAULT), new IndexMigrationProperties(), RequestOptions.DEFAULT);
+
+        //TODO 새 버전 인덱스에 걸리는 템플릿이 없으면 빈 매핑으로 복사하지 않고 거부한다.
+        assertThrows(IllegalStateException.class, () -> indexMigrationService.migrate(index(DYNAMIC_INDEX_1)));
+        assertFalse(client.indices().exists(new GetIndexRequest(index(DYNAMIC_INDEX_1) + "-v1"), RequestOptions.DEFAULT));
+
+        XContentBuilder templateBuilder = XContentFactory.jsonBuilder()
+                .startObject()
+                .field(INDEX_PATTERNS, patterns(DYNAMIC_INDEX_1 + "-v*"))
+                .field("version", 1)
+                .startObject(SETTINGS)
+                .field(NUMBER_OF_REPLICAS, 0)
+                .endObject()
+                .startObject(MAPPINGS)
+                .startObject(PROPERTIES)
+                .startObject(NAME)
+                .field(TYPE, KEYWORD)
+                .endObject()
+                .endObject()
+                .endObject()
+                .endObject();
+        Files.write(directory.resolve(template(DYNAMIC_INDEX_1) + ".json"), BytesReference.toBytes(BytesReference.bytes(templateBuilder)));
+
+        //TODO 처음에는 별칭이 아니라 같은 이름의 인덱스이므로 그 인덱스를 지우고 같은 이름의 별칭을 건다.
+        IndexMigrationService.Migration migration = indexMigrationService.migrate(index(DYNAMIC_INDEX_1));
+        assertEquals(index(DYNAMIC_INDEX_1) + "-v1", migration.getTargetIndex());
+        assertEquals(5, migration.getDocuments());
+        assertEquals(5, client.count(new CountRequest(index(DYNAMIC_INDEX_1)), RequestOptions.DEFAULT).getCount());
+        MappingMetadata mappingMetadata = client.indices()
+                .getMapping(new GetMappingsRequest().indices(index(DYNAMIC_INDEX_1)), RequestOptions.DEFAULT)
+                .mappings()
+                .get(migration.getTargetIndex());
+        assertEquals(Map.of(TYPE, KEYWORD), ((Map<?, ?>) mappingMetadata.sourceAsMap().get(PROPERTIES)).get(NAME));
+
+        migration = indexMigrationService.migrate(index(DYNAMIC_INDEX_1));
+        assertEquals(index(DYNAMIC_INDEX_1) + "-v1", migration.getSourceIndex());
+        assertEquals(index(DYNAMIC_INDEX_1) + "-v2", migration.getTargetIndex());
+        Set<String> aliased = client.indices()
+                .getAlias(new GetAliasesRequest(index(DYNAMIC_INDEX_1)), RequestOptions.DEFAULT)
+                .getAliases()
+                .keySet();
+        assertEquals(Set.of(migration.getTargetIndex()), aliased);
+        assertEquals(5, client.count(new CountRequest(index(DYNAMIC_INDEX_1)), RequestOptions.DEFAULT).getCount());
+
+        //TODO 원본 인덱스를 남겨 두면 복사 동안 걸었던 쓰기 차단은 풀려 있어야 한다.
+        String blocksWrite = client.indices()
+                .getSettings(new GetSettingsRequest().indices(migration.getSourceIndex()), RequestOptions.DEFAULT)
+                .getSetting(migration.getSourceIndex(), "index.blocks.write");
+        assertNotEquals("true", blocksWrite);
+    }
 }
@@ -0,0 +1,51 @@
+package com.gravylab.elasticstack.client;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Stats;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AggregationParsersTest {
+
+    private static final String RESPONSE = "{"
+            + "\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":3,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]},"
+            + "\"aggregations\":{"
+            + "\"sterms#days\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,"
+            + "\"buckets\":[{\"key\":\"Friday\",\"doc_count\":2},{\"key\":\"Monday\",\"doc_count\":1}]},"
+            + "\"date_histogram#orders\":{\"buckets\":[{\"key_as_string\":\"2021-01-01\",\"key\":1609459200000,\"doc_count\":3}]},"
+            + "\"stats#price\":{\"count\":3,\"min\":1.0,\"max\":3.0,\"avg\":2.0,\"sum\":6.0},"
+            + "\"composite#pages\":{\"after_key\":{\"day\":\"Monday\"},"
+            + "\"buckets\":[{\"key\":{\"day\":\"Friday\"},\"doc_count\":2},{\"key\":{\"day\":\"Monday\"},\"doc_count\":1}]}"
+            + "}}";
+
+    @DisplayName("typed_keys 로 받은 집계 결과를 종류별 타입으로 읽는다")
+    @Test
+    void parse_typed_keys_aggregations() throws Exception {
+        SearchResponse searchResponse;
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(
+                AggregationParsers.createRegistry(), DeprecationHandler.THROW_UNSUPPORTED_OPERATION, RESPONSE)) {
+            searchResponse = SearchResponse.fromXContent(parser);
+        }
+
+        Terms days = searchResponse.getAggregations().get("days");
+        assertEquals(2, days.getBucketByKey("Friday").getDocCount());
+        Histogram orders = searchResponse.getAggregations().get("orders");
+        assertEquals(3, orders.getBuckets().get(0).getDocCount());
+        Stats price = searchResponse.getAggregations().get("price");
+        assertEquals(6.0, price.getSum());
+        CompositeAggregation pages = searchResponse.getAggregations().get("pages");
+        assertEquals(Map.of("day", "Monday"), pages.afterKey());
+    }
+}
@@ -0,0 +1,165 @@
+package com.gravylab.elasticstack.client;
+
+import com.gravylab.elasticstack.metrics.ElasticsearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterCallGuardTest {
+
+    private static final long LATENCY_THRESHOLD = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(3, TimeUnit.SECONDS.toNanos(5), clock::get);
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter(4, 1, 8, 0.5, LATENCY_THRESHOLD);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ClusterCallGuard clusterCallGuard = new ClusterCallGuard(circuitBreaker, concurrencyLimiter, new ElasticsearchMetrics(meterRegistry));
+
+    @DisplayName("한도를 넘는 호출은 기다리지 않고 바로 거절한다")
+    @Test
+    void reject_calls_over_concurrency_limit() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(concurrencyLimiter.tryAcquire());
+        }
+
+        AtomicReference<Exception> rejected = new AtomicReference<>();
+        clusterCallGuard.execute(listener -> {
+            throw new AssertionError("must not be called");
+        }, ActionListener.wrap(response -> {
+        }, rejected::set));
+
+        assertTrue(rejected.get() instanceof EsRejectedExecutionException);
+        assertEquals(4, clusterCallGuard.getInFlight());
+    }
+
+    @DisplayName("빠른 응답에는 한도를 늘리고 429 에는 한 번에 줄인다")
+    @Test
+    void increase_additively_and_decrease_multiplicatively() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(concurrencyLimiter.tryAcquire());
+        }
+        concurrencyLimiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(4, concurrencyLimiter.getLimit());
+
+        //TODO 한도만큼 성공해야 한도가 1 늘어난다.
+        for (int i = 0; i < 4; i++) {
+            assertTrue(concurrencyLimiter.tryAcquire());
+            concurrencyLimiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertEquals(5, concurrencyLimiter.getLimit());
+
+        concurrencyLimiter.onDropped();
+        assertEquals(2, concurrencyLimiter.getLimit());
+
+        concurrencyLimiter.onSuccess(LATENCY_THRESHOLD + 1);
+        assertEquals(1, concurrencyLimiter.getLimit());
+    }
+
+    @DisplayName("리스너가 onResponse 에서 예외를 던져 onFailure 가 다시 불려도 자리는 한 번만 돌려준다")
+    @Test
+    void release_once_when_listener_throws() {
+        AtomicReference<ActionListener<String>> client = new AtomicReference<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        clusterCallGuard.execute(listener -> {
+            client.set(listener);
+            return null;
+        }, new ActionListener<String>() {
+            @Override
+            public void onResponse(String response) {
+                throw new IllegalStateException("listener bug");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failure.set(e);
+            }
+        });
+        assertEquals(1, clusterCallGuard.getInFlight());
+
+        try {
+            client.get().onResponse("ok");
+        } catch (IllegalStateException e) {
+            client.get().onFailure(e);
+        }
+        assertEquals(0, clusterCallGuard.getInFlight());
+        assertEquals(4, clusterCallGuard.getConcurrencyLimit());
+        assertNull(failure.get());
+    }
+
+    @DisplayName("호출이 요청을 보내기 전에 바로 예외를 던지면 자리를 돌려주고 실패로 알린다")
+    @Test
+    void release_when_call_throws_synchronously() {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        clusterCallGuard.execute(listener -> {
+            throw new IllegalArgumentException("invalid request");
+        }, ActionListener.wrap(response -> {
+        }, failure::set));
+
+        assertTrue(failure.get() instanceof IllegalArgumentException);
+        assertEquals(0, clusterCallGuard.getInFlight());
+    }
+
+    @DisplayName("과부하 신호가 연속되면 회로를 열고, 시간이 지나면 시험 요청 하나만 통과시킨다")
+    @Test
+    void open_circuit_after_consecutive_overloads() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertThrows(ElasticsearchStatusException.class, () -> clusterCallGuard.call(() -> {
+                throw new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS);
+            }));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, clusterCallGuard.getCircuitState());
+        assertThrows(EsRejectedExecutionException.class, () -> clusterCallGuard.call(() -> "ok"));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertTrue(circuitBreaker.tryAcquire());
+        assertFalse(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess();
+
+        assertEquals("ok", clusterCallGuard.call(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, clusterCallGuard.getCircuitState());
+    }
+
+    @DisplayName("응답 없이 실패한 호출은 예외 종류별로 기록하고, 응답을 받은 실패는 기록하지 않는다")
+    @Test
+    void record_transport_failures() {
+        assertThrows(ConnectException.class, () -> clusterCallGuard.call(() -> {
+            throw new ConnectException("Connection refused");
+        }));
+        assertThrows(ElasticsearchStatusException.class, () -> clusterCallGuard.call(() -> {
+            throw new ElasticsearchStatusException("missing", RestStatus.NOT_FOUND);
+        }));
+
+        assertEquals(1, meterRegistry.get(ElasticsearchMetrics.CLIENT_TRANSPORT_FAILURES).timers().size());
+        assertEquals(1, meterRegistry.get(ElasticsearchMetrics.CLIENT_TRANSPORT_FAILURES)
+                .tag("exception", ConnectException.class.getSimpleName())
+                .timer()
+                .count());
+    }
+
+    @DisplayName("429/503 과 연결 실패만 과부하로 본다")
+    @Test
+    void classify_overload_failures() {
+        assertTrue(ClusterCallGuard.isOverload(new ElasticsearchStatusException("busy", RestStatus.SERVICE_UNAVAILABLE)));
+        assertTrue(ClusterCallGuard.isOverload(new ConnectException("Connection refused")));
+        assertFalse(ClusterCallGuard.isOverload(new ElasticsearchStatusException("missing", RestStatus.NOT_FOUND)));
+        assertFalse(ClusterCallGuard.isOverload(new IllegalArgumentException()));
+        assertTrue(ClusterCallGuard.isOverload(new IOException("timeout")));
+        assertTrue(ClusterCallGuard.isOverload(new EsRejectedExecutionException("rejected by concurrency limit [4]", false)));
+    }
+}
@@ -0,0 +1,109 @@
+package com.gravylab.elasticstack.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LatencyAwareNodeSelectorTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final LatencyAwareNodeSelector nodeSelector = new LatencyAwareNodeSelector(0.5, 3.0, Duration.ofSeconds(10), clock::get);
+
+    private final Node es01 = node("es01", "data", "ingest", "master");
+    private final Node es02 = node("es02", "data", "ingest");
+    private final Node es03 = node("es03", "master");
+
+    @DisplayName("마스터 전용 노드는 후보에서 제외한다")
+    @Test
+    void skip_dedicated_master_nodes() {
+        assertEquals(List.of("es01", "es02"), select(es01, es02, es03));
+    }
+
+    @DisplayName("마스터 전용 노드만 남으면 그대로 둔다")
+    @Test
+    void keep_master_nodes_when_no_data_node() {
+        assertEquals(List.of("es03"), select(es03));
+    }
+
+    @DisplayName("평균 응답 시간이 가장 빠른 노드보다 크게 느린 노드는 제외한다")
+    @Test
+    void skip_slow_nodes() {
+        nodeSelector.record(es01.getHost(), TimeUnit.MILLISECONDS.toNanos(5));
+        nodeSelector.record(es02.getHost(), TimeUnit.MILLISECONDS.toNanos(200));
+
+        assertEquals(List.of("es01"), select(es01, es02, es03));
+    }
+
+    @DisplayName("제외된 느린 노드는 요청 수와 상관없이 retry-interval 이 지나야 다시 후보가 된다")
+    @Test
+    void retry_slow_nodes_after_interval() {
+        nodeSelector.record(es01.getHost(), TimeUnit.MILLISECONDS.toNanos(5));
+        nodeSelector.record(es02.getHost(), TimeUnit.MILLISECONDS.toNanos(200));
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(List.of("es01"), select(es01, es02));
+        }
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(List.of("es01"), select(es01, es02));
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(List.of("es01", "es02"), select(es01, es02));
+        assertNull(nodeSelector.getLatency(es02.getHost()));
+
+        //TODO 다시 시도한 응답이 여전히 느리면 그 값이 새 평균이 되어 바로 다시 제외된다.
+        nodeSelector.record(es02.getHost(), TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(List.of("es01"), select(es01, es02));
+    }
+
+    @DisplayName("검색 요청의 응답 시간만 기록한다")
+    @Test
+    void record_search_latencies_only() {
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(30), exchange(es01, "/kibana_sample_data_ecommerce/_search?typed_keys=true", 30));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(30), exchange(es02, "/_msearch", 30));
+
+        assertNull(exchange(es03, "/_bulk", 30));
+        assertNull(exchange(es03, "/_tasks/node:1", 30));
+        assertNull(exchange(es03, "/_reindex", 30));
+    }
+
+    private Double exchange(Node node, String uri, long latencyMillis) {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, node.getHost());
+        nodeSelector.process(new BasicHttpRequest("POST", uri), context);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        nodeSelector.process(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"), context);
+        return nodeSelector.getLatency(node.getHost());
+    }
+
+    private List<String> select(Node... nodes) {
+        List<Node> candidates = new ArrayList<>(List.of(nodes));
+        nodeSelector.select(candidates);
+        return candidates.stream()
+                .map(Node::getName)
+                .collect(Collectors.toList());
+    }
+
+    private static Node node(String name, String... roles) {
+        HttpHost host = HttpHost.create(name + ":9200");
+        return new Node(host, Set.of(host), name, "7.12.0", new Node.Roles(Set.of(roles)), Map.of());
+    }
+}
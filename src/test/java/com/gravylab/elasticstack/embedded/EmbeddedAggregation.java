@@ -0,0 +1,374 @@
+package com.gravylab.elasticstack.embedded;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+//TODO typed_keys 응답 형식(sterms#이름, date_histogram#이름 ...)으로 집계 결과를 만든다.
+// 샤드가 하나뿐이므로 doc_count_error_upper_bound 는 항상 0 이다.
+class EmbeddedAggregation {
+
+    private static final DateTimeFormatter KEY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    private EmbeddedAggregation() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> aggregate(Map<String, Object> aggregations, List<EmbeddedElasticsearch.Hit> hits) {
+        Map<String, Object> results = new LinkedHashMap<>();
+        aggregations.forEach((name, value) -> {
+            Map<String, Object> definition = (Map<String, Object>) value;
+            Map<String, Object> subAggregations = (Map<String, Object>) definition.getOrDefault("aggregations", definition.get("aggs"));
+            for (Map.Entry<String, Object> entry : definition.entrySet()) {
+                if (entry.getKey().equals("aggregations") || entry.getKey().equals("aggs") || entry.getKey().equals("meta")) {
+                    continue;
+                }
+                Map<String, Object> body = (Map<String, Object>) entry.getValue();
+                switch (entry.getKey()) {
+                    case "terms":
+                        putTyped(results, name, terms(body, hits, subAggregations));
+                        break;
+                    case "date_histogram":
+                        results.put("date_histogram#" + name, dateHistogram(body, hits, subAggregations));
+                        break;
+                    case "composite":
+                        results.put("composite#" + name, composite(body, hits, subAggregations));
+                        break;
+                    case "stats":
+                        results.put("stats#" + name, stats(numbers(hits, (String) body.get("field"))));
+                        break;
+                    case "avg":
+                    case "sum":
+                    case "min":
+                    case "max":
+                        results.put(entry.getKey() + "#" + name, Map.of("value", metric(entry.getKey(), numbers(hits, (String) body.get("field")))));
+                        break;
+                    case "value_count":
+                        results.put("value_count#" + name, Map.of("value", values(hits, (String) body.get("field")).size()));
+                        break;
+                    case "cardinality":
+                        results.put("cardinality#" + name, Map.of("value", new HashSet<>(values(hits, (String) body.get("field"))).size()));
+                        break;
+                    default:
+                        throw new EmbeddedElasticsearch.EmbeddedException(400, "parsing_exception", "unknown aggregation type [" + entry.getKey() + "]");
+                }
+            }
+        });
+        return results;
+    }
+
+    private static void putTyped(Map<String, Object> results, String name, Map<String, Object> terms) {
+        String type = (String) terms.remove("_type");
+        results.put(type + "#" + name, terms);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> terms(Map<String, Object> body, List<EmbeddedElasticsearch.Hit> hits, Map<String, Object> subAggregations) {
+        String field = (String) body.get("field");
+        int size = ((Number) body.getOrDefault("size", 10)).intValue();
+        Map<Object, List<EmbeddedElasticsearch.Hit>> groups = new LinkedHashMap<>();
+        for (EmbeddedElasticsearch.Hit hit : hits) {
+            for (Object value : new HashSet<>(values(List.of(hit), field))) {
+                groups.computeIfAbsent(value, key -> new ArrayList<>()).add(hit);
+            }
+        }
+        List<Map.Entry<Object, List<EmbeddedElasticsearch.Hit>>> sorted = new ArrayList<>(groups.entrySet());
+        sorted.sort(Comparator.<Map.Entry<Object, List<EmbeddedElasticsearch.Hit>>>comparingInt(entry -> entry.getValue().size())
+                .reversed()
+                .thenComparing(Map.Entry::getKey, EmbeddedAggregation::compareKeys));
+
+        List<Map<String, Object>> buckets = new ArrayList<>();
+        long otherDocCount = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i >= size) {
+                otherDocCount += sorted.get(i).getValue().size();
+                continue;
+            }
+            buckets.add(bucket(sorted.get(i).getKey(), sorted.get(i).getValue(), subAggregations));
+        }
+
+        Object sample = groups.isEmpty() ? "" : groups.keySet().iterator().next();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("_type", sample instanceof Double || sample instanceof Float ? "dterms"
+                : sample instanceof Number ? "lterms" : "sterms");
+        result.put("doc_count_error_upper_bound", 0);
+        result.put("sum_other_doc_count", otherDocCount);
+        result.put("buckets", buckets);
+        return result;
+    }
+
+    private static Map<String, Object> dateHistogram(Map<String, Object> body, List<EmbeddedElasticsearch.Hit> hits, Map<String, Object> subAggregations) {
+        String field = (String) body.get("field");
+        String interval = interval(body);
+        TreeMap<Long, List<EmbeddedElasticsearch.Hit>> groups = new TreeMap<>();
+        for (EmbeddedElasticsearch.Hit hit : hits) {
+            for (Object value : values(List.of(hit), field)) {
+                groups.computeIfAbsent(round(((Number) value).longValue(), interval), key -> new ArrayList<>()).add(hit);
+            }
+        }
+        int minDocCount = ((Number) body.getOrDefault("min_doc_count", 0)).intValue();
+        if (minDocCount == 0 && !groups.isEmpty()) {
+            for (long key = groups.firstKey(); key < groups.lastKey(); key = next(key, interval)) {
+                groups.putIfAbsent(key, new ArrayList<>());
+            }
+        }
+
+        List<Map<String, Object>> buckets = new ArrayList<>();
+        groups.forEach((key, bucketHits) -> {
+            if (bucketHits.size() >= minDocCount) {
+                Map<String, Object> bucket = new LinkedHashMap<>();
+                bucket.put("key_as_string", KEY_FORMAT.format(Instant.ofEpochMilli(key).atOffset(ZoneOffset.UTC)));
+                bucket.putAll(bucket(key, bucketHits, subAggregations));
+                buckets.add(bucket);
+            }
+        });
+        return Map.of("buckets", buckets);
+    }
+
+    //TODO sources 순서대로 키를 만들고 키의 사전 순으로 정렬한 뒤 after 이후의 버킷만 size 만큼 돌려준다.
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> composite(Map<String, Object> body, List<EmbeddedElasticsearch.Hit> hits, Map<String, Object> subAggregations) {
+        int size = ((Number) body.getOrDefault("size", 10)).intValue();
+        List<Map.Entry<String, Object>> sources = new ArrayList<>();
+        for (Object source : (Collection<Object>) body.get("sources")) {
+            sources.addAll(((Map<String, Object>) source).entrySet());
+        }
+
+        TreeMap<List<Object>, List<EmbeddedElasticsearch.Hit>> groups = new TreeMap<>(EmbeddedAggregation::compareCompositeKeys);
+        for (EmbeddedElasticsearch.Hit hit : hits) {
+            List<List<Object>> keys = new ArrayList<>();
+            keys.add(new ArrayList<>());
+            for (Map.Entry<String, Object> source : sources) {
+                Map.Entry<String, Object> typed = ((Map<String, Object>) source.getValue()).entrySet().iterator().next();
+                Map<String, Object> sourceBody = (Map<String, Object>) typed.getValue();
+                List<Object> values = values(List.of(hit), (String) sourceBody.get("field"));
+                if ("date_histogram".equals(typed.getKey())) {
+                    String interval = interval(sourceBody);
+                    values.replaceAll(value -> round(((Number) value).longValue(), interval));
+                }
+                List<List<Object>> expanded = new ArrayList<>();
+                for (List<Object> key : keys) {
+                    for (Object value : new HashSet<>(values)) {
+                        List<Object> next = new ArrayList<>(key);
+                        next.add(value);
+                        expanded.add(next);
+                    }
+                }
+                keys = expanded;
+            }
+            keys.forEach(key -> groups.computeIfAbsent(key, ignored -> new ArrayList<>()).add(hit));
+        }
+
+        Map<String, Object> after = (Map<String, Object>) body.get("after");
+        List<Map<String, Object>> buckets = new ArrayList<>();
+        Map<String, Object> afterKey = null;
+        for (Map.Entry<List<Object>, List<EmbeddedElasticsearch.Hit>> group : groups.entrySet()) {
+            if (after != null) {
+                List<Object> afterValues = new ArrayList<>();
+                sources.forEach(source -> afterValues.add(after.get(source.getKey())));
+                if (compareCompositeKeys(group.getKey(), afterValues) <= 0) {
+                    continue;
+                }
+            }
+            if (buckets.size() == size) {
+                break;
+            }
+            Map<String, Object> key = new LinkedHashMap<>();
+            for (int i = 0; i < sources.size(); i++) {
+                key.put(sources.get(i).getKey(), group.getKey().get(i));
+            }
+            Map<String, Object> bucket = new LinkedHashMap<>();
+            bucket.put("key", key);
+            bucket.put("doc_count", group.getValue().size());
+            if (subAggregations != null) {
+                bucket.putAll(aggregate(subAggregations, group.getValue()));
+            }
+            buckets.add(bucket);
+            afterKey = key;
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (afterKey != null) {
+            result.put("after_key", afterKey);
+        }
+        result.put("buckets", buckets);
+        return result;
+    }
+
+    private static Map<String, Object> bucket(Object key, List<EmbeddedElasticsearch.Hit> hits, Map<String, Object> subAggregations) {
+        Map<String, Object> bucket = new LinkedHashMap<>();
+        bucket.put("key", key);
+        bucket.put("doc_count", hits.size());
+        if (subAggregations != null) {
+            bucket.putAll(aggregate(subAggregations, hits));
+        }
+        return bucket;
+    }
+
+    private static Map<String, Object> stats(List<Double> numbers) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("count", numbers.size());
+        stats.put("min", metric("min", numbers));
+        stats.put("max", metric("max", numbers));
+        stats.put("avg", metric("avg", numbers));
+        stats.put("sum", metric("sum", numbers));
+        return stats;
+    }
+
+    private static Double metric(String type, List<Double> numbers) {
+        if (numbers.isEmpty()) {
+            return "sum".equals(type) ? 0.0 : null;
+        }
+        switch (type) {
+            case "min":
+                return numbers.stream().mapToDouble(Double::doubleValue).min().getAsDouble();
+            case "max":
+                return numbers.stream().mapToDouble(Double::doubleValue).max().getAsDouble();
+            case "avg":
+                return numbers.stream().mapToDouble(Double::doubleValue).average().getAsDouble();
+            default:
+                return numbers.stream().mapToDouble(Double::doubleValue).sum();
+        }
+    }
+
+    private static List<Double> numbers(List<EmbeddedElasticsearch.Hit> hits, String field) {
+        List<Double> numbers = new ArrayList<>();
+        for (Object value : values(hits, field)) {
+            if (value instanceof Number) {
+                numbers.add(((Number) value).doubleValue());
+            }
+        }
+        return numbers;
+    }
+
+    //TODO 날짜 필드는 epoch millis 로, 나머지는 _source 값 그대로 돌려준다.
+    private static List<Object> values(List<EmbeddedElasticsearch.Hit> hits, String field) {
+        List<Object> values = new ArrayList<>();
+        for (EmbeddedElasticsearch.Hit hit : hits) {
+            EmbeddedIndex.Field mapping = hit.index.field(field);
+            for (Object value : EmbeddedQuery.values(hit.document.source, mapping.sourcePath)) {
+                values.add(mapping.isDate() ? EmbeddedIndex.parseDate(value) : value);
+            }
+        }
+        values.removeIf(value -> value == null);
+        return values;
+    }
+
+    private static String interval(Map<String, Object> body) {
+        for (String key : List.of("calendar_interval", "fixed_interval", "interval")) {
+            if (body.get(key) != null) {
+                return String.valueOf(body.get(key));
+            }
+        }
+        return "1d";
+    }
+
+    private static long round(long millis, String interval) {
+        ZonedDateTime time = Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC);
+        switch (interval) {
+            case "minute":
+            case "1m":
+                return time.truncatedTo(ChronoUnit.MINUTES).toInstant().toEpochMilli();
+            case "hour":
+            case "1h":
+                return time.truncatedTo(ChronoUnit.HOURS).toInstant().toEpochMilli();
+            case "day":
+            case "1d":
+                return time.truncatedTo(ChronoUnit.DAYS).toInstant().toEpochMilli();
+            case "week":
+            case "1w":
+                return time.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toInstant().toEpochMilli();
+            case "month":
+            case "1M":
+                return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).toInstant().toEpochMilli();
+            case "quarter":
+            case "1q":
+                return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).withMonth((time.getMonthValue() - 1) / 3 * 3 + 1).toInstant().toEpochMilli();
+            case "year":
+            case "1y":
+                return time.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1).toInstant().toEpochMilli();
+            default:
+                long fixed = fixedMillis(interval);
+                return Math.floorDiv(millis, fixed) * fixed;
+        }
+    }
+
+    private static long next(long key, String interval) {
+        ZonedDateTime time = Instant.ofEpochMilli(key).atZone(ZoneOffset.UTC);
+        switch (interval) {
+            case "week":
+            case "1w":
+                return time.plusWeeks(1).toInstant().toEpochMilli();
+            case "month":
+            case "1M":
+                return time.plusMonths(1).toInstant().toEpochMilli();
+            case "quarter":
+            case "1q":
+                return time.plusMonths(3).toInstant().toEpochMilli();
+            case "year":
+            case "1y":
+                return time.plusYears(1).toInstant().toEpochMilli();
+            case "minute":
+                return key + 60_000L;
+            case "hour":
+                return key + 3_600_000L;
+            case "day":
+                return key + 86_400_000L;
+            default:
+                return key + fixedMillis(interval);
+        }
+    }
+
+    private static long fixedMillis(String interval) {
+        long amount = Long.parseLong(interval.replaceAll("[^0-9]", ""));
+        String unit = interval.replaceAll("[0-9]", "");
+        switch (unit) {
+            case "ms":
+                return amount;
+            case "s":
+                return amount * 1_000L;
+            case "m":
+                return amount * 60_000L;
+            case "h":
+                return amount * 3_600_000L;
+            default:
+                return amount * 86_400_000L;
+        }
+    }
+
+    private static int compareCompositeKeys(List<Object> left, List<Object> right) {
+        for (int i = 0; i < left.size() && i < right.size(); i++) {
+            int result = compareKeys(left.get(i), right.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(left.size(), right.size());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareKeys(Object left, Object right) {
+        if (left == null || right == null) {
+            return left == null ? (right == null ? 0 : -1) : 1;
+        }
+        if (left instanceof Number && right instanceof Number) {
+            return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+        }
+        if (left instanceof Comparable && left.getClass().equals(right.getClass())) {
+            return ((Comparable) left).compareTo(right);
+        }
+        return String.valueOf(left).compareTo(String.valueOf(right));
+    }
+}
@@ -0,0 +1,205 @@
+package com.gravylab.elasticstack.embedded;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//TODO 실제 Lucene 분석기를 단순하게 흉내낸다. standard, simple, whitespace, stop, keyword 분석기와
+// standard, letter, lowercase, whitespace, keyword, uax_url_email 토크나이저, lowercase, uppercase, stop 필터를 지원한다.
+class EmbeddedAnalyzer {
+
+    static final Set<String> ENGLISH_STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it",
+            "no", "not", "of", "on", "or", "such", "that", "the", "their", "then", "there", "these",
+            "they", "this", "to", "was", "will", "with"
+    );
+
+    static final EmbeddedAnalyzer STANDARD = new EmbeddedAnalyzer("standard", List.of(TokenFilter.LOWERCASE));
+    static final EmbeddedAnalyzer KEYWORD = new EmbeddedAnalyzer("keyword", Collections.emptyList());
+
+    private static final int POSITION_INCREMENT_GAP = 100;
+    private static final int OFFSET_GAP = 1;
+    private static final Pattern UAX_URL_EMAIL = Pattern.compile(
+            "[\\w.+-]+@[\\w-]+(?:\\.[\\w-]+)+|https?://[^\\s]+|[\\p{L}\\p{N}_]+(?:['.][\\p{L}\\p{N}_]+)*"
+    );
+    private static final Pattern STANDARD_TOKEN = Pattern.compile("[\\p{L}\\p{N}_]+(?:['.][\\p{L}\\p{N}_]+)*");
+    private static final Pattern LETTERS = Pattern.compile("\\p{L}+");
+    private static final Pattern NON_WHITESPACE = Pattern.compile("\\S+");
+
+    private final String tokenizer;
+    private final List<TokenFilter> filters;
+    private final int positionIncrementGap;
+    private final int offsetGap;
+
+    EmbeddedAnalyzer(String tokenizer, List<TokenFilter> filters) {
+        this(tokenizer, filters, POSITION_INCREMENT_GAP, OFFSET_GAP);
+    }
+
+    EmbeddedAnalyzer(String tokenizer, List<TokenFilter> filters, int positionIncrementGap, int offsetGap) {
+        this.tokenizer = tokenizer;
+        this.filters = filters;
+        this.positionIncrementGap = positionIncrementGap;
+        this.offsetGap = offsetGap;
+    }
+
+    static EmbeddedAnalyzer builtIn(String name) {
+        switch (name) {
+            case "standard":
+            case "english":
+                return STANDARD;
+            case "simple":
+                return new EmbeddedAnalyzer("lowercase", Collections.emptyList());
+            case "whitespace":
+                return new EmbeddedAnalyzer("whitespace", Collections.emptyList());
+            case "stop":
+                return new EmbeddedAnalyzer("lowercase", List.of(TokenFilter.stop(ENGLISH_STOP_WORDS)));
+            case "keyword":
+                return KEYWORD;
+            default:
+                return null;
+        }
+    }
+
+    List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        analyze(List.of(text)).forEach(token -> terms.add(token.term));
+        return terms;
+    }
+
+    List<Token> analyze(Collection<String> texts) {
+        List<Token> tokens = new ArrayList<>();
+        int lastPosition = -1;
+        int lastOffset = 0;
+        for (String text : texts) {
+            for (Token token : tokenize(text)) {
+                String term = token.term;
+                for (TokenFilter filter : filters) {
+                    term = filter.apply(term);
+                    if (term == null) {
+                        break;
+                    }
+                }
+                lastPosition++;
+                if (term != null) {
+                    tokens.add(new Token(term, lastOffset + token.startOffset, lastOffset + token.endOffset, token.type, lastPosition));
+                }
+            }
+            lastOffset += text.length() + offsetGap;
+            lastPosition += positionIncrementGap;
+        }
+        return tokens;
+    }
+
+    private List<Token> tokenize(String text) {
+        switch (tokenizer) {
+            case "keyword":
+                return List.of(new Token(text, 0, text.length(), "word", 0));
+            case "whitespace":
+                return match(NON_WHITESPACE, text, "word");
+            case "letter":
+                return match(LETTERS, text, "word");
+            case "lowercase":
+                List<Token> tokens = match(LETTERS, text, "word");
+                tokens.replaceAll(token -> new Token(token.term.toLowerCase(Locale.ROOT), token.startOffset, token.endOffset, token.type, 0));
+                return tokens;
+            case "uax_url_email":
+                return match(UAX_URL_EMAIL, text, "<ALPHANUM>");
+            default:
+                return match(STANDARD_TOKEN, text, "<ALPHANUM>");
+        }
+    }
+
+    private static List<Token> match(Pattern pattern, String text, String type) {
+        List<Token> tokens = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            tokens.add(new Token(matcher.group(), matcher.start(), matcher.end(), type, 0));
+        }
+        return tokens;
+    }
+
+    @SuppressWarnings("unchecked")
+    static EmbeddedAnalyzer custom(Map<String, Object> definition, Map<String, Object> analysis) {
+        Object tokenizerDefinition = definition.getOrDefault("tokenizer", "standard");
+        String tokenizer = tokenizerDefinition instanceof Map
+                ? String.valueOf(((Map<String, Object>) tokenizerDefinition).get("type"))
+                : String.valueOf(tokenizerDefinition);
+        List<TokenFilter> filters = new ArrayList<>();
+        Object filterNames = definition.getOrDefault("filter", Collections.emptyList());
+        Map<String, Object> customFilters = analysis == null
+                ? Collections.emptyMap()
+                : (Map<String, Object>) analysis.getOrDefault("filter", Collections.emptyMap());
+        for (Object filterName : filterNames instanceof Collection ? (Collection<?>) filterNames : List.of(filterNames)) {
+            Object custom = filterName instanceof Map ? filterName : customFilters.get(String.valueOf(filterName));
+            filters.add(custom instanceof Map
+                    ? TokenFilter.custom((Map<String, Object>) custom)
+                    : TokenFilter.builtIn(String.valueOf(filterName)));
+        }
+        return new EmbeddedAnalyzer(tokenizer, filters,
+                Integer.parseInt(String.valueOf(definition.getOrDefault("position_increment_gap", POSITION_INCREMENT_GAP))),
+                Integer.parseInt(String.valueOf(definition.getOrDefault("offset_gap", OFFSET_GAP))));
+    }
+
+    interface TokenFilter {
+
+        TokenFilter LOWERCASE = term -> term.toLowerCase(Locale.ROOT);
+        TokenFilter UPPERCASE = term -> term.toUpperCase(Locale.ROOT);
+        TokenFilter IDENTITY = term -> term;
+
+        String apply(String term);
+
+        static TokenFilter stop(Set<String> stopWords) {
+            return term -> stopWords.contains(term) ? null : term;
+        }
+
+        static TokenFilter builtIn(String name) {
+            switch (name) {
+                case "lowercase":
+                    return LOWERCASE;
+                case "uppercase":
+                    return UPPERCASE;
+                case "stop":
+                    return stop(ENGLISH_STOP_WORDS);
+                default:
+                    return IDENTITY;
+            }
+        }
+
+        static TokenFilter custom(Map<String, Object> definition) {
+            if (!"stop".equals(definition.get("type"))) {
+                return builtIn(String.valueOf(definition.get("type")));
+            }
+            Object stopWords = definition.getOrDefault("stopwords", "_english_");
+            if (stopWords instanceof Collection) {
+                Set<String> words = new HashSet<>();
+                ((Collection<?>) stopWords).forEach(word -> words.add(String.valueOf(word)));
+                return stop(words);
+            }
+            return stop(ENGLISH_STOP_WORDS);
+        }
+    }
+
+    static class Token {
+
+        final String term;
+        final int startOffset;
+        final int endOffset;
+        final String type;
+        final int position;
+
+        Token(String term, int startOffset, int endOffset, String type, int position) {
+            this.term = term;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.type = type;
+            this.position = position;
+        }
+    }
+}
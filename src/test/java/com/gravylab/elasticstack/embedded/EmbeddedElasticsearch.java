@@ -0,0 +1,1410 @@
+package com.gravylab.elasticstack.embedded;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+//TODO 도커로 띄운 실제 클러스터 대신 테스트 JVM 안에서 동작하는 Elasticsearch REST API 대역이다.
+// 테스트가 쓰는 엔드포인트만 흉내내며, 쓰기는 refresh 없이 바로 검색에 보인다.
+public class EmbeddedElasticsearch implements Closeable {
+
+    public static final String SAMPLE_ECOMMERCE = "kibana_sample_data_ecommerce";
+    public static final String SAMPLE_FLIGHTS = "kibana_sample_data_flights";
+
+    private static final int DEFAULT_SIZE = 10;
+    private static final Pattern MUSTACHE_VARIABLE = Pattern.compile("\\{\\{#toJson}}\\s*([\\w.]+)\\s*\\{\\{/toJson}}|\\{\\{\\s*([\\w.]+)\\s*}}");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    private final Map<String, EmbeddedIndex> indices = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> templates = new LinkedHashMap<>();
+    private final Map<String, List<EmbeddedIndex>> pointInTimes = new HashMap<>();
+    private final Map<String, ScrollContext> scrolls = new HashMap<>();
+    private final Map<String, String> scripts = new HashMap<>();
+    private final Map<String, Map<String, Object>> tasks = new HashMap<>();
+    private final Map<String, Integer> rejectedBulkItems = new HashMap<>();
+    private final Map<String, Integer> rejectedBulkRequests = new HashMap<>();
+    private final Map<String, Integer> requestCounts = new HashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private long seqNo;
+    private long taskSeqNo;
+
+    private EmbeddedElasticsearch() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "embedded-elasticsearch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    public static EmbeddedElasticsearch start() {
+        try {
+            EmbeddedElasticsearch embeddedElasticsearch = new EmbeddedElasticsearch();
+            embeddedElasticsearch.loadSampleData(SAMPLE_ECOMMERCE);
+            embeddedElasticsearch.loadSampleData(SAMPLE_FLIGHTS);
+            embeddedElasticsearch.server.start();
+            return embeddedElasticsearch;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String getHttpHostAddress() {
+        return server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    //TODO 쓰기 스레드풀이 가득 찬 상황을 흉내낸다. index 로 가는 다음 count 개의 벌크 아이템을 429 로 거절한다.
+    // 테스트가 병렬로 돌기 때문에 거절과 요청 수 집계는 인덱스 단위로 나눈다.
+    public synchronized void rejectBulkItems(String index, int count) {
+        rejectedBulkItems.put(index, count);
+    }
+
+    //TODO 코디네이팅 노드가 벌크 요청 자체를 429 로 거절하는 상황. index 를 포함한 다음 count 개의 벌크 요청을 통째로 거절한다.
+    public synchronized void rejectBulkRequests(String index, int count) {
+        rejectedBulkRequests.put(index, count);
+    }
+
+    //TODO endpoint(_bulk, _msearch, _search 등) 요청 중 index 를 대상으로 한 요청 수.
+    public synchronized int getRequestCount(String endpoint, String index) {
+        return requestCounts.getOrDefault(endpoint + " " + index, 0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void loadSampleData(String index) throws IOException {
+        InputStream inputStream = getClass().getClassLoader().getResourceAsStream("embedded/" + index + ".ndjson");
+        if (inputStream == null) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            createIndex(index, objectMapper.readValue(reader.readLine(), Map.class));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, Object> document = objectMapper.readValue(line, Map.class);
+                indices.get(index).put((String) document.get("_id"), (Map<String, Object>) document.get("_source"), seqNo++);
+            }
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Response response;
+        try {
+            Request request = new Request(exchange);
+            synchronized (this) {
+                response = route(request);
+            }
+        } catch (EmbeddedException e) {
+            response = new Response(e.status, e.toBody());
+        } catch (RuntimeException e) {
+            response = new Response(500, new EmbeddedException(500, "exception", String.valueOf(e)).toBody());
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        ObjectMapper responseMapper = mapper(accept);
+        exchange.getResponseHeaders().set("Content-Type", responseMapper == objectMapper ? "application/json; charset=UTF-8" : accept);
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(response.status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = responseMapper.writeValueAsBytes(response.body);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private ObjectMapper mapper(String mediaType) {
+        if (mediaType != null && mediaType.contains("smile")) {
+            return smileMapper;
+        }
+        if (mediaType != null && mediaType.contains("cbor")) {
+            return cborMapper;
+        }
+        return objectMapper;
+    }
+
+    private Response route(Request request) throws IOException {
+        List<String> path = request.path;
+        if (path.isEmpty()) {
+            return ok(info());
+        }
+        String first = path.get(0);
+        switch (first) {
+            case "_bulk":
+                return ok(bulk(null, request));
+            case "_msearch":
+                return ok(multiSearch(null, request));
+            case "_search":
+                if (path.size() > 1 && "scroll".equals(path.get(1))) {
+                    return "DELETE".equals(request.method) ? ok(clearScroll(request)) : ok(scroll(request));
+                }
+                if (path.size() > 1 && "template".equals(path.get(1))) {
+                    return ok(searchTemplate(null, request));
+                }
+                return ok(search(null, request.json(), request.params));
+            case "_scripts":
+                return script(path.get(1), request);
+            case "_pit":
+                return ok(closePointInTime(request));
+            case "_analyze":
+                return ok(analyze(null, request.json()));
+            case "_template":
+                return template(path.size() > 1 ? path.get(1) : "*", request);
+            case "_mapping":
+                return ok(mapping("_all"));
+            case "_refresh":
+                return ok(Map.of("_shards", shards()));
+            case "_cluster":
+                return ok(Map.of("cluster_name", "embedded", "status", "green", "timed_out", false));
+            case "_nodes":
+                return ok(nodes());
+            case "_aliases":
+                return ok(updateAliases(request.json()));
+            case "_alias":
+                return alias(path.get(1));
+            case "_reindex":
+                return ok(reindex(request));
+            case "_tasks":
+                return task(path.get(1));
+            default:
+                break;
+        }
+
+        if (path.size() == 1) {
+            return index(first, request);
+        }
+        switch (path.get(1)) {
+            case "_doc":
+            case "_create":
+                return document(first, path, request);
+            case "_bulk":
+                return ok(bulk(first, request));
+            case "_msearch":
+                return ok(multiSearch(first, request));
+            case "_search":
+                if (path.size() > 2 && "template".equals(path.get(2))) {
+                    return ok(searchTemplate(first, request));
+                }
+                countRequest("_search", Set.of(first));
+                return ok(search(first, request.json(), request.params));
+            case "_count":
+                return ok(count(first, request.json()));
+            case "_mapping":
+                return ok(mapping(first));
+            case "_refresh":
+                if (!"true".equals(request.params.get("ignore_unavailable"))) {
+                    resolve(first);
+                }
+                return ok(Map.of("_shards", shards()));
+            case "_pit":
+                return ok(openPointInTime(first));
+            case "_analyze":
+                return ok(analyze(first, request.json()));
+            case "_settings":
+                return ok(settings(first, request));
+            case "_alias":
+                return ok(indexAliases(first, request));
+            default:
+                throw new EmbeddedException(400, "illegal_argument_exception", "no handler found for uri [/" + String.join("/", path) + "]");
+        }
+    }
+
+    private Map<String, Object> info() {
+        Map<String, Object> version = new LinkedHashMap<>();
+        version.put("number", "7.12.0");
+        version.put("build_flavor", "default");
+        version.put("build_type", "docker");
+        version.put("build_hash", "78722783c38caa25a70982b5b23ef7d3be24bae5");
+        version.put("build_date", "2021-03-18T06:17:15.410153305Z");
+        version.put("build_snapshot", false);
+        version.put("lucene_version", "8.8.0");
+        version.put("minimum_wire_compatibility_version", "6.8.0");
+        version.put("minimum_index_compatibility_version", "6.0.0-beta1");
+
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("name", "embedded");
+        info.put("cluster_name", "embedded");
+        info.put("cluster_uuid", "embedded");
+        info.put("version", version);
+        info.put("tagline", "You Know, for Search");
+        return info;
+    }
+
+    //TODO 스니퍼가 읽는 _nodes/http 응답. 노드는 자기 자신 하나뿐이다.
+    private Map<String, Object> nodes() {
+        Map<String, Object> node = new LinkedHashMap<>();
+        node.put("name", "embedded");
+        node.put("host", server.getAddress().getHostString());
+        node.put("ip", server.getAddress().getAddress().getHostAddress());
+        node.put("version", "7.12.0");
+        node.put("roles", List.of("data", "ingest", "master"));
+        node.put("attributes", Map.of());
+        node.put("http", Map.of(
+                "bound_address", List.of(getHttpHostAddress()),
+                "publish_address", getHttpHostAddress()
+        ));
+        return Map.of(
+                "_nodes", Map.of("total", 1, "successful", 1, "failed", 0),
+                "cluster_name", "embedded",
+                "nodes", Map.of("embedded", node)
+        );
+    }
+
+    private Response index(String name, Request request) {
+        switch (request.method) {
+            case "HEAD":
+                return new Response(indices.containsKey(name) ? 200 : 404, Collections.emptyMap());
+            case "PUT":
+                createIndex(name, request.json());
+                Map<String, Object> created = new LinkedHashMap<>();
+                created.put("acknowledged", true);
+                created.put("shards_acknowledged", true);
+                created.put("index", name);
+                return ok(created);
+            case "DELETE":
+                resolve(name).forEach(index -> indices.remove(index.name));
+                return ok(Map.of("acknowledged", true));
+            default:
+                Map<String, Object> body = new LinkedHashMap<>();
+                for (EmbeddedIndex index : resolve(name)) {
+                    Map<String, Object> aliases = new LinkedHashMap<>();
+                    index.aliases.forEach(alias -> aliases.put(alias, Collections.emptyMap()));
+                    body.put(index.name, Map.of(
+                            "aliases", aliases,
+                            "mappings", index.mappings,
+                            "settings", index.settings));
+                }
+                return ok(body);
+        }
+    }
+
+    //TODO 이름이 맞는 레거시 템플릿을 order 오름차순으로 겹쳐 쓴 뒤 요청 본문을 마지막에 덮는다.
+    @SuppressWarnings("unchecked")
+    private EmbeddedIndex createIndex(String name, Map<String, Object> body) {
+        if (indices.containsKey(name)) {
+            throw new EmbeddedException(400, "resource_already_exists_exception", "index [" + name + "] already exists");
+        }
+        if (!aliased(name).isEmpty()) {
+            throw new EmbeddedException(400, "invalid_index_name_exception", "Invalid index name [" + name + "], already exists as alias");
+        }
+        Map<String, Object> settings = new LinkedHashMap<>();
+        Map<String, Object> mappings = new LinkedHashMap<>();
+        templates.values().stream()
+                .filter(template -> ((Collection<Object>) template.getOrDefault("index_patterns", Collections.emptyList()))
+                        .stream()
+                        .anyMatch(pattern -> EmbeddedQuery.wildcardMatch(String.valueOf(pattern), name)))
+                .sorted(Comparator.comparingInt(template -> ((Number) template.getOrDefault("order", 0)).intValue()))
+                .forEach(template -> {
+                    deepMerge(settings, expand((Map<String, Object>) template.getOrDefault("settings", Collections.emptyMap())));
+                    deepMerge(mappings, (Map<String, Object>) template.getOrDefault("mappings", Collections.emptyMap()));
+                });
+        deepMerge(settings, expand((Map<String, Object>) body.getOrDefault("settings", Collections.emptyMap())));
+        deepMerge(mappings, (Map<String, Object>) body.getOrDefault("mappings", Collections.emptyMap()));
+        EmbeddedIndex index = new EmbeddedIndex(name, settings, mappings);
+        indices.put(name, index);
+        return index;
+    }
+
+    private Response document(String name, List<String> path, Request request) {
+        boolean create = "_create".equals(path.get(1)) || "create".equals(request.params.get("op_type"));
+        String id = path.size() > 2 ? path.get(2) : null;
+        if ("GET".equals(request.method) || "HEAD".equals(request.method)) {
+            EmbeddedIndex index = resolve(name).get(0);
+            EmbeddedIndex.StoredDocument document = index.documents.get(id);
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("_index", index.name);
+            body.put("_type", "_doc");
+            body.put("_id", id);
+            if (document == null) {
+                body.put("found", false);
+                return new Response(404, body);
+            }
+            body.put("_version", document.version);
+            body.put("_seq_no", document.seqNo);
+            body.put("_primary_term", 1);
+            body.put("found", true);
+            body.put("_source", document.source);
+            return ok(body);
+        }
+        Map<String, Object> result = write(name, id, create, request.json());
+        return new Response("created".equals(result.get("result")) ? 201 : 200, result);
+    }
+
+    private Map<String, Object> write(String name, String id, boolean create, Map<String, Object> source) {
+        EmbeddedIndex index = writeIndex(name);
+        String documentId = id == null ? generateId() : id;
+        boolean exists = index.documents.containsKey(documentId);
+        if (create && exists) {
+            throw new EmbeddedException(409, "version_conflict_engine_exception",
+                    "[" + documentId + "]: version conflict, document already exists");
+        }
+        return writeResult(index, index.put(documentId, source, seqNo++), exists ? "updated" : "created");
+    }
+
+    private Map<String, Object> writeResult(EmbeddedIndex index, EmbeddedIndex.StoredDocument document, String result) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("_index", index.name);
+        body.put("_type", "_doc");
+        body.put("_id", document.id);
+        body.put("_version", document.version);
+        body.put("result", result);
+        body.put("_shards", Map.of("total", 2, "successful", 1, "failed", 0));
+        body.put("_seq_no", document.seqNo);
+        body.put("_primary_term", 1);
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> bulk(String defaultIndex, Request request) throws IOException {
+        long start = System.nanoTime();
+        List<Map<String, Object>> lines = request.ndjson();
+        rejectBulkRequest(defaultIndex, lines);
+        List<Map<String, Object>> items = new ArrayList<>();
+        Set<String> targets = new HashSet<>();
+        boolean errors = false;
+        for (int i = 0; i < lines.size(); i++) {
+            Map.Entry<String, Object> action = lines.get(i).entrySet().iterator().next();
+            Map<String, Object> metadata = (Map<String, Object>) action.getValue();
+            String name = (String) metadata.getOrDefault("_index", defaultIndex);
+            String id = (String) metadata.get("_id");
+            targets.add(name);
+            Map<String, Object> item;
+            try {
+                int rejected = rejectedBulkItems.getOrDefault(name, 0);
+                if (rejected > 0) {
+                    rejectedBulkItems.put(name, rejected - 1);
+                    throw new EmbeddedException(429, "es_rejected_execution_exception",
+                            "rejected execution of coordinating operation [embedded write thread pool is full]");
+                }
+                switch (action.getKey()) {
+                    case "delete":
+                        item = delete(name, id);
+                        break;
+                    case "update":
+                        item = update(name, id, lines.get(++i));
+                        break;
+                    default:
+                        item = write(name, id, "create".equals(action.getKey()), lines.get(++i));
+                        item.put("status", "created".equals(item.get("result")) ? 201 : 200);
+                }
+            } catch (EmbeddedException e) {
+                if (!"delete".equals(action.getKey())) {
+                    i++;
+                }
+                errors = true;
+                item = new LinkedHashMap<>();
+                item.put("_index", name);
+                item.put("_type", "_doc");
+                item.put("_id", id);
+                item.put("status", e.status);
+                item.put("error", e.toBody().get("error"));
+            }
+            items.add(Map.of(action.getKey(), item));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("took", (System.nanoTime() - start) / 1_000_000);
+        body.put("errors", errors);
+        body.put("items", items);
+        countRequest("_bulk", targets);
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rejectBulkRequest(String defaultIndex, List<Map<String, Object>> lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            Map.Entry<String, Object> action = lines.get(i).entrySet().iterator().next();
+            String name = (String) ((Map<String, Object>) action.getValue()).getOrDefault("_index", defaultIndex);
+            int rejected = rejectedBulkRequests.getOrDefault(name, 0);
+            if (rejected > 0) {
+                rejectedBulkRequests.put(name, rejected - 1);
+                countRequest("_bulk", Set.of(name));
+                throw new EmbeddedException(429, "es_rejected_execution_exception",
+                        "rejected execution of coordinating operation [embedded write thread pool is full]");
+            }
+            if (!"delete".equals(action.getKey())) {
+                i++;
+            }
+        }
+    }
+
+    private void countRequest(String endpoint, Set<String> targets) {
+        targets.forEach(target -> requestCounts.merge(endpoint + " " + target, 1, Integer::sum));
+    }
+
+    private Map<String, Object> delete(String name, String id) {
+        EmbeddedIndex index = indices.get(name);
+        EmbeddedIndex.StoredDocument document = index == null ? null : index.documents.remove(id);
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("_index", name);
+        item.put("_type", "_doc");
+        item.put("_id", id);
+        item.put("_version", document == null ? 1 : document.version + 1);
+        item.put("result", document == null ? "not_found" : "deleted");
+        item.put("_shards", Map.of("total", 2, "successful", 1, "failed", 0));
+        item.put("_seq_no", seqNo++);
+        item.put("_primary_term", 1);
+        item.put("status", document == null ? 404 : 200);
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> update(String name, String id, Map<String, Object> body) {
+        EmbeddedIndex index = writeIndex(name);
+        EmbeddedIndex.StoredDocument existing = index.documents.get(id);
+        Map<String, Object> doc = (Map<String, Object>) body.getOrDefault("doc", Collections.emptyMap());
+        if (existing == null) {
+            Object upsert = Boolean.TRUE.equals(body.get("doc_as_upsert")) ? doc : body.get("upsert");
+            if (upsert == null) {
+                throw new EmbeddedException(404, "document_missing_exception", "[_doc][" + id + "]: document missing");
+            }
+            Map<String, Object> item = writeResult(index, index.put(id, new LinkedHashMap<>((Map<String, Object>) upsert), seqNo++), "created");
+            item.put("status", 201);
+            return item;
+        }
+        Map<String, Object> source = new LinkedHashMap<>(existing.source);
+        deepMerge(source, doc);
+        Map<String, Object> item = writeResult(index, index.put(id, source, seqNo++), "updated");
+        item.put("status", 200);
+        return item;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> multiSearch(String defaultIndex, Request request) throws IOException {
+        long start = System.nanoTime();
+        List<Map<String, Object>> lines = request.ndjson();
+        List<Map<String, Object>> responses = new ArrayList<>();
+        Set<String> targets = new HashSet<>();
+        for (int i = 0; i + 1 < lines.size(); i += 2) {
+            Object index = lines.get(i).get("index");
+            String expression = index instanceof Collection
+                    ? ((Collection<Object>) index).stream().map(String::valueOf).collect(Collectors.joining(","))
+                    : index == null ? defaultIndex : String.valueOf(index);
+            targets.addAll(List.of(String.valueOf(expression).split(",")));
+            Map<String, Object> response;
+            try {
+                response = search(expression, lines.get(i + 1), Collections.emptyMap());
+                response.put("status", 200);
+            } catch (EmbeddedException e) {
+                response = e.toBody();
+            }
+            responses.add(response);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("took", (System.nanoTime() - start) / 1_000_000);
+        body.put("responses", responses);
+        countRequest("_msearch", targets);
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> search(String expression, Map<String, Object> body, Map<String, String> params) {
+        long start = System.nanoTime();
+        String pitId = null;
+        List<EmbeddedIndex> targets;
+        if (body.get("pit") instanceof Map) {
+            pitId = (String) ((Map<String, Object>) body.get("pit")).get("id");
+            targets = pointInTimes.get(pitId);
+            if (targets == null) {
+                throw new EmbeddedException(404, "search_context_missing_exception", "No search context found for id [" + pitId + "]");
+            }
+        } else {
+            targets = resolve(expression == null ? "_all" : expression);
+        }
+
+        List<Hit> hits = collect(targets, body);
+        int size = ((Number) body.getOrDefault("size", DEFAULT_SIZE)).intValue();
+        int from = ((Number) body.getOrDefault("from", 0)).intValue();
+        Map<String, Object> response;
+        if (params.containsKey("scroll")) {
+            String scrollId = generateId();
+            scrolls.put(scrollId, new ScrollContext(hits, body, size));
+            response = searchResponse(hits, 0, size, body, start);
+            response.put("_scroll_id", scrollId);
+        } else {
+            response = searchResponse(hits, from, size, body, start);
+        }
+        if (pitId != null) {
+            response.put("pit_id", pitId);
+        }
+        Object aggregations = body.containsKey("aggregations") ? body.get("aggregations") : body.get("aggs");
+        if (aggregations != null) {
+            response.put("aggregations", EmbeddedAggregation.aggregate((Map<String, Object>) aggregations, hits));
+        }
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response script(String id, Request request) throws IOException {
+        switch (request.method) {
+            case "PUT":
+            case "POST":
+                Map<String, Object> script = (Map<String, Object>) request.json().get("script");
+                Object source = script.get("source");
+                scripts.put(id, source instanceof String ? (String) source : objectMapper.writeValueAsString(source));
+                return ok(Map.of("acknowledged", true));
+            case "DELETE":
+                if (scripts.remove(id) == null) {
+                    throw new EmbeddedException(404, "resource_not_found_exception", "stored script [" + id + "] does not exist");
+                }
+                return ok(Map.of("acknowledged", true));
+            default:
+                if (!scripts.containsKey(id)) {
+                    return new Response(404, Map.of("_id", id, "found", false));
+                }
+                return ok(Map.of("_id", id, "found", true, "script", Map.of("lang", "mustache", "source", scripts.get(id))));
+        }
+    }
+
+    //TODO {{#toJson}}name{{/toJson}} 과 {{name}} 두 가지 mustache 치환만 지원한다.
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> searchTemplate(String expression, Request request) throws IOException {
+        Map<String, Object> body = request.json();
+        String source;
+        if (body.containsKey("id")) {
+            source = scripts.get(String.valueOf(body.get("id")));
+            if (source == null) {
+                throw new EmbeddedException(404, "resource_not_found_exception", "unable to find script [" + body.get("id") + "]");
+            }
+        } else {
+            Object inline = body.get("source");
+            source = inline instanceof String ? (String) inline : objectMapper.writeValueAsString(inline);
+        }
+        Map<String, Object> params = (Map<String, Object>) body.getOrDefault("params", Collections.emptyMap());
+        Matcher matcher = MUSTACHE_VARIABLE.matcher(source);
+        StringBuilder rendered = new StringBuilder();
+        while (matcher.find()) {
+            String name = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            Object value = params.get(name);
+            String replacement = matcher.group(1) != null ? objectMapper.writeValueAsString(value) : String.valueOf(value);
+            matcher.appendReplacement(rendered, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(rendered);
+        return search(expression, objectMapper.readValue(rendered.toString(), LinkedHashMap.class), request.params);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> scroll(Request request) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Object> body = request.json();
+        String scrollId = body.containsKey("scroll_id") ? (String) body.get("scroll_id") : request.params.get("scroll_id");
+        ScrollContext context = scrolls.get(scrollId);
+        if (context == null) {
+            throw new EmbeddedException(404, "search_context_missing_exception", "No search context found for id [" + scrollId + "]");
+        }
+        Map<String, Object> response = searchResponse(context.hits, context.offset, context.size, context.body, start);
+        context.offset += context.size;
+        response.put("_scroll_id", scrollId);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> clearScroll(Request request) throws IOException {
+        Object ids = request.json().getOrDefault("scroll_id", Collections.emptyList());
+        int freed = 0;
+        for (Object id : ids instanceof Collection ? (Collection<Object>) ids : List.of(ids)) {
+            if ("_all".equals(id)) {
+                freed += scrolls.size();
+                scrolls.clear();
+            } else if (scrolls.remove(String.valueOf(id)) != null) {
+                freed++;
+            }
+        }
+        return Map.of("succeeded", true, "num_freed", freed);
+    }
+
+    private Map<String, Object> openPointInTime(String expression) {
+        String id = generateId();
+        pointInTimes.put(id, resolve(expression).stream().map(EmbeddedIndex::snapshot).collect(Collectors.toList()));
+        return Map.of("id", id);
+    }
+
+    private Map<String, Object> closePointInTime(Request request) throws IOException {
+        boolean freed = pointInTimes.remove(String.valueOf(request.json().get("id"))) != null;
+        return Map.of("succeeded", true, "num_freed", freed ? 1 : 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> count(String expression, Map<String, Object> body) {
+        int count = 0;
+        for (EmbeddedIndex index : resolve(expression)) {
+            EmbeddedQuery query = new EmbeddedQuery(index);
+            for (EmbeddedIndex.StoredDocument document : index.documents.values()) {
+                if (query.score((Map<String, Object>) body.get("query"), withId(document)) != null) {
+                    count++;
+                }
+            }
+        }
+        return Map.of("count", count, "_shards", shards());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Hit> collect(List<EmbeddedIndex> targets, Map<String, Object> body) {
+        Map<String, Object> slice = (Map<String, Object>) body.get("slice");
+        List<SortSpec> sorts = SortSpec.parse(body.get("sort"));
+        List<Hit> hits = new ArrayList<>();
+        long ordinal = 0;
+        for (EmbeddedIndex index : targets) {
+            EmbeddedQuery query = new EmbeddedQuery(index);
+            for (EmbeddedIndex.StoredDocument document : index.documents.values()) {
+                long docOrdinal = ordinal++;
+                if (slice != null && Math.floorMod(document.id.hashCode(), ((Number) slice.get("max")).intValue())
+                        != ((Number) slice.get("id")).intValue()) {
+                    continue;
+                }
+                Double score = query.score((Map<String, Object>) body.get("query"), withId(document));
+                if (score == null) {
+                    continue;
+                }
+                Hit hit = new Hit(index, document, score);
+                for (SortSpec sort : sorts) {
+                    hit.sortValues.add(sort.value(index, hit, docOrdinal));
+                }
+                hits.add(hit);
+            }
+        }
+
+        Comparator<Hit> comparator = sorts.isEmpty()
+                ? Comparator.comparingDouble((Hit hit) -> hit.score).reversed()
+                : (left, right) -> SortSpec.compare(sorts, left.sortValues, right.sortValues);
+        hits.sort(comparator);
+
+        Object searchAfter = body.get("search_after");
+        if (searchAfter instanceof List) {
+            List<Object> after = (List<Object>) searchAfter;
+            hits.removeIf(hit -> SortSpec.compare(sorts, hit.sortValues, after) <= 0);
+        }
+        return hits;
+    }
+
+    private Map<String, Object> searchResponse(List<Hit> hits, int from, int size, Map<String, Object> body, long start) {
+        boolean sorted = body.get("sort") != null;
+        List<Map<String, Object>> page = new ArrayList<>();
+        for (int i = from; i < Math.min(hits.size(), from + size); i++) {
+            Hit hit = hits.get(i);
+            Map<String, Object> hitBody = new LinkedHashMap<>();
+            hitBody.put("_index", hit.index.name);
+            hitBody.put("_type", "_doc");
+            hitBody.put("_id", hit.document.id);
+            hitBody.put("_score", sorted ? null : hit.score);
+            Map<String, Object> source = filterSource(hit.document.source, body.get("_source"));
+            if (source != null) {
+                hitBody.put("_source", source);
+            }
+            if (sorted) {
+                hitBody.put("sort", hit.sortValues);
+            }
+            page.add(hitBody);
+        }
+
+        Map<String, Object> hitsBody = new LinkedHashMap<>();
+        hitsBody.put("total", Map.of("value", hits.size(), "relation", "eq"));
+        hitsBody.put("max_score", sorted || hits.isEmpty() ? null : hits.stream().mapToDouble(hit -> hit.score).max().orElse(0));
+        hitsBody.put("hits", page);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("took", (System.nanoTime() - start) / 1_000_000);
+        response.put("timed_out", false);
+        response.put("_shards", shards());
+        response.put("hits", hitsBody);
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> filterSource(Map<String, Object> source, Object sourceFilter) {
+        if (sourceFilter == null || Boolean.TRUE.equals(sourceFilter)) {
+            return source;
+        }
+        if (Boolean.FALSE.equals(sourceFilter)) {
+            return null;
+        }
+        List<String> includes;
+        List<String> excludes = Collections.emptyList();
+        if (sourceFilter instanceof Map) {
+            Map<String, Object> filter = (Map<String, Object>) sourceFilter;
+            includes = patterns(filter.get("includes"));
+            excludes = patterns(filter.get("excludes"));
+        } else {
+            includes = patterns(sourceFilter);
+        }
+        return filterSource(source, "", includes, excludes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> filterSource(Map<String, Object> source, String prefix, List<String> includes, List<String> excludes) {
+        Map<String, Object> filtered = new LinkedHashMap<>();
+        source.forEach((name, value) -> {
+            String path = prefix + name;
+            if (excludes.stream().anyMatch(pattern -> EmbeddedQuery.wildcardMatch(pattern, path))) {
+                return;
+            }
+            boolean included = includes.isEmpty() || includes.stream().anyMatch(pattern -> EmbeddedQuery.wildcardMatch(pattern, path)
+                    || EmbeddedQuery.wildcardMatch(pattern + ".*", path));
+            if (included) {
+                filtered.put(name, value);
+            } else if (value instanceof Map) {
+                Map<String, Object> child = filterSource((Map<String, Object>) value, path + ".", includes, excludes);
+                if (!child.isEmpty()) {
+                    filtered.put(name, child);
+                }
+            }
+        });
+        return filtered;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> patterns(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Collection) {
+            return ((Collection<Object>) value).stream().map(String::valueOf).collect(Collectors.toList());
+        }
+        return List.of(String.valueOf(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> analyze(String expression, Map<String, Object> body) {
+        Object text = body.get("text");
+        List<String> texts = text instanceof Collection
+                ? ((Collection<Object>) text).stream().map(String::valueOf).collect(Collectors.toList())
+                : List.of(String.valueOf(text));
+        EmbeddedIndex index = expression == null ? null : resolve(expression).get(0);
+        EmbeddedAnalyzer analyzer;
+        if (body.containsKey("analyzer")) {
+            String name = String.valueOf(body.get("analyzer"));
+            analyzer = index == null ? EmbeddedAnalyzer.builtIn(name) : index.analyzer(name);
+        } else if (body.containsKey("field") && index != null) {
+            EmbeddedIndex.Field field = index.field(String.valueOf(body.get("field")));
+            analyzer = !field.isText() ? EmbeddedAnalyzer.KEYWORD
+                    : field.analyzer == null ? EmbeddedAnalyzer.STANDARD : index.analyzer(field.analyzer);
+        } else {
+            analyzer = EmbeddedAnalyzer.custom(body, index == null ? null : index.analysis());
+        }
+
+        List<Map<String, Object>> tokens = new ArrayList<>();
+        for (EmbeddedAnalyzer.Token token : analyzer.analyze(texts)) {
+            Map<String, Object> tokenBody = new LinkedHashMap<>();
+            tokenBody.put("token", token.term);
+            tokenBody.put("start_offset", token.startOffset);
+            tokenBody.put("end_offset", token.endOffset);
+            tokenBody.put("type", token.type);
+            tokenBody.put("position", token.position);
+            tokens.add(tokenBody);
+        }
+        return Map.of("tokens", tokens);
+    }
+
+    private Response template(String name, Request request) throws IOException {
+        switch (request.method) {
+            case "HEAD":
+                boolean exists = templates.keySet()
+                        .stream()
+                        .anyMatch(templateName -> EmbeddedQuery.wildcardMatch(name, templateName));
+                return new Response(exists ? 200 : 404, Collections.emptyMap());
+            case "PUT":
+            case "POST":
+                Map<String, Object> template = request.json();
+                if ("true".equals(request.params.get("create")) && templates.containsKey(name)) {
+                    throw new EmbeddedException(400, "illegal_argument_exception", "index_template [" + name + "] already exists");
+                }
+                templates.put(name, template);
+                return ok(Map.of("acknowledged", true));
+            case "DELETE":
+                if (!templates.keySet().removeIf(templateName -> EmbeddedQuery.wildcardMatch(name, templateName))) {
+                    throw new EmbeddedException(404, "index_template_missing_exception", "index_template [" + name + "] missing");
+                }
+                return ok(Map.of("acknowledged", true));
+            default:
+                Map<String, Object> body = new LinkedHashMap<>();
+                for (String pattern : name.split(",")) {
+                    templates.forEach((templateName, definition) -> {
+                        if (EmbeddedQuery.wildcardMatch(pattern, templateName)) {
+                            Map<String, Object> templateBody = new LinkedHashMap<>();
+                            templateBody.put("order", definition.getOrDefault("order", 0));
+                            if (definition.containsKey("version")) {
+                                templateBody.put("version", definition.get("version"));
+                            }
+                            templateBody.put("index_patterns", definition.getOrDefault("index_patterns", Collections.emptyList()));
+                            templateBody.put("settings", definition.getOrDefault("settings", Collections.emptyMap()));
+                            templateBody.put("mappings", definition.getOrDefault("mappings", Collections.emptyMap()));
+                            templateBody.put("aliases", definition.getOrDefault("aliases", Collections.emptyMap()));
+                            body.put(templateName, templateBody);
+                        }
+                    });
+                }
+                return new Response(body.isEmpty() ? 404 : 200, body);
+        }
+    }
+
+    //TODO 별칭이 인덱스 하나만 가리키면 그 인덱스에 쓴다. is_write_index 는 지원하지 않는다.
+    private EmbeddedIndex writeIndex(String name) {
+        if (indices.containsKey(name)) {
+            return indices.get(name);
+        }
+        List<EmbeddedIndex> aliased = aliased(name);
+        if (aliased.size() > 1) {
+            throw new EmbeddedException(400, "illegal_argument_exception", "no write index is defined for alias [" + name + "]");
+        }
+        return aliased.isEmpty() ? createIndex(name, Collections.emptyMap()) : aliased.get(0);
+    }
+
+    private List<EmbeddedIndex> aliased(String alias) {
+        return indices.values()
+                .stream()
+                .filter(index -> index.aliases.contains(alias))
+                .collect(Collectors.toList());
+    }
+
+    private Response alias(String name) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        for (EmbeddedIndex index : aliased(name)) {
+            body.put(index.name, Map.of("aliases", Map.of(name, Collections.emptyMap())));
+        }
+        if (body.isEmpty()) {
+            return new Response(404, Map.of("error", "alias [" + name + "] missing", "status", 404));
+        }
+        return ok(body);
+    }
+
+    //TODO GET /{index}/_alias. ignore_unavailable 이면 없는 인덱스는 빈 응답으로 돌려준다.
+    private Map<String, Object> indexAliases(String expression, Request request) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        List<EmbeddedIndex> resolved;
+        try {
+            resolved = resolve(expression);
+        } catch (EmbeddedException e) {
+            if (!"true".equals(request.params.get("ignore_unavailable"))) {
+                throw e;
+            }
+            resolved = Collections.emptyList();
+        }
+        for (EmbeddedIndex index : resolved) {
+            Map<String, Object> aliases = new LinkedHashMap<>();
+            index.aliases.forEach(alias -> aliases.put(alias, Collections.emptyMap()));
+            body.put(index.name, Map.of("aliases", aliases));
+        }
+        return body;
+    }
+
+    //TODO 실제 클러스터처럼 모든 동작을 먼저 검증한 뒤 한꺼번에 적용한다. 제거를 먼저 적용해서 remove_index 로 지운 인덱스 이름을 별칭으로 쓸 수 있게 한다.
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> updateAliases(Map<String, Object> body) {
+        List<Map.Entry<String, Map<String, Object>>> actions = new ArrayList<>();
+        for (Object action : (Collection<Object>) body.getOrDefault("actions", Collections.emptyList())) {
+            Map.Entry<String, Object> entry = ((Map<String, Object>) action).entrySet().iterator().next();
+            Map<String, Object> definition = (Map<String, Object>) entry.getValue();
+            for (String index : names(definition, "index", "indices")) {
+                resolve(index);
+            }
+            actions.add(Map.entry(entry.getKey(), definition));
+        }
+        actions.sort(Comparator.comparing(action -> "add".equals(action.getKey())));
+        for (Map.Entry<String, Map<String, Object>> action : actions) {
+            List<String> aliases = names(action.getValue(), "alias", "aliases");
+            for (String name : names(action.getValue(), "index", "indices")) {
+                switch (action.getKey()) {
+                    case "remove_index":
+                        indices.remove(name);
+                        break;
+                    case "remove":
+                        resolve(name).forEach(index -> index.aliases.removeAll(aliases));
+                        break;
+                    default:
+                        if (aliases.stream().anyMatch(indices::containsKey)) {
+                            throw new EmbeddedException(400, "invalid_alias_name_exception", "an index exists with the same name as the alias " + aliases);
+                        }
+                        resolve(name).forEach(index -> index.aliases.addAll(aliases));
+                }
+            }
+        }
+        return Map.of("acknowledged", true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> names(Map<String, Object> definition, String... keys) {
+        List<String> names = new ArrayList<>();
+        for (String key : keys) {
+            Object value = definition.get(key);
+            if (value instanceof Collection) {
+                ((Collection<Object>) value).forEach(name -> names.add(String.valueOf(name)));
+            } else if (value != null) {
+                names.add(String.valueOf(value));
+            }
+        }
+        return names;
+    }
+
+    //TODO 설정은 저장만 하고 refresh_interval, blocks.write 같은 동작은 흉내내지 않는다.
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> settings(String expression, Request request) throws IOException {
+        List<EmbeddedIndex> resolved = resolve(expression);
+        if ("PUT".equals(request.method)) {
+            Map<String, Object> body = request.json();
+            Map<String, Object> settings = expand((Map<String, Object>) body.getOrDefault("settings", body));
+            resolved.forEach(index -> deepMerge(index.settings, settings));
+            return Map.of("acknowledged", true);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        for (EmbeddedIndex index : resolved) {
+            //TODO 템플릿의 number_of_shards 처럼 index. 없이 선언한 설정도 실제 클러스터처럼 index 아래로 모은다.
+            Map<String, Object> settings = new LinkedHashMap<>();
+            Map<String, Object> indexSettings = new LinkedHashMap<>();
+            index.settings.forEach((key, value) -> {
+                if ("index".equals(key) && value instanceof Map) {
+                    deepMerge(indexSettings, (Map<String, Object>) value);
+                } else {
+                    indexSettings.put(key, value);
+                }
+            });
+            settings.put("index", indexSettings);
+            body.put(index.name, Map.of("settings", settings));
+        }
+        return body;
+    }
+
+    //TODO 슬라이스나 초당 문서 수 제한 없이 바로 복사한다. wait_for_completion=false 면 완료된 태스크를 등록해 두고 태스크 아이디만 돌려준다.
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> reindex(Request request) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Object> body = request.json();
+        Map<String, Object> source = (Map<String, Object>) body.get("source");
+        Map<String, Object> dest = (Map<String, Object>) body.get("dest");
+        int batchSize = ((Number) source.getOrDefault("size", 1000)).intValue();
+        EmbeddedIndex target = writeIndex((String) dest.get("index"));
+
+        long created = 0;
+        long updated = 0;
+        for (String name : names(source, "index")) {
+            for (EmbeddedIndex index : resolve(name)) {
+                if (index == target) {
+                    throw new EmbeddedException(400, "action_request_validation_exception", "reindex cannot write into an index its reading from [" + name + "]");
+                }
+                for (EmbeddedIndex.StoredDocument document : new ArrayList<>(index.documents.values())) {
+                    if (target.documents.containsKey(document.id)) {
+                        updated++;
+                    } else {
+                        created++;
+                    }
+                    target.put(document.id, document.source, seqNo++);
+                }
+            }
+        }
+        long total = created + updated;
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("took", (System.nanoTime() - start) / 1_000_000);
+        response.put("timed_out", false);
+        response.put("total", total);
+        response.put("updated", updated);
+        response.put("created", created);
+        response.put("deleted", 0);
+        response.put("batches", (total + batchSize - 1) / batchSize);
+        response.put("version_conflicts", 0);
+        response.put("noops", 0);
+        response.put("retries", Map.of("bulk", 0, "search", 0));
+        response.put("throttled_millis", 0);
+        response.put("requests_per_second", -1.0);
+        response.put("throttled_until_millis", 0);
+        response.put("failures", Collections.emptyList());
+        if (!"false".equals(request.params.get("wait_for_completion"))) {
+            return response;
+        }
+
+        long taskId = ++taskSeqNo;
+        Map<String, Object> status = new LinkedHashMap<>(response);
+        status.keySet().removeAll(List.of("took", "timed_out", "failures"));
+        Map<String, Object> taskInfo = new LinkedHashMap<>();
+        taskInfo.put("node", "embedded");
+        taskInfo.put("id", taskId);
+        taskInfo.put("type", "transport");
+        taskInfo.put("action", "indices:data/write/reindex");
+        taskInfo.put("status", status);
+        taskInfo.put("description", "reindex from " + source.get("index") + " to [" + dest.get("index") + "]");
+        taskInfo.put("start_time_in_millis", System.currentTimeMillis());
+        taskInfo.put("running_time_in_nanos", System.nanoTime() - start);
+        taskInfo.put("cancellable", true);
+        taskInfo.put("headers", Collections.emptyMap());
+        Map<String, Object> task = new LinkedHashMap<>();
+        task.put("completed", true);
+        task.put("task", taskInfo);
+        task.put("response", response);
+        tasks.put("embedded:" + taskId, task);
+        return Map.of("task", "embedded:" + taskId);
+    }
+
+    private Response task(String taskId) {
+        Map<String, Object> task = tasks.get(taskId);
+        if (task == null) {
+            throw new EmbeddedException(404, "resource_not_found_exception", "task [" + taskId + "] isn't running and hasn't stored its results");
+        }
+        return ok(task);
+    }
+
+    private Map<String, Object> mapping(String expression) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        for (EmbeddedIndex index : resolve(expression)) {
+            body.put(index.name, Map.of("mappings", index.mappings));
+        }
+        return body;
+    }
+
+    private List<EmbeddedIndex> resolve(String expression) {
+        List<EmbeddedIndex> resolved = new ArrayList<>();
+        for (String name : expression.split(",")) {
+            if ("_all".equals(name) || name.contains("*")) {
+                String pattern = "_all".equals(name) ? "*" : name;
+                indices.values().stream()
+                        .filter(index -> EmbeddedQuery.wildcardMatch(pattern, index.name))
+                        .filter(index -> !resolved.contains(index))
+                        .forEach(resolved::add);
+                continue;
+            }
+            EmbeddedIndex index = indices.get(name);
+            List<EmbeddedIndex> matched = index == null ? aliased(name) : List.of(index);
+            if (matched.isEmpty()) {
+                throw new EmbeddedException(404, "index_not_found_exception", "no such index [" + name + "]");
+            }
+            matched.stream()
+                    .filter(candidate -> !resolved.contains(candidate))
+                    .forEach(resolved::add);
+        }
+        return resolved;
+    }
+
+    private static Map<String, Object> withId(EmbeddedIndex.StoredDocument document) {
+        Map<String, Object> source = new HashMap<>(document.source);
+        source.put("_id", document.id);
+        return source;
+    }
+
+    private static Map<String, Object> shards() {
+        Map<String, Object> shards = new LinkedHashMap<>();
+        shards.put("total", 1);
+        shards.put("successful", 1);
+        shards.put("skipped", 0);
+        shards.put("failed", 0);
+        return shards;
+    }
+
+    private static String generateId() {
+        UUID uuid = UUID.randomUUID();
+        byte[] bytes = new byte[15];
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (most >>> (8 * i));
+        }
+        for (int i = 8; i < 15; i++) {
+            bytes[i] = (byte) (least >>> (8 * (i - 8)));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    //TODO index.number_of_shards 처럼 점으로 이어진 설정 키를 중첩 맵으로 펼친다.
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> expand(Map<String, Object> settings) {
+        Map<String, Object> expanded = new LinkedHashMap<>();
+        settings.forEach((key, value) -> {
+            Map<String, Object> current = expanded;
+            String[] segments = key.split("\\.");
+            for (int i = 0; i < segments.length - 1; i++) {
+                current = (Map<String, Object>) current.computeIfAbsent(segments[i], segment -> new LinkedHashMap<>());
+            }
+            Object leaf = value instanceof Map ? expand((Map<String, Object>) value) : value;
+            Object existing = current.get(segments[segments.length - 1]);
+            if (existing instanceof Map && leaf instanceof Map) {
+                deepMerge((Map<String, Object>) existing, (Map<String, Object>) leaf);
+            } else {
+                current.put(segments[segments.length - 1], leaf);
+            }
+        });
+        return expanded;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void deepMerge(Map<String, Object> target, Map<String, Object> source) {
+        source.forEach((key, value) -> {
+            Object existing = target.get(key);
+            if (existing instanceof Map && value instanceof Map) {
+                Map<String, Object> merged = new LinkedHashMap<>((Map<String, Object>) existing);
+                deepMerge(merged, (Map<String, Object>) value);
+                target.put(key, merged);
+            } else if (value instanceof Map) {
+                Map<String, Object> copy = new LinkedHashMap<>();
+                deepMerge(copy, (Map<String, Object>) value);
+                target.put(key, copy);
+            } else {
+                target.put(key, value);
+            }
+        });
+    }
+
+    private static Response ok(Map<String, Object> body) {
+        return new Response(200, body);
+    }
+
+    private class Request {
+
+        final String method;
+        final List<String> path;
+        final Map<String, String> params = new HashMap<>();
+        final byte[] body;
+        final ObjectMapper bodyMapper;
+
+        Request(HttpExchange exchange) throws IOException {
+            this.method = exchange.getRequestMethod();
+            this.bodyMapper = mapper(exchange.getRequestHeaders().getFirst("Content-Type"));
+            this.path = new ArrayList<>();
+            for (String segment : exchange.getRequestURI().getPath().split("/")) {
+                if (!segment.isEmpty()) {
+                    path.add(segment);
+                }
+            }
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    String[] pair = param.split("=", 2);
+                    params.put(URLDecoder.decode(pair[0], StandardCharsets.UTF_8),
+                            pair.length > 1 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "true");
+                }
+            }
+            InputStream inputStream = exchange.getRequestBody();
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            try (InputStream in = inputStream) {
+                this.body = in.readAllBytes();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> json() throws IOException {
+            if (body.length == 0) {
+                return new LinkedHashMap<>();
+            }
+            return bodyMapper.readValue(body, LinkedHashMap.class);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> ndjson() throws IOException {
+            List<Map<String, Object>> lines = new ArrayList<>();
+            if (bodyMapper == smileMapper) {
+                //TODO SMILE 벌크 본문은 줄바꿈 대신 0xFF 바이트로 항목을 구분한다.
+                int start = 0;
+                for (int i = 0; i <= body.length; i++) {
+                    if (i == body.length || body[i] == (byte) 0xFF) {
+                        if (i > start) {
+                            lines.add(smileMapper.readValue(body, start, i - start, LinkedHashMap.class));
+                        }
+                        start = i + 1;
+                    }
+                }
+                return lines;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        lines.add(objectMapper.readValue(line, LinkedHashMap.class));
+                    }
+                }
+            }
+            return lines;
+        }
+    }
+
+    private static class Response {
+
+        final int status;
+        final Map<String, Object> body;
+
+        Response(int status, Map<String, Object> body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    static class Hit {
+
+        final EmbeddedIndex index;
+        final EmbeddedIndex.StoredDocument document;
+        final double score;
+        final List<Object> sortValues = new ArrayList<>();
+
+        Hit(EmbeddedIndex index, EmbeddedIndex.StoredDocument document, double score) {
+            this.index = index;
+            this.document = document;
+            this.score = score;
+        }
+    }
+
+    private static class ScrollContext {
+
+        final List<Hit> hits;
+        final Map<String, Object> body;
+        final int size;
+        int offset;
+
+        ScrollContext(List<Hit> hits, Map<String, Object> body, int size) {
+            this.hits = hits;
+            this.body = body;
+            this.size = size;
+            this.offset = size;
+        }
+    }
+
+    private static class SortSpec {
+
+        final String field;
+        final boolean ascending;
+
+        SortSpec(String field, boolean ascending) {
+            this.field = field;
+            this.ascending = ascending;
+        }
+
+        @SuppressWarnings("unchecked")
+        static List<SortSpec> parse(Object sort) {
+            List<SortSpec> specs = new ArrayList<>();
+            if (sort == null) {
+                return specs;
+            }
+            for (Object entry : sort instanceof Collection ? (Collection<Object>) sort : List.of(sort)) {
+                if (entry instanceof String) {
+                    specs.add(new SortSpec((String) entry, !"_score".equals(entry)));
+                    continue;
+                }
+                ((Map<String, Object>) entry).forEach((field, options) -> {
+                    Object order = options instanceof Map ? ((Map<String, Object>) options).get("order") : options;
+                    boolean ascending = order == null ? !"_score".equals(field) : "asc".equalsIgnoreCase(String.valueOf(order));
+                    specs.add(new SortSpec(field, ascending));
+                });
+            }
+            return specs;
+        }
+
+        Object value(EmbeddedIndex index, Hit hit, long ordinal) {
+            switch (field) {
+                case "_doc":
+                case "_shard_doc":
+                    return ordinal;
+                case "_score":
+                    return hit.score;
+                case "_id":
+                    return hit.document.id;
+                default:
+                    EmbeddedIndex.Field mapping = index.field(field);
+                    List<Object> values = EmbeddedQuery.values(hit.document.source, mapping.sourcePath);
+                    if (values.isEmpty()) {
+                        return null;
+                    }
+                    Object value = values.get(0);
+                    return mapping.isDate() ? EmbeddedIndex.parseDate(value) : value;
+            }
+        }
+
+        static int compare(List<SortSpec> specs, List<Object> left, List<Object> right) {
+            for (int i = 0; i < specs.size() && i < right.size(); i++) {
+                int result = compareValues(left.get(i), right.get(i));
+                if (result != 0) {
+                    return specs.get(i).ascending ? result : -result;
+                }
+            }
+            return 0;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static int compareValues(Object left, Object right) {
+            if (left == null || right == null) {
+                return left == null ? (right == null ? 0 : 1) : -1;
+            }
+            if (left instanceof Number && right instanceof Number) {
+                return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+            }
+            if (left instanceof Comparable && left.getClass().equals(right.getClass())) {
+                return ((Comparable) left).compareTo(right);
+            }
+            return String.valueOf(left).compareTo(String.valueOf(right));
+        }
+    }
+
+    static class EmbeddedException extends RuntimeException {
+
+        final int status;
+        final String type;
+
+        EmbeddedException(int status, String type, String reason) {
+            super(reason);
+            this.status = status;
+            this.type = type;
+        }
+
+        Map<String, Object> toBody() {
+            Map<String, Object> cause = new LinkedHashMap<>();
+            cause.put("type", type);
+            cause.put("reason", getMessage());
+            Map<String, Object> error = new LinkedHashMap<>(cause);
+            error.put("root_cause", List.of(cause));
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("error", error);
+            body.put("status", status);
+            return body;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.gravylab.elasticstack.embedded;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+class EmbeddedIndex {
+
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}([T ]\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?(Z|[+-]\\d{2}:?\\d{2})?)?");
+
+    final String name;
+    final Map<String, Object> settings;
+    final Map<String, Object> mappings;
+    final Map<String, StoredDocument> documents = new LinkedHashMap<>();
+    final Set<String> aliases = new LinkedHashSet<>();
+
+    EmbeddedIndex(String name, Map<String, Object> settings, Map<String, Object> mappings) {
+        this.name = name;
+        this.settings = settings;
+        this.mappings = mappings;
+    }
+
+    EmbeddedIndex snapshot() {
+        EmbeddedIndex snapshot = new EmbeddedIndex(name, settings, mappings);
+        snapshot.documents.putAll(documents);
+        return snapshot;
+    }
+
+    StoredDocument put(String id, Map<String, Object> source, long seqNo) {
+        StoredDocument previous = documents.get(id);
+        long version = previous == null ? 1 : previous.version + 1;
+        StoredDocument document = new StoredDocument(id, seqNo, version, source);
+        documents.put(id, document);
+        updateDynamicMapping(properties(mappings), source, "");
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> analysis() {
+        Object analysis = settings.get("analysis");
+        if (analysis == null && settings.get("index") instanceof Map) {
+            analysis = ((Map<String, Object>) settings.get("index")).get("analysis");
+        }
+        return analysis instanceof Map ? (Map<String, Object>) analysis : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    EmbeddedAnalyzer analyzer(String analyzerName) {
+        Map<String, Object> analysis = analysis();
+        if (analysis != null && analysis.get("analyzer") instanceof Map) {
+            Object definition = ((Map<String, Object>) analysis.get("analyzer")).get(analyzerName);
+            if (definition instanceof Map) {
+                return EmbeddedAnalyzer.custom((Map<String, Object>) definition, analysis);
+            }
+        }
+        return EmbeddedAnalyzer.builtIn(analyzerName);
+    }
+
+    //TODO customer_full_name.keyword 처럼 멀티 필드를 가리키면 _source 의 원본 필드 경로와 멀티 필드의 타입을 돌려준다.
+    @SuppressWarnings("unchecked")
+    Field field(String path) {
+        Map<String, Object> properties = properties(mappings);
+        String[] segments = path.split("\\.");
+        StringBuilder sourcePath = new StringBuilder();
+        for (int i = 0; i < segments.length; i++) {
+            Object definition = properties.get(segments[i]);
+            if (!(definition instanceof Map)) {
+                return new Field(path, null, null);
+            }
+            Map<String, Object> field = (Map<String, Object>) definition;
+            sourcePath.append(i == 0 ? "" : ".").append(segments[i]);
+            if (field.get("properties") instanceof Map) {
+                properties = (Map<String, Object>) field.get("properties");
+                continue;
+            }
+            if (i == segments.length - 2 && field.get("fields") instanceof Map) {
+                Object subField = ((Map<String, Object>) field.get("fields")).get(segments[i + 1]);
+                if (subField instanceof Map) {
+                    return new Field(sourcePath.toString(), (String) ((Map<String, Object>) subField).get("type"), (String) ((Map<String, Object>) subField).get("analyzer"));
+                }
+            }
+            if (i == segments.length - 1) {
+                return new Field(sourcePath.toString(), (String) field.get("type"), (String) field.get("analyzer"));
+            }
+            return new Field(path, null, null);
+        }
+        return new Field(path, "object", null);
+    }
+
+    List<String> leafFields() {
+        List<String> fields = new ArrayList<>();
+        collectLeafFields(properties(mappings), "", fields);
+        return fields;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectLeafFields(Map<String, Object> properties, String prefix, List<String> fields) {
+        properties.forEach((name, definition) -> {
+            Map<String, Object> field = (Map<String, Object>) definition;
+            if (field.get("properties") instanceof Map) {
+                collectLeafFields((Map<String, Object>) field.get("properties"), prefix + name + ".", fields);
+            } else {
+                fields.add(prefix + name);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> properties(Map<String, Object> mapping) {
+        return (Map<String, Object>) mapping.computeIfAbsent("properties", key -> new LinkedHashMap<>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void updateDynamicMapping(Map<String, Object> properties, Map<String, Object> source, String prefix) {
+        source.forEach((name, value) -> {
+            Object sample = value instanceof List && !((List<?>) value).isEmpty() ? ((List<?>) value).get(0) : value;
+            if (sample == null) {
+                return;
+            }
+            Object existing = properties.get(name);
+            if (sample instanceof Map) {
+                if (existing == null) {
+                    existing = new LinkedHashMap<String, Object>();
+                    properties.put(name, existing);
+                }
+                Map<String, Object> objectMapping = (Map<String, Object>) existing;
+                if (objectMapping.get("type") == null || "object".equals(objectMapping.get("type"))) {
+                    updateDynamicMapping(properties(objectMapping), (Map<String, Object>) sample, prefix + name + ".");
+                }
+                return;
+            }
+            if (existing == null) {
+                properties.put(name, dynamicField(prefix + name, name, sample));
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> dynamicField(String path, String name, Object value) {
+        String mappingType = mappingType(value);
+        Object dynamicTemplates = mappings.getOrDefault("dynamic_templates", Collections.emptyList());
+        for (Object entry : (Collection<Object>) dynamicTemplates) {
+            for (Object template : ((Map<String, Object>) entry).values()) {
+                Map<String, Object> definition = (Map<String, Object>) template;
+                if (definition.containsKey("match_mapping_type")
+                        && !"*".equals(definition.get("match_mapping_type"))
+                        && !mappingType.equals(definition.get("match_mapping_type"))) {
+                    continue;
+                }
+                if (definition.containsKey("match") && !EmbeddedQuery.wildcardMatch(String.valueOf(definition.get("match")), name)) {
+                    continue;
+                }
+                if (definition.containsKey("unmatch") && EmbeddedQuery.wildcardMatch(String.valueOf(definition.get("unmatch")), name)) {
+                    continue;
+                }
+                if (definition.containsKey("path_match") && !EmbeddedQuery.wildcardMatch(String.valueOf(definition.get("path_match")), path)) {
+                    continue;
+                }
+                return new LinkedHashMap<>((Map<String, Object>) definition.get("mapping"));
+            }
+        }
+
+        Map<String, Object> field = new LinkedHashMap<>();
+        switch (mappingType) {
+            case "string":
+                field.put("type", "text");
+                field.put("fields", Map.of("keyword", Map.of("type", "keyword", "ignore_above", 256)));
+                break;
+            case "date":
+                field.put("type", "date");
+                break;
+            case "double":
+                field.put("type", "float");
+                break;
+            default:
+                field.put("type", mappingType);
+        }
+        return field;
+    }
+
+    private static String mappingType(Object value) {
+        if (value instanceof String) {
+            return DATE.matcher((String) value).matches() ? "date" : "string";
+        }
+        if (value instanceof Boolean) {
+            return "boolean";
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return "double";
+        }
+        return "long";
+    }
+
+    static Long parseDate(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        String text = String.valueOf(value);
+        try {
+            return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+        } catch (RuntimeException ignored) {
+        }
+        try {
+            return LocalDateTime.parse(text).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (RuntimeException ignored) {
+        }
+        try {
+            return LocalDate.parse(text).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (RuntimeException ignored) {
+        }
+        return null;
+    }
+
+    static class Field {
+
+        final String sourcePath;
+        final String type;
+        final String analyzer;
+
+        Field(String sourcePath, String type, String analyzer) {
+            this.sourcePath = sourcePath;
+            this.type = type;
+            this.analyzer = analyzer;
+        }
+
+        boolean isText() {
+            return type == null || "text".equals(type);
+        }
+
+        boolean isNumeric() {
+            return type != null && List.of("long", "integer", "short", "byte", "double", "float", "half_float", "scaled_float").contains(type);
+        }
+
+        boolean isDate() {
+            return "date".equals(type);
+        }
+
+        boolean isRange() {
+            return type != null && type.endsWith("_range");
+        }
+    }
+
+    static class StoredDocument {
+
+        final String id;
+        final long seqNo;
+        final long version;
+        final Map<String, Object> source;
+
+        StoredDocument(String id, long seqNo, long version, Map<String, Object> source) {
+            this.id = id;
+            this.seqNo = seqNo;
+            this.version = version;
+            this.source = source;
+        }
+    }
+}
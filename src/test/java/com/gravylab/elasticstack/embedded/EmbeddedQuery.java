@@ -0,0 +1,408 @@
+package com.gravylab.elasticstack.embedded;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class EmbeddedQuery {
+
+    private static final Pattern DATE_MATH = Pattern.compile("now(?:([+-])(\\d+)([yMwdhHms]))?(?:/([yMwdhHms]))?");
+
+    private final EmbeddedIndex index;
+
+    EmbeddedQuery(EmbeddedIndex index) {
+        this.index = index;
+    }
+
+    //TODO 일치하지 않으면 null 을, 일치하면 간단한 점수를 돌려준다. 실제 BM25 점수가 아니라 맞은 절의 수에 가깝다.
+    @SuppressWarnings("unchecked")
+    Double score(Map<String, Object> query, Map<String, Object> source) {
+        if (query == null || query.isEmpty()) {
+            return 1.0;
+        }
+        Map.Entry<String, Object> entry = query.entrySet().iterator().next();
+        Map<String, Object> body = (Map<String, Object>) entry.getValue();
+        switch (entry.getKey()) {
+            case "match_all":
+                return 1.0;
+            case "match_none":
+                return null;
+            case "bool":
+                return bool(body, source);
+            case "constant_score":
+                return score((Map<String, Object>) body.get("filter"), source) == null ? null : 1.0;
+            case "ids":
+                return ((Collection<Object>) body.get("values")).contains(source.get("_id")) ? 1.0 : null;
+            case "exists":
+                return values(source, (String) body.get("field")).isEmpty() ? null : 1.0;
+            case "match":
+                return match(fieldBody(body), source, false);
+            case "match_phrase":
+                return match(fieldBody(body), source, true);
+            case "multi_match":
+                return multiMatch(body, source);
+            case "term":
+                return term(fieldBody(body), source);
+            case "terms":
+                return terms(body, source);
+            case "range":
+                return range(fieldBody(body), source);
+            case "wildcard":
+                return wildcard(fieldBody(body), source, "wildcard");
+            case "prefix":
+                return wildcard(fieldBody(body), source, "prefix");
+            default:
+                throw new EmbeddedElasticsearch.EmbeddedException(400, "parsing_exception", "unknown query [" + entry.getKey() + "]");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Double bool(Map<String, Object> body, Map<String, Object> source) {
+        double score = 0;
+        for (Map<String, Object> clause : clauses(body.get("must"))) {
+            Double clauseScore = score(clause, source);
+            if (clauseScore == null) {
+                return null;
+            }
+            score += clauseScore;
+        }
+        for (Map<String, Object> clause : clauses(body.get("filter"))) {
+            if (score(clause, source) == null) {
+                return null;
+            }
+        }
+        for (Map<String, Object> clause : clauses(body.get("must_not"))) {
+            if (score(clause, source) != null) {
+                return null;
+            }
+        }
+        List<Map<String, Object>> should = clauses(body.get("should"));
+        int matchedShould = 0;
+        for (Map<String, Object> clause : should) {
+            Double clauseScore = score(clause, source);
+            if (clauseScore != null) {
+                matchedShould++;
+                score += clauseScore;
+            }
+        }
+        boolean onlyShould = clauses(body.get("must")).isEmpty() && clauses(body.get("filter")).isEmpty();
+        int minimumShouldMatch = body.get("minimum_should_match") == null
+                ? (onlyShould && !should.isEmpty() ? 1 : 0)
+                : minimumShouldMatch(String.valueOf(body.get("minimum_should_match")), should.size());
+        if (matchedShould < minimumShouldMatch) {
+            return null;
+        }
+        return Math.max(score, 1.0);
+    }
+
+    private static int minimumShouldMatch(String value, int clauses) {
+        if (value.endsWith("%")) {
+            int percent = Integer.parseInt(value.substring(0, value.length() - 1));
+            int count = clauses * Math.abs(percent) / 100;
+            return percent < 0 ? clauses - count : count;
+        }
+        int count = Integer.parseInt(value);
+        return count < 0 ? clauses + count : count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> clauses(Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof List) {
+            return (List<Map<String, Object>>) value;
+        }
+        return List.of((Map<String, Object>) value);
+    }
+
+    //TODO {"field":{"query":...}} 과 {"field":"value"} 두 형태를 모두 받는다. 반환값의 "_field" 에 필드 이름을 담는다.
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> fieldBody(Map<String, Object> body) {
+        for (Map.Entry<String, Object> entry : body.entrySet()) {
+            if (entry.getKey().equals("boost") || entry.getKey().equals("_name")) {
+                continue;
+            }
+            Map<String, Object> normalized = new HashMap<>();
+            if (entry.getValue() instanceof Map) {
+                normalized.putAll((Map<String, Object>) entry.getValue());
+            } else {
+                normalized.put("query", entry.getValue());
+                normalized.put("value", entry.getValue());
+            }
+            normalized.put("_field", entry.getKey());
+            return normalized;
+        }
+        throw new EmbeddedElasticsearch.EmbeddedException(400, "parsing_exception", "query doesn't have a field");
+    }
+
+    private Double match(Map<String, Object> body, Map<String, Object> source, boolean phrase) {
+        String field = (String) body.get("_field");
+        Object query = body.get("query");
+        EmbeddedIndex.Field mapping = index.field(field);
+        List<Object> values = values(source, mapping.sourcePath);
+        if (!mapping.isText()) {
+            return term(field, query, source);
+        }
+        EmbeddedAnalyzer analyzer = mapping.analyzer == null ? EmbeddedAnalyzer.STANDARD : index.analyzer(mapping.analyzer);
+        List<String> queryTerms = analyzer.terms(String.valueOf(query));
+        if (queryTerms.isEmpty()) {
+            return null;
+        }
+        boolean and = "and".equalsIgnoreCase(String.valueOf(body.getOrDefault("operator", "or")));
+        double best = 0;
+        for (Object value : values) {
+            List<String> terms = analyzer.terms(String.valueOf(value));
+            double score;
+            if (phrase) {
+                score = Collections.indexOfSubList(terms, queryTerms) >= 0 ? queryTerms.size() : 0;
+            } else {
+                long matched = queryTerms.stream().filter(terms::contains).count();
+                score = and && matched < queryTerms.size() ? 0 : matched;
+            }
+            best = Math.max(best, score);
+        }
+        return best > 0 ? best : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Double multiMatch(Map<String, Object> body, Map<String, Object> source) {
+        Object fields = body.get("fields");
+        List<String> patterns = fields == null || ((Collection<Object>) fields).isEmpty()
+                ? List.of("*")
+                : new ArrayList<>((Collection<String>) fields);
+        double best = 0;
+        for (String pattern : patterns) {
+            String[] parts = pattern.split("\\^");
+            double boost = parts.length > 1 ? Double.parseDouble(parts[1]) : 1.0;
+            for (String field : index.leafFields()) {
+                if (!wildcardMatch(parts[0], field)) {
+                    continue;
+                }
+                Map<String, Object> fieldQuery = new HashMap<>(body);
+                fieldQuery.put("_field", field);
+                Double score = match(fieldQuery, source, "phrase".equals(body.get("type")));
+                if (score != null) {
+                    best = Math.max(best, score * boost);
+                }
+            }
+        }
+        return best > 0 ? best : null;
+    }
+
+    private Double term(Map<String, Object> body, Map<String, Object> source) {
+        return term((String) body.get("_field"), body.get("value"), source);
+    }
+
+    private Double term(String field, Object expected, Map<String, Object> source) {
+        EmbeddedIndex.Field mapping = index.field(field);
+        for (Object value : values(source, mapping.sourcePath)) {
+            if (mapping.isText() && mapping.type != null) {
+                if (EmbeddedAnalyzer.STANDARD.terms(String.valueOf(value)).contains(String.valueOf(expected))) {
+                    return 1.0;
+                }
+            } else if (equalsValue(mapping, value, expected)) {
+                return 1.0;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Double terms(Map<String, Object> body, Map<String, Object> source) {
+        for (Map.Entry<String, Object> entry : body.entrySet()) {
+            if (entry.getKey().equals("boost") || !(entry.getValue() instanceof Collection)) {
+                continue;
+            }
+            for (Object expected : (Collection<Object>) entry.getValue()) {
+                if (term(entry.getKey(), expected, source) != null) {
+                    return 1.0;
+                }
+            }
+            return null;
+        }
+        return null;
+    }
+
+    private static boolean equalsValue(EmbeddedIndex.Field mapping, Object value, Object expected) {
+        if (mapping.isNumeric() && value instanceof Number) {
+            return ((Number) value).doubleValue() == Double.parseDouble(String.valueOf(expected));
+        }
+        if (mapping.isDate()) {
+            Long left = EmbeddedIndex.parseDate(value);
+            Long right = EmbeddedIndex.parseDate(expected);
+            return left != null && left.equals(right);
+        }
+        return String.valueOf(value).equals(String.valueOf(expected));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Double range(Map<String, Object> body, Map<String, Object> source) {
+        EmbeddedIndex.Field mapping = index.field((String) body.get("_field"));
+        Object lower = body.containsKey("gte") ? body.get("gte") : body.containsKey("gt") ? body.get("gt") : body.get("from");
+        Object upper = body.containsKey("lte") ? body.get("lte") : body.containsKey("lt") ? body.get("lt") : body.get("to");
+        boolean includeLower = body.containsKey("gte") || (!body.containsKey("gt") && (Boolean) body.getOrDefault("include_lower", true));
+        boolean includeUpper = body.containsKey("lte") || (!body.containsKey("lt") && (Boolean) body.getOrDefault("include_upper", true));
+        String relation = String.valueOf(body.getOrDefault("relation", "intersects")).toLowerCase(Locale.ROOT);
+
+        Double from = lower == null ? null : bound(mapping, lower, false);
+        Double to = upper == null ? null : bound(mapping, upper, includeUpper);
+        double low = from == null ? Double.NEGATIVE_INFINITY : from;
+        double high = to == null ? Double.POSITIVE_INFINITY : to;
+
+        for (Object value : values(source, mapping.sourcePath)) {
+            if (mapping.isRange() && value instanceof Map) {
+                Map<String, Object> stored = (Map<String, Object>) value;
+                double storedLow = stored.get("gte") == null ? Double.NEGATIVE_INFINITY : bound(mapping, stored.get("gte"), false);
+                double storedHigh = stored.get("lte") == null ? Double.POSITIVE_INFINITY : bound(mapping, stored.get("lte"), true);
+                boolean matches;
+                switch (relation) {
+                    case "within":
+                        matches = storedLow >= low && storedHigh <= high;
+                        break;
+                    case "contains":
+                        matches = storedLow <= low && storedHigh >= high;
+                        break;
+                    default:
+                        matches = storedLow <= high && storedHigh >= low;
+                }
+                if (matches) {
+                    return 1.0;
+                }
+                continue;
+            }
+            Double number = mapping.isDate() ? toDouble(EmbeddedIndex.parseDate(value)) : toNumber(value);
+            if (number == null) {
+                continue;
+            }
+            boolean aboveLower = from == null || (includeLower ? number >= from : number > from);
+            boolean belowUpper = to == null || (includeUpper ? number <= to : number < to);
+            if (aboveLower && belowUpper) {
+                return 1.0;
+            }
+        }
+        return null;
+    }
+
+    //TODO 날짜만 있는 상한(2021-08-31)은 실제 Elasticsearch 처럼 그날의 끝으로 올림한다.
+    private static Double bound(EmbeddedIndex.Field mapping, Object value, boolean roundUp) {
+        if (!mapping.isDate() && !"date_range".equals(mapping.type)) {
+            return toNumber(value);
+        }
+        String text = String.valueOf(value);
+        Matcher matcher = DATE_MATH.matcher(text);
+        if (matcher.matches()) {
+            ZonedDateTime time = ZonedDateTime.now(ZoneOffset.UTC);
+            if (matcher.group(1) != null) {
+                long amount = Long.parseLong(matcher.group(2)) * ("-".equals(matcher.group(1)) ? -1 : 1);
+                time = time.plus(amount, unit(matcher.group(3)));
+            }
+            return (double) time.toInstant().toEpochMilli();
+        }
+        if (roundUp && text.matches("\\d{4}-\\d{2}-\\d{2}")) {
+            return (double) LocalDate.parse(text).plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli() - 1;
+        }
+        return toDouble(EmbeddedIndex.parseDate(value));
+    }
+
+    private static ChronoUnit unit(String unit) {
+        switch (unit) {
+            case "y":
+                return ChronoUnit.YEARS;
+            case "M":
+                return ChronoUnit.MONTHS;
+            case "w":
+                return ChronoUnit.WEEKS;
+            case "d":
+                return ChronoUnit.DAYS;
+            case "h":
+            case "H":
+                return ChronoUnit.HOURS;
+            case "m":
+                return ChronoUnit.MINUTES;
+            default:
+                return ChronoUnit.SECONDS;
+        }
+    }
+
+    private Double wildcard(Map<String, Object> body, Map<String, Object> source, String type) {
+        EmbeddedIndex.Field mapping = index.field((String) body.get("_field"));
+        String pattern = String.valueOf(body.containsKey(type) ? body.get(type) : body.get("value"));
+        if ("prefix".equals(type)) {
+            pattern = pattern + "*";
+        }
+        for (Object value : values(source, mapping.sourcePath)) {
+            List<String> candidates = mapping.isText() && mapping.type != null
+                    ? EmbeddedAnalyzer.STANDARD.terms(String.valueOf(value))
+                    : List.of(String.valueOf(value));
+            for (String candidate : candidates) {
+                if (wildcardMatch(pattern, candidate)) {
+                    return 1.0;
+                }
+            }
+        }
+        return null;
+    }
+
+    static boolean wildcardMatch(String pattern, String value) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return value.matches(regex.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> values(Map<String, Object> source, String path) {
+        List<Object> current = new ArrayList<>();
+        current.add(source);
+        for (String segment : path.split("\\.")) {
+            List<Object> next = new ArrayList<>();
+            for (Object node : current) {
+                if (node instanceof Map && ((Map<String, Object>) node).containsKey(segment)) {
+                    Object child = ((Map<String, Object>) node).get(segment);
+                    if (child instanceof List) {
+                        next.addAll((List<Object>) child);
+                    } else if (child != null) {
+                        next.add(child);
+                    }
+                } else if (node instanceof Map && ((Map<String, Object>) node).containsKey(path)) {
+                    next.add(((Map<String, Object>) node).get(path));
+                }
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    private static Double toNumber(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double toDouble(Long value) {
+        return value == null ? null : value.doubleValue();
+    }
+}
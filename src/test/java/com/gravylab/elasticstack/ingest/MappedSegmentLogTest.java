@@ -0,0 +1,114 @@
+package com.gravylab.elasticstack.ingest;
+
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedSegmentLogTest {
+
+    //TODO 레코드 몇 개만 넣어도 세그먼트가 넘어가도록 아주 작게 잡는다.
+    private static final int SEGMENT_SIZE = 64;
+
+    @TempDir
+    Path directory;
+
+    @DisplayName("세그먼트를 넘나들며 쌓은 레코드를 쌓은 순서대로 읽는다")
+    @Test
+    void poll_records_in_order_across_segments() throws Exception {
+        try (MappedSegmentLog segmentLog = new MappedSegmentLog(directory, SEGMENT_SIZE, 1024)) {
+            for (int i = 0; i < 10; i++) {
+                segmentLog.append(record("document-" + i));
+            }
+            assertTrue(segmentLog.diskUsageBytes() > SEGMENT_SIZE);
+
+            List<String> polled = new ArrayList<>();
+            MappedSegmentLog.Batch batch;
+            while (!(batch = segmentLog.poll(30)).isEmpty()) {
+                for (ByteBuffer record : batch.getRecords()) {
+                    polled.add(StandardCharsets.UTF_8.decode(record).toString());
+                }
+                segmentLog.commit(batch);
+            }
+            assertEquals(10, polled.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("document-" + i, polled.get(i));
+            }
+            assertTrue(segmentLog.isEmpty());
+        }
+    }
+
+    @DisplayName("다 읽은 세그먼트는 지우지 않고 재사용해서 디스크 사용량이 늘지 않는다")
+    @Test
+    void recycle_consumed_segments() throws Exception {
+        try (MappedSegmentLog segmentLog = new MappedSegmentLog(directory, SEGMENT_SIZE, 1024)) {
+            for (int i = 0; i < 10; i++) {
+                segmentLog.append(record("document-" + i));
+            }
+            long diskUsage = segmentLog.diskUsageBytes();
+            segmentLog.commit(segmentLog.poll(Long.MAX_VALUE));
+
+            //TODO 재사용한 세그먼트에 남아 있던 이전 레코드가 다시 읽히면 안 된다.
+            for (int i = 10; i < 20; i++) {
+                segmentLog.append(record("document-" + i));
+            }
+            assertEquals(diskUsage, segmentLog.diskUsageBytes());
+            ByteBuffer[] records = segmentLog.poll(Long.MAX_VALUE).getRecords();
+            assertEquals(10, records.length);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("document-" + (i + 10), StandardCharsets.UTF_8.decode(records[i]).toString());
+            }
+        }
+    }
+
+    @DisplayName("다시 열면 체크포인트 이후의 레코드부터 이어서 읽는다")
+    @Test
+    void resume_from_checkpoint_after_reopen() throws Exception {
+        try (MappedSegmentLog segmentLog = new MappedSegmentLog(directory, SEGMENT_SIZE, 1024)) {
+            for (int i = 0; i < 5; i++) {
+                segmentLog.append(record("document-" + i));
+            }
+            segmentLog.commit(segmentLog.poll(1));
+            //TODO commit 하지 않은 poll 은 재시작 후에 다시 읽혀야 한다.
+            segmentLog.poll(1);
+        }
+
+        try (MappedSegmentLog segmentLog = new MappedSegmentLog(directory, SEGMENT_SIZE, 1024)) {
+            MappedSegmentLog.Batch batch = segmentLog.poll(Long.MAX_VALUE);
+            assertEquals(4, batch.getRecords().length);
+            assertEquals("document-1", StandardCharsets.UTF_8.decode(batch.getRecords()[0]).toString());
+
+            segmentLog.append(record("document-5"));
+            segmentLog.commit(batch);
+            assertEquals("document-5", StandardCharsets.UTF_8.decode(segmentLog.poll(Long.MAX_VALUE).getRecords()[0]).toString());
+        }
+    }
+
+    @DisplayName("디스크 사용량 한도에 닿으면 더 받지 않는다")
+    @Test
+    void reject_records_when_spool_is_full() throws Exception {
+        try (MappedSegmentLog segmentLog = new MappedSegmentLog(directory, SEGMENT_SIZE, SEGMENT_SIZE * 2)) {
+            segmentLog.append(record("x".repeat(40)));
+            segmentLog.append(record("x".repeat(40)));
+            assertThrows(EsRejectedExecutionException.class, () -> segmentLog.append(record("x".repeat(40))));
+
+            //TODO 읽고 지운 세그먼트 자리만큼 다시 받을 수 있다.
+            segmentLog.commit(segmentLog.poll(1));
+            segmentLog.append(record("x".repeat(40)));
+        }
+    }
+
+    private static ByteBuffer record(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
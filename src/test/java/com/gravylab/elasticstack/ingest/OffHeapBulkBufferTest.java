@@ -0,0 +1,89 @@
+package com.gravylab.elasticstack.ingest;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapBulkBufferTest {
+
+    private static final String EXPECTED = "{\"index\":{\"_index\":\"qindex\",\"_id\":\"1\"}}\n"
+            + "{\"contents\":\"I Love Elastic Stack\"}\n"
+            + "{\"index\":{\"_index\":\"qindex\"}}\n"
+            + "{\"category\":\"Tech\"}\n";
+
+    //TODO 한 줄이 여러 청크에 걸쳐 쓰이도록 청크를 아주 작게 잡는다.
+    private final DirectBufferPool pool = new DirectBufferPool(16, 4);
+
+    @DisplayName("여러 다이렉트 버퍼 청크에 걸쳐 _bulk NDJSON 본문을 만든다")
+    @Test
+    void write_bulk_body_across_chunks() throws Exception {
+        OffHeapBulkBuffer buffer = new OffHeapBulkBuffer(pool);
+        buffer.index("qindex", "1", Map.of("contents", "I Love Elastic Stack"));
+        buffer.index("qindex", null, Map.of("category", "Tech"));
+
+        HttpEntity entity = buffer.toEntity();
+        assertEquals(2, buffer.getActions());
+        assertEquals(EXPECTED.length(), entity.getContentLength());
+        assertEquals(EXPECTED, EntityUtils.toString(entity, StandardCharsets.UTF_8));
+
+        //TODO 다른 노드로 재시도할 때를 위해 같은 엔티티를 여러 번 읽을 수 있어야 한다.
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        entity.writeTo(outputStream);
+        assertEquals(EXPECTED, outputStream.toString(StandardCharsets.UTF_8));
+
+        buffer.release();
+        assertTrue(buffer.isEmpty());
+        assertEquals(4, pool.getPooledChunks());
+    }
+
+    @DisplayName("직렬화에 실패한 문서는 버퍼에 흔적을 남기지 않는다")
+    @Test
+    void rollback_failed_document() throws Exception {
+        OffHeapBulkBuffer buffer = new OffHeapBulkBuffer(pool);
+        buffer.index("qindex", "1", Map.of("contents", "I Love Elastic Stack"));
+        long size = buffer.size();
+
+        assertThrows(IllegalArgumentException.class, () -> buffer.index("qindex", "2", Map.of("contents", new Object())));
+
+        assertEquals(size, buffer.size());
+        assertEquals(1, buffer.getActions());
+        assertEquals(EXPECTED.substring(0, (int) size), EntityUtils.toString(buffer.toEntity(), StandardCharsets.UTF_8));
+    }
+
+    @DisplayName("거절된 아이템의 줄만 골라 새 버퍼로 옮긴다")
+    @Test
+    void copy_rejected_items() throws Exception {
+        OffHeapBulkBuffer buffer = new OffHeapBulkBuffer(pool);
+        buffer.index("qindex", "1", Map.of("contents", "I Love Elastic Stack"));
+        buffer.index("qindex", null, Map.of("category", "Tech"));
+        BulkItemResponse[] items = {
+                BulkItemResponse.success(0, DocWriteRequest.OpType.INDEX,
+                        new IndexResponse(new ShardId("qindex", "_na_", 0), "_doc", "1", 1, 1, 1, true)),
+                BulkItemResponse.failure(1, DocWriteRequest.OpType.INDEX,
+                        new BulkItemResponse.Failure("qindex", "_doc", null, new EsRejectedExecutionException("write thread pool is full")))
+        };
+
+        OffHeapBulkBuffer rejected = new OffHeapBulkBuffer(pool);
+        rejected.copyItems(buffer.chunks(), items, BulkIngestService::isRejected);
+
+        assertEquals(1, rejected.getActions());
+        assertEquals(Set.of("qindex"), rejected.getIndices());
+        assertEquals(EXPECTED.substring(EXPECTED.indexOf("{\"index\":{\"_index\":\"qindex\"}}")),
+                EntityUtils.toString(rejected.toEntity(), StandardCharsets.UTF_8));
+    }
+}
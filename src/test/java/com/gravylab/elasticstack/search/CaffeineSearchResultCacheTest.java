@@ -0,0 +1,123 @@
+package com.gravylab.elasticstack.search;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CaffeineSearchResultCacheTest {
+
+    public static final String KIBANA_SAMPLE_DATA_ECOMMERCE = "kibana_sample_data_ecommerce";
+    public static final String DAY_OF_WEEK = "day_of_week";
+    public static final String FRIDAY = "Friday";
+
+    private final CaffeineSearchResultCache searchResultCache = new CaffeineSearchResultCache(new SearchProperties(),
+            new StaticListableBeanFactory().getBeanProvider(RestHighLevelClient.class), RequestOptions.DEFAULT);
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    @DisplayName("같은 모양의 쿼리는 캐시된 응답을 재사용한다")
+    @Test
+    void reuse_cached_response_for_same_query() throws Exception {
+        SearchResponse first = searchResultCache.get(fridayFilterQuery(), this::load).get();
+        SearchResponse second = searchResultCache.get(fridayFilterQuery(), this::load).get();
+
+        assertSame(first, second);
+        assertEquals(1, loadCount.get());
+        assertEquals(1, searchResultCache.stats().getHitCount());
+        assertEquals(1, searchResultCache.stats().getMissCount());
+    }
+
+    @DisplayName("인덱스에 쓰기가 발생하면 해당 인덱스의 캐시를 무효화한다")
+    @Test
+    void invalidate_when_index_written() throws Exception {
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+
+        searchResultCache.onIndicesWritten(Set.of("qindex"));
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+        assertEquals(1, loadCount.get());
+
+        searchResultCache.onIndicesWritten(Set.of(KIBANA_SAMPLE_DATA_ECOMMERCE));
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+        assertEquals(2, loadCount.get());
+    }
+
+    @DisplayName("routing, preference 가 다르면 같은 쿼리라도 다른 키로 캐시한다")
+    @Test
+    void separate_keys_by_routing_and_preference() throws Exception {
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+        searchResultCache.get(fridayFilterQuery().routing("customer-1"), this::load).get();
+        searchResultCache.get(fridayFilterQuery().preference("_local"), this::load).get();
+        searchResultCache.get(fridayFilterQuery().routing("customer-1"), this::load).get();
+
+        assertEquals(3, loadCount.get());
+    }
+
+    @DisplayName("쓰기 직후 다시 채워진 캐시는 refresh 주기가 지난 뒤 한 번 더 무효화한다")
+    @Test
+    void invalidate_again_after_refresh_interval() throws Exception {
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getCache().setRefreshInterval(Duration.ofMillis(100));
+        CaffeineSearchResultCache searchResultCache = new CaffeineSearchResultCache(searchProperties,
+                new StaticListableBeanFactory().getBeanProvider(RestHighLevelClient.class), RequestOptions.DEFAULT);
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+
+        //TODO 쓰기 응답 직후의 검색은 아직 쓰기가 보이지 않는 결과를 다시 캐시한다.
+        searchResultCache.onIndicesWritten(Set.of(KIBANA_SAMPLE_DATA_ECOMMERCE));
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+        assertEquals(2, loadCount.get());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (loadCount.get() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            searchResultCache.get(fridayFilterQuery(), this::load).get();
+        }
+        assertEquals(3, loadCount.get());
+    }
+
+    @DisplayName("명시적인 refresh 가 끝나면 해당 인덱스의 캐시를 무효화한다")
+    @Test
+    void invalidate_when_index_refreshed() throws Exception {
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+
+        searchResultCache.onIndicesRefreshed(Set.of(KIBANA_SAMPLE_DATA_ECOMMERCE));
+        searchResultCache.get(fridayFilterQuery(), this::load).get();
+        assertEquals(2, loadCount.get());
+    }
+
+    private SearchRequest fridayFilterQuery() {
+        return new SearchRequest(KIBANA_SAMPLE_DATA_ECOMMERCE)
+                .source(
+                        new SearchSourceBuilder()
+                                .query(
+                                        boolQuery()
+                                                .filter(
+                                                        termQuery(DAY_OF_WEEK, FRIDAY)
+                                                )
+                                )
+                );
+    }
+
+    private CompletableFuture<SearchResponse> load(SearchRequest searchRequest) {
+        loadCount.incrementAndGet();
+        return CompletableFuture.completedFuture(
+                new SearchResponse(InternalSearchResponse.empty(), null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY)
+        );
+    }
+}
@@ -0,0 +1,82 @@
+package com.gravylab.elasticstack.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryTemplateTest {
+
+    public static final String CUSTOMER_FULL_NAME = "customer_full_name";
+    public static final String DAY_OF_WEEK = "day_of_week";
+    public static final String TAXFUL_TOTAL_PRICE = "taxful_total_price";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @DisplayName("파라미터를 끼워 넣은 결과는 값을 직접 넣어 직렬화한 쿼리와 같다")
+    @Test
+    void render_same_json_as_serialized_builder() throws Exception {
+        QueryTemplate queryTemplate = QueryTemplate.compile("name_and_day", nameAndDayQuery(
+                QueryTemplate.param("name"), QueryTemplate.param("day"), QueryTemplate.param("min_price")));
+
+        byte[] rendered = queryTemplate.render(Map.of("name", "Mary \"Bailey\"", "day", "Friday", "min_price", 30), objectMapper);
+
+        String expected = serialize(nameAndDayQuery("Mary \"Bailey\"", "Friday", 30));
+        assertEquals(objectMapper.readTree(expected), objectMapper.readTree(rendered));
+        assertEquals(List.of("name", "day", "min_price"), queryTemplate.getParameterNames());
+    }
+
+    @DisplayName("mustache 소스는 파라미터 자리를 toJson 섹션으로 바꾼다")
+    @Test
+    void convert_placeholders_to_mustache_sections() {
+        QueryTemplate queryTemplate = QueryTemplate.compile("day", "{\"query\":{\"term\":{\"day_of_week\":\"{{day}}\"}}}");
+
+        assertEquals("{\"query\":{\"term\":{\"day_of_week\":{{#toJson}}day{{/toJson}}}}}", queryTemplate.toMustache());
+    }
+
+    @DisplayName("누락된 파라미터가 있으면 요청을 만들지 않는다")
+    @Test
+    void reject_missing_parameter() {
+        QueryTemplate queryTemplate = QueryTemplate.compile("day", "{\"query\":{\"term\":{\"day_of_week\":\"{{day}}\"}}}");
+
+        assertThrows(IllegalArgumentException.class, () -> queryTemplate.render(Map.of(), objectMapper));
+    }
+
+    private SearchSourceBuilder nameAndDayQuery(String name, String day, Object minPrice) {
+        return new SearchSourceBuilder()
+                .query(
+                        boolQuery()
+                                .must(
+                                        matchQuery(CUSTOMER_FULL_NAME, name)
+                                )
+                                .filter(
+                                        termQuery(DAY_OF_WEEK, day)
+                                )
+                                .filter(
+                                        rangeQuery(TAXFUL_TOTAL_PRICE)
+                                                .gte(minPrice)
+                                )
+                );
+    }
+
+    private String serialize(SearchSourceBuilder searchSourceBuilder) throws Exception {
+        XContentBuilder builder = XContentFactory.jsonBuilder();
+        searchSourceBuilder.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return new String(BytesReference.toBytes(BytesReference.bytes(builder)), StandardCharsets.UTF_8);
+    }
+}